@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding.benchmarks;
+
+import io.yupiik.jdbc.overriding.RewriteConfiguration;
+import io.yupiik.jdbc.overriding.RewriteConfigurationLoader;
+import io.yupiik.jdbc.overriding.rewrite.RewritingConnection;
+import io.yupiik.jdbc.overriding.rewrite.RewritingPrepareStatement;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+// cost of the wrapper (binding capture, remapping and replay) compared to the same statement on the raw H2 driver,
+// the update matches no row to keep the database work minimal and constant
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class ExecutionBenchmark {
+    private static final int BATCH_SIZE = 100;
+
+    // parameters must be public for the generated code
+    @Param({"1", "5", "20"})
+    public int parameters;
+
+    @Param({"INT", "STRING", "BYTES"})
+    public String type;
+
+    @Param({"IDENTITY", "PERMUTED", "DROPPED"})
+    public String mapping;
+
+    @Param({"true", "false"})
+    public boolean wrapped;
+
+    private Connection connection;
+    private PreparedStatement statement;
+    private Type valueType;
+    private int boundParameters; // the application binds all parameters, raw driver only the rewritten ones
+    private String[] strings;
+    private byte[][] bytes;
+
+    @Setup(Level.Trial)
+    public void setup() throws SQLException {
+        valueType = Type.valueOf(type);
+        strings = IntStream.rangeClosed(0, parameters).mapToObj(i -> "value-" + i).toArray(String[]::new);
+        bytes = IntStream.rangeClosed(0, parameters).mapToObj(i -> new byte[64]).toArray(byte[][]::new);
+
+        connection = DriverManager.getConnection("jdbc:h2:mem:" + UUID.randomUUID(), "sa", "");
+        try (final var create = connection.createStatement()) {
+            create.execute("create table bench(id int primary key, " + IntStream.rangeClosed(1, parameters)
+                    .mapToObj(i -> "c" + i + ' ' + valueType.sqlType)
+                    .collect(Collectors.joining(", ")) + ")");
+        }
+
+        final var applicationSql = update(IntStream.rangeClosed(1, parameters));
+        final var rule = new Properties();
+        rule.setProperty("bench.sql.matching", applicationSql);
+        final String rewrittenSql;
+        switch (mapping) {
+            case "IDENTITY":
+                rewrittenSql = applicationSql;
+                break;
+            case "PERMUTED": // reversed columns
+                rewrittenSql = update(IntStream.rangeClosed(1, parameters).map(i -> parameters - i + 1));
+                for (int i = 1; i <= parameters; i++) {
+                    rule.setProperty("bench.bindings." + i, Integer.toString(parameters - i + 1));
+                }
+                break;
+            case "DROPPED": // last parameter ignored
+                rewrittenSql = parameters == 1 ?
+                        "update bench set c1 = null where id = -1" :
+                        update(IntStream.range(1, parameters));
+                rule.setProperty("bench.bindings." + parameters, "0");
+                break;
+            default:
+                throw new IllegalArgumentException(mapping);
+        }
+        rule.setProperty("bench.sql.replacing", rewrittenSql);
+
+        if (wrapped) {
+            final var configuration = new RewriteConfiguration(new RewriteConfigurationLoader(false).load(rule));
+            statement = new RewritingConnection(connection, configuration).prepareStatement(applicationSql);
+            if (!(statement instanceof RewritingPrepareStatement)) {
+                throw new IllegalStateException("Rule not matched: " + applicationSql);
+            }
+            boundParameters = parameters;
+        } else {
+            statement = connection.prepareStatement(rewrittenSql);
+            boundParameters = "DROPPED".equals(mapping) ? parameters - 1 : parameters;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        statement.close();
+        connection.close();
+    }
+
+    @Benchmark
+    public int execute() throws SQLException {
+        bind();
+        return statement.executeUpdate();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE) // reported per batch entry
+    public int[] batch() throws SQLException {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            bind();
+            statement.addBatch();
+        }
+        return statement.executeBatch();
+    }
+
+    private void bind() throws SQLException {
+        for (int i = 1; i <= boundParameters; i++) {
+            switch (valueType) {
+                case INT:
+                    statement.setInt(i, i);
+                    break;
+                case STRING:
+                    statement.setString(i, strings[i]);
+                    break;
+                default:
+                    statement.setBytes(i, bytes[i]);
+            }
+        }
+    }
+
+    private static String update(final IntStream columns) {
+        return "update bench set " + columns.mapToObj(i -> "c" + i + " = ?").collect(Collectors.joining(", ")) + " where id = -1";
+    }
+
+    // IDE friendly launcher, same as java -jar benchmarks.jar ExecutionBenchmark -prof gc
+    public static void main(final String... args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ExecutionBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build())
+                .run();
+    }
+
+    private enum Type {
+        INT("int"), STRING("varchar(64)"), BYTES("varbinary(64)");
+
+        private final String sqlType;
+
+        Type(final String sqlType) {
+            this.sqlType = sqlType;
+        }
+    }
+}
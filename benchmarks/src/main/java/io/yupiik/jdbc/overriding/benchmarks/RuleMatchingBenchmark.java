@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding.benchmarks;
+
+import io.yupiik.jdbc.overriding.RewriteConfiguration;
+import io.yupiik.jdbc.overriding.rewrite.MatchedRewriting;
+import io.yupiik.jdbc.overriding.rewrite.RewritingConnection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+// goes through the public prepareStatement on top of a no-op physical connection so the rule lookup dominates
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class RuleMatchingBenchmark {
+    // parameters must be public for the generated code
+    @Param({"10", "1000", "100000"})
+    public int rules;
+
+    @Param({"PLAIN", "CASE_INSENSITIVE", "REGEX"})
+    public String kind;
+
+    @Param({"true", "false"})
+    public boolean hit;
+
+    private RewriteConfiguration configuration;
+    private RewritingConnection connection;
+    private String[] workload;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final var ruleKind = RuleSets.Kind.valueOf(kind);
+        configuration = RuleSets.configuration(ruleKind, rules);
+        connection = new RewritingConnection(RuleSets.noOpConnection(), configuration);
+        workload = RuleSets.workload(ruleKind, rules, hit);
+    }
+
+    @Benchmark
+    public PreparedStatement prepareStatement(final Cursor cursor) throws SQLException {
+        return connection.prepareStatement(cursor.next(workload));
+    }
+
+    @Benchmark
+    public MatchedRewriting tryRewriteUsingRegexes(final Cursor cursor) {
+        return configuration.tryRewriteUsingRegexes(cursor.next(workload));
+    }
+
+    // IDE friendly launcher, same as java -jar benchmarks.jar RuleMatchingBenchmark -prof gc
+    public static void main(final String... args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(RuleMatchingBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build())
+                .run();
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int index;
+
+        String next(final String[] workload) {
+            return workload[index++ & (RuleSets.WORKLOAD_SIZE - 1)];
+        }
+    }
+}
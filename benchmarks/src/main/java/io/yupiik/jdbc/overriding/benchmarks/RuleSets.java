@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding.benchmarks;
+
+import io.yupiik.jdbc.overriding.RewriteConfiguration;
+import io.yupiik.jdbc.overriding.RewriteConfigurationLoader;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+
+// generates rule sets and workloads with SQL of a realistic size (~300 characters)
+final class RuleSets {
+    static final int WORKLOAD_SIZE = 1024; // power of two
+
+    private RuleSets() {
+        // no-op
+    }
+
+    enum Kind {
+        PLAIN, CASE_INSENSITIVE, REGEX
+    }
+
+    static RewriteConfiguration configuration(final Kind kind, final int rules) {
+        final var properties = new Properties();
+        for (int i = 0; i < rules; i++) {
+            final var name = "rule_" + i;
+            switch (kind) {
+                case PLAIN:
+                    properties.setProperty(name, "false"); // case sensitive
+                    properties.setProperty(name + ".sql.matching", sql("table_" + i));
+                    properties.setProperty(name + ".sql.replacing", sql("table_" + i + "_v2"));
+                    break;
+                case CASE_INSENSITIVE:
+                    properties.setProperty(name + ".sql.matching", sql("table_" + i));
+                    properties.setProperty(name + ".sql.replacing", sql("table_" + i + "_v2"));
+                    break;
+                case REGEX:
+                    properties.setProperty(name + ".type", "REGEX");
+                    properties.setProperty(name + ".sql.matching", "select (?<columns>.+) from table_" + i + " t " +
+                            "join owners o on o\\.id = t\\.owner_id where (?<where>.+) order by t\\.created_at desc limit \\d+");
+                    properties.setProperty(name + ".sql.replacing", "select ${columns} from table_" + i + "_v2 t " +
+                            "join owners o on o.id = t.owner_id where ${where} order by t.created_at desc limit 50");
+                    break;
+                default:
+                    throw new IllegalArgumentException(kind.name());
+            }
+        }
+        return new RewriteConfiguration(new RewriteConfigurationLoader(true).load(properties), true);
+    }
+
+    // hits are spread randomly (but reproducibly) over the rules, misses look like the rules but use another table
+    static String[] workload(final Kind kind, final int rules, final boolean hit) {
+        final var random = new Random(1234);
+        final var workload = new String[WORKLOAD_SIZE];
+        for (int i = 0; i < workload.length; i++) {
+            final int rule = random.nextInt(rules);
+            if (!hit) {
+                workload[i] = sql("other_" + rule);
+            } else if (kind == Kind.CASE_INSENSITIVE) { // ensure the exact lookup misses
+                workload[i] = sql("table_" + rule).replace("select ", "SELECT ").replace(" where ", " WHERE ");
+            } else {
+                workload[i] = sql("table_" + rule);
+            }
+            workload[i] = new String(workload[i].toCharArray()); // no cached hash code as for a SQL coming from the application
+        }
+        return workload;
+    }
+
+    // the benchmarked SQL references tables which don't exist so the physical connection and statements do nothing
+    static Connection noOpConnection() {
+        final var statement = noOp(PreparedStatement.class, null);
+        return noOp(Connection.class, statement);
+    }
+
+    private static <T> T noOp(final Class<T> api, final PreparedStatement statement) {
+        return api.cast(Proxy.newProxyInstance(RuleSets.class.getClassLoader(), new Class<?>[]{api}, (proxy, method, args) -> {
+            final var type = method.getReturnType();
+            if (type == PreparedStatement.class) {
+                return statement;
+            }
+            if (type == boolean.class) {
+                return false;
+            }
+            if (type == int.class) {
+                return 0;
+            }
+            if (type == long.class) {
+                return 0L;
+            }
+            return null;
+        }));
+    }
+
+    static String sql(final String table) {
+        return "select t.id, t.name, t.description, t.status, t.created_at, t.updated_at, o.id as owner_id, o.email as owner_email " +
+                "from " + table.toLowerCase(Locale.ROOT) + " t join owners o on o.id = t.owner_id " +
+                "where t.tenant = ? and t.status in (?, ?, ?) and t.created_at > ? " +
+                "order by t.created_at desc limit 50";
+    }
+}
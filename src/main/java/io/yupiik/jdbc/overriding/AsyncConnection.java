@@ -0,0 +1,29 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding;
+
+import java.sql.ResultSet;
+import java.util.concurrent.CompletableFuture;
+
+// obtained with connection.unwrap(AsyncConnection.class), statements are prepared, bound (setObject) and closed by the call,
+// executions of a connection run one after the other (submission order) and the connection must not be used
+// synchronously until the returned futures complete
+public interface AsyncConnection {
+    // the result set is materialized in memory (disconnected)
+    CompletableFuture<ResultSet> executeQueryAsync(String sql, Object... parameters);
+
+    CompletableFuture<Integer> executeUpdateAsync(String sql, Object... parameters);
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding;
+
+import java.sql.ResultSet;
+import java.util.concurrent.CompletableFuture;
+
+// obtained with preparedStatement.unwrap(AsyncPreparedStatement.class) on a rewritten statement,
+// the statement must not be used until the returned future completes, executions are serialized with the other
+// asynchronous executions of the connection
+public interface AsyncPreparedStatement {
+    // the result set is materialized in memory (disconnected)
+    CompletableFuture<ResultSet> executeQueryAsync();
+
+    CompletableFuture<Integer> executeUpdateAsync();
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding;
+
+import java.time.Duration;
+
+// usage: try (final var deadline = Deadline.in(Duration.ofSeconds(2))) { /* jdbc calls */ }
+public final class Deadline implements AutoCloseable {
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+    private final long end; // System.nanoTime() based
+    private final Deadline previous;
+
+    private Deadline(final long end, final Deadline previous) {
+        this.end = end;
+        this.previous = previous;
+    }
+
+    public static Deadline in(final Duration timeout) {
+        final var previous = CURRENT.get();
+        final long end = System.nanoTime() + timeout.toNanos();
+        // a nested deadline can't extend the enclosing one
+        final var deadline = new Deadline(previous != null && previous.end - end < 0 ? previous.end : end, previous);
+        CURRENT.set(deadline);
+        return deadline;
+    }
+
+    // re-enters this deadline in the current thread (asynchronous executions), close it to restore the previous one
+    public Deadline enter() {
+        final var previous = CURRENT.get();
+        final var deadline = new Deadline(previous != null && previous.end - end < 0 ? previous.end : end, previous);
+        CURRENT.set(deadline);
+        return deadline;
+    }
+
+    public static Deadline current() {
+        return CURRENT.get();
+    }
+
+    public long remainingNanos() {
+        return end - System.nanoTime();
+    }
+
+    public boolean isExpired() {
+        return remainingNanos() <= 0;
+    }
+
+    public Duration remaining() {
+        return Duration.ofNanos(Math.max(0, remainingNanos()));
+    }
+
+    @Override
+    public void close() {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+}
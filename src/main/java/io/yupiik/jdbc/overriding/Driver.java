@@ -15,31 +15,43 @@
  */
 package io.yupiik.jdbc.overriding;
 
+import io.yupiik.jdbc.overriding.metrics.MetricsRegistry;
+import io.yupiik.jdbc.overriding.metrics.SlowStatementLog;
+import io.yupiik.jdbc.overriding.metrics.StatementStatistics;
+import io.yupiik.jdbc.overriding.rewrite.AsyncExecutors;
+import io.yupiik.jdbc.overriding.rewrite.ConnectionContext;
+import io.yupiik.jdbc.overriding.rewrite.LazyConnection;
+import io.yupiik.jdbc.overriding.rewrite.MetaDataCache;
 import io.yupiik.jdbc.overriding.rewrite.RewritingConnection;
 
 import java.io.IOException;
-import java.lang.ref.WeakReference;
 import java.lang.reflect.InvocationTargetException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.DriverPropertyInfo;
 import java.sql.SQLException;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
-import static java.util.Locale.ROOT;
+import static java.util.Comparator.comparingLong;
 import static java.util.Objects.requireNonNull;
 import static java.util.Optional.ofNullable;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.logging.Level.SEVERE;
-import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toMap;
+import static java.util.stream.Collectors.toSet;
 
 public class Driver implements java.sql.Driver {
     private static final Pattern ARG_SPLITTER = Pattern.compile(";");
@@ -49,7 +61,10 @@ public class Driver implements java.sql.Driver {
     // default to false for now like pg for ex
     private static final boolean JDBC_COMPLIANT = Boolean.getBoolean(Driver.class.getName() + ".jdbcCompliant");
 
-    private static final Map<String, WeakReference<UrlData>> CACHE = new ConcurrentHashMap<>();
+    // parsing the URL and loading the configuration is costly so it is shared by all the connections of the same URL
+    private static final int CACHE_SIZE = Integer.getInteger(Driver.class.getName() + ".cacheSize", 64);
+    private static final Map<String, UrlData> CACHE = new ConcurrentHashMap<>();
+    private static final Object CACHE_LOCK = new Object(); // creations only, lookups are lock free
 
     static {
         try {
@@ -65,24 +80,122 @@ public class Driver implements java.sql.Driver {
             return null;
         }
 
-        final var cached = CACHE.get(url);
-        if (cached != null) {
-            final var existing = cached.get();
-            if (existing != null) {
-                return new RewritingConnection(existing.driver.connect(existing.url, info), existing.configuration);
+        final var urlData = acquire(url);
+        try {
+            return newConnection(urlData, info);
+        } catch (final SQLException | RuntimeException e) {
+            urlData.release();
+            throw e;
+        }
+    }
+
+    // connections already created keep their configuration, next ones will reload it
+    public static boolean invalidate(final String url) {
+        final var removed = CACHE.remove(url);
+        if (removed == null) {
+            return false;
+        }
+        removed.retire();
+        return true;
+    }
+
+    public static void invalidateAll() {
+        CACHE.keySet().forEach(Driver::invalidate);
+    }
+
+    private UrlData urlData(final String url) {
+        final var existing = CACHE.get(url);
+        if (existing != null) {
+            existing.lastAccess = System.nanoTime();
+            return existing;
+        }
+
+        // loading can be slow (files, regexes, JMX) so it is not done under a map lock (computeIfAbsent),
+        // the creation lock avoids to load twice the same URL and to register twice its JMX names
+        final UrlData created;
+        synchronized (CACHE_LOCK) {
+            final var concurrent = CACHE.get(url);
+            if (concurrent != null) {
+                return concurrent;
+            }
+            created = createUrlData(url);
+            CACHE.putIfAbsent(url, created);
+        }
+        if (CACHE.size() > CACHE_SIZE) {
+            evict(created);
+        }
+        return created;
+    }
+
+    // the returned data is kept open until the connection releases it
+    private UrlData acquire(final String url) {
+        while (true) {
+            final var urlData = urlData(url);
+            if (urlData.acquire()) {
+                return urlData;
             }
+            // evicted and closed meanwhile so no more in the cache, next lookup creates it again
         }
+    }
 
+    // least recently used eviction, only done when a new URL is used so it is fine to be linear
+    private void evict(final UrlData keep) {
+        while (CACHE.size() > CACHE_SIZE) {
+            final var eldest = CACHE.entrySet().stream()
+                    .filter(it -> it.getValue() != keep)
+                    .min(comparingLong(it -> it.getValue().lastAccess));
+            if (eldest.isEmpty()) {
+                return;
+            }
+            final var entry = eldest.orElseThrow();
+            if (CACHE.remove(entry.getKey(), entry.getValue())) {
+                entry.getValue().retire();
+            }
+        }
+    }
+
+    private UrlData createUrlData(final String url) {
         final var parsed = parseUrl(url);
         final var delegatingUrl = requireNonNull(parsed.get("url"), "No 'url' set on '" + url + "'");
         try {
             final var loader = ofNullable(Thread.currentThread().getContextClassLoader())
                     .orElseGet(Driver.class::getClassLoader);
+            final var driver = newDriver(parsed.get("driver"), delegatingUrl, loader);
+            final var configuration = parsed.get("configuration");
+            final var sources = configuration == null || configuration.isBlank() ?
+                    null :
+                    new RewriteConfigurationSources(
+                            loader, configuration,
+                            Boolean.parseBoolean(parsed.getOrDefault("configurationParallelLoading", "false")),
+                            Boolean.parseBoolean(parsed.getOrDefault("configurationLazyRegexes", "false")));
             final var urlData = new UrlData(
-                    newDriver(delegatingUrl, parsed, loader), delegatingUrl,
-                    new RewriteConfiguration(loadConfiguration(loader, parsed.get("configuration"))));
-            CACHE.put(url, new WeakReference<>(urlData));
-            return new RewritingConnection(urlData.driver.connect(delegatingUrl, info), urlData.configuration);
+                    driver, delegatingUrl,
+                    sources == null ? new RewriteConfiguration(Map.of()) : sources.load(),
+                    loadDelegates(parsed, driver, loader),
+                    Integer.parseInt(parsed.getOrDefault("asyncThreads", "0")),
+                    Boolean.parseBoolean(parsed.getOrDefault("lazyConnection", "false")),
+                    ConnectionContext.builder()
+                            .stateCaching(Boolean.parseBoolean(parsed.getOrDefault("connectionStateCaching", "false")))
+                            .metaDataCache(loadMetaDataCache(parsed))
+                            .metrics(loadMetrics(parsed, url))
+                            .statistics(loadStatistics(parsed))
+                            .slowLog(loadSlowStatementLog(parsed))
+                            .listener(ExecutionListeners.load(loader)));
+
+            final var reloadInterval = Long.parseLong(parsed.getOrDefault("configurationReloadInterval", "0"));
+            if (reloadInterval > 0 && sources != null && sources.isWatchable()) {
+                urlData.watch(sources, reloadInterval);
+            }
+
+            if (Boolean.parseBoolean(parsed.getOrDefault("explainJmx", "false"))) {
+                urlData.exposeExplainer(jmxName(parsed, url));
+            }
+
+            final var statisticsDump = parsed.get("statisticsDump");
+            if (urlData.context.statistics() != null && statisticsDump != null && !statisticsDump.isBlank()) {
+                urlData.dumpStatistics(Path.of(statisticsDump), Long.parseLong(parsed.getOrDefault("statisticsDumpInterval", "60000")));
+            }
+            return urlData;
         } catch (final SQLException e) {
             throw new IllegalArgumentException(e);
         }
@@ -123,12 +236,143 @@ public class Driver implements java.sql.Driver {
         return PARENT_LOGGER;
     }
 
-    private java.sql.Driver newDriver(final String url,
-                                      final Map<String, String> parsed,
+    // used by the datasource to pool the physical connections while sharing the URL configuration
+    Connection connectPhysical(final String url, final Properties info) throws SQLException {
+        final var urlData = urlData(url);
+        return urlData.driver.connect(urlData.url, info);
+    }
+
+    RewritingConnection wrap(final String url, final Connection physical, final Properties info) {
+        final var urlData = acquire(url);
+        try {
+            return newConnection(urlData, physical, info);
+        } catch (final RuntimeException e) {
+            urlData.release();
+            throw e;
+        }
+    }
+
+    private RewritingConnection newConnection(final UrlData urlData, final Properties info) throws SQLException {
+        return newConnection(
+                urlData,
+                urlData.lazyConnection ?
+                        new LazyConnection(() -> urlData.driver.connect(urlData.url, info)) :
+                        urlData.driver.connect(urlData.url, info),
+                info);
+    }
+
+    // the connection releases the URL data when closed so its observers are not closed while still used
+    private RewritingConnection newConnection(final UrlData urlData, final Connection physical, final Properties info) {
+        final var released = new AtomicBoolean();
+        final var connection = new RewritingConnection(
+                physical, () -> urlData.configuration,
+                name -> {
+                    final var delegate = urlData.delegates.get(name);
+                    if (delegate == null) {
+                        throw new SQLException("Unknown delegate '" + name + "', available: " + urlData.delegates.keySet());
+                    }
+                    return delegate.driver.connect(delegate.url, info);
+                },
+                info == null ? null : info.getProperty("user"),
+                urlData.context) {
+            @Override
+            public void close() throws SQLException {
+                try {
+                    super.close();
+                } finally {
+                    release();
+                }
+            }
+
+            @Override
+            public void abort(final Executor executor) throws SQLException {
+                try {
+                    super.abort(executor);
+                } finally {
+                    release();
+                }
+            }
+
+            private void release() {
+                if (released.compareAndSet(false, true)) {
+                    urlData.release();
+                }
+            }
+        };
+        final var listener = urlData.context.listener();
+        if (listener != null) {
+            listener.onConnect(connection);
+        }
+        return connection;
+    }
+
+    private MetaDataCache loadMetaDataCache(final Map<String, String> parsed) {
+        final var ttl = Long.parseLong(parsed.getOrDefault("metaDataCacheTtl", "0"));
+        return ttl > 0 ? new MetaDataCache(ttl, Integer.parseInt(parsed.getOrDefault("metaDataCacheMaxEntries", "1024"))) : null;
+    }
+
+    private MetricsRegistry loadMetrics(final Map<String, String> parsed, final String url) {
+        if (!Boolean.parseBoolean(parsed.getOrDefault("metrics", "false"))) {
+            return null;
+        }
+        return new MetricsRegistry(jmxName(parsed, url), true);
+    }
+
+    // the URL can contain credentials so it is not used as JMX name
+    private String jmxName(final Map<String, String> parsed, final String url) {
+        return parsed.getOrDefault("metricsName", Integer.toHexString(url.hashCode()));
+    }
+
+    private StatementStatistics loadStatistics(final Map<String, String> parsed) {
+        return Boolean.parseBoolean(parsed.getOrDefault("statistics", "false")) ?
+                new StatementStatistics(Integer.parseInt(parsed.getOrDefault("statisticsMaxEntries", "1000"))) :
+                null;
+    }
+
+    private SlowStatementLog loadSlowStatementLog(final Map<String, String> parsed) {
+        final var threshold = Long.parseLong(parsed.getOrDefault("slowStatementThreshold", "-1"));
+        if (threshold < 0) {
+            return null;
+        }
+        final var mask = parsed.getOrDefault("slowStatementMask", "").strip();
+        return new SlowStatementLog(
+                threshold,
+                Integer.parseInt(parsed.getOrDefault("slowStatementQueueSize", "1024")),
+                Integer.parseInt(parsed.getOrDefault("slowStatementMaxValueLength", "64")),
+                "*".equals(mask) ? null : Stream.of(mask.split(","))
+                        .map(String::strip)
+                        .filter(it -> !it.isBlank())
+                        .map(Integer::valueOf)
+                        .collect(toSet()));
+    }
+
+    private Map<String, DelegateDriver> loadDelegates(final Map<String, String> parsed,
+                                                      final java.sql.Driver defaultDriver,
+                                                      final ClassLoader loader) throws SQLException {
+        final var prefix = "delegate.";
+        final var urlSuffix = ".url";
+        final var delegates = new HashMap<String, DelegateDriver>();
+        for (final var entry : parsed.entrySet()) {
+            final var key = entry.getKey();
+            if (!key.startsWith(prefix) || !key.endsWith(urlSuffix)) {
+                continue;
+            }
+
+            final var name = key.substring(prefix.length(), key.length() - urlSuffix.length());
+            final var driver = parsed.get(prefix + name + ".driver");
+            delegates.put(name, new DelegateDriver(
+                    driver == null ? defaultDriver : newDriver(driver, entry.getValue(), loader),
+                    entry.getValue()));
+        }
+        return delegates;
+    }
+
+    private java.sql.Driver newDriver(final String driver,
+                                      final String url,
                                       final ClassLoader loader) throws SQLException {
         try {
             final var constructor = Class.forName(
-                            requireNonNull(parsed.get("driver"), "No 'driver' found on '" + url + "'"),
+                            requireNonNull(driver, "No 'driver' found on '" + url + "'"),
                             true, loader)
                     .asSubclass(java.sql.Driver.class)
                     .getDeclaredConstructor();
@@ -144,7 +388,11 @@ public class Driver implements java.sql.Driver {
 
     private Map<String, String> parseUrl(final String url) {
         final var values = url.substring(SELF_PREFIX.length());
-        final var known = Set.of("driver", "configuration", "url", "username", "password");
+        final var known = Set.of("driver", "configuration", "url", "username", "password", "asyncThreads", "lazyConnection", "connectionStateCaching",
+                "metaDataCacheTtl", "metaDataCacheMaxEntries", "metrics", "metricsName", "explainJmx",
+                "statistics", "statisticsMaxEntries", "statisticsDump", "statisticsDumpInterval",
+                "slowStatementThreshold", "slowStatementQueueSize", "slowStatementMaxValueLength", "slowStatementMask",
+                "configurationReloadInterval", "configurationParallelLoading", "configurationLazyRegexes");
         return Stream.of(ARG_SPLITTER.split(values))
                 .map(it -> {
                     final int sep = it.indexOf('=');
@@ -152,84 +400,160 @@ public class Driver implements java.sql.Driver {
                             new String[]{it.substring(0, sep).strip(), it.substring(sep + 1).strip()} :
                             new String[]{it.strip(), "true"};
                 })
-                .filter(it -> known.contains(it[0]))
+                .filter(it -> known.contains(it[0]) || it[0].startsWith("delegate."))
                 .collect(toMap(
                         it -> it[0],
-                        it -> "url".equals(it[0]) ?
+                        it -> "url".equals(it[0]) || (it[0].startsWith("delegate.") && it[0].endsWith(".url")) ?
                                 it[1].replace("$semicolon", ";") :
                                 it[1],
                         (a, b) -> b));
     }
 
-    private Map<RewriteConfiguration.Sql, RewriteConfiguration.RewriteStatement> loadConfiguration(
-            final ClassLoader loader, final String configuration) {
-        if (configuration == null || configuration.isBlank()) {
-            return Map.of();
+    private static class UrlData {
+        private final java.sql.Driver driver;
+        private final String url;
+        private final Map<String, DelegateDriver> delegates;
+        private final int asyncThreads;
+        private final boolean lazyConnection;
+        private final ConnectionContext context;
+        private volatile RewriteConfiguration configuration;
+        private volatile Executor asyncExecutor;
+        private volatile long lastAccess = System.nanoTime();
+        private ScheduledFuture<?> reloadTask;
+        private ScheduledFuture<?> dumpTask;
+        private Explainer explainer;
+        private int connections; // open connections, guarded by this
+        private boolean retired;
+        private boolean closed;
+
+        private UrlData(final java.sql.Driver driver, final String url, final RewriteConfiguration configuration,
+                        final Map<String, DelegateDriver> delegates, final int asyncThreads,
+                        final boolean lazyConnection, final ConnectionContext.Builder context) {
+            this.driver = driver;
+            this.url = url;
+            this.configuration = configuration;
+            this.delegates = delegates;
+            this.asyncThreads = asyncThreads;
+            this.lazyConnection = lazyConnection;
+            this.context = context.asyncExecutor(task -> asyncExecutor().execute(task)).build();
         }
 
-        final var props = new Properties();
-        final var location = Path.of(configuration);
-        if (Files.exists(location)) {
-            PARENT_LOGGER.info(() -> "Loading '" + location.toAbsolutePath().normalize() + "'");
-            try (final var is = Files.newInputStream(location)) {
-                props.load(is);
-            } catch (final IOException e) {
-                throw new IllegalArgumentException(e);
+        // lazy to not create threads when the asynchronous API is not used
+        private Executor asyncExecutor() {
+            var executor = asyncExecutor;
+            if (executor == null) {
+                synchronized (this) {
+                    executor = asyncExecutor;
+                    if (executor == null) {
+                        executor = asyncThreads > 0 ?
+                                AsyncExecutors.newExecutor("yupiik-jdbc-async", asyncThreads) :
+                                AsyncExecutors.defaultExecutor();
+                        asyncExecutor = executor;
+                    }
+                }
             }
-        } else {
-            try (final var is = loader.getResourceAsStream(configuration)) {
-                if (is != null) {
-                    props.load(is);
+            return executor;
+        }
+
+        // polling is portable (WatchService is not reliable on all filesystems) and cheap for a few files
+        private synchronized void watch(final RewriteConfigurationSources sources, final long interval) {
+            reloadTask = Scheduler.INSTANCE.scheduleWithFixedDelay(() -> {
+                try {
+                    final var reloaded = sources.reload();
+                    if (reloaded != null) {
+                        configuration = reloaded; // single volatile swap, prepared statements keep their rule
+                    }
+                } catch (final RuntimeException re) { // keep previous configuration
+                    PARENT_LOGGER.log(SEVERE, re, () -> "Can't reload the configuration: " + re.getMessage());
                 }
-            } catch (final IOException e) {
-                throw new IllegalArgumentException(e);
+            }, interval, interval, MILLISECONDS);
+        }
+
+        private synchronized void exposeExplainer(final String name) {
+            explainer = new Explainer(name, () -> configuration);
+        }
+
+        private synchronized void dumpStatistics(final Path target, final long interval) {
+            dumpTask = Scheduler.INSTANCE.scheduleWithFixedDelay(() -> {
+                try {
+                    context.statistics().dump(target);
+                } catch (final IOException | RuntimeException e) {
+                    PARENT_LOGGER.log(SEVERE, e, () -> "Can't dump the statement statistics to '" + target + "': " + e.getMessage());
+                }
+            }, interval, interval, MILLISECONDS);
+        }
+
+        // false when already closed (evicted meanwhile), the caller must look the URL up again
+        private synchronized boolean acquire() {
+            if (closed) {
+                return false;
             }
+            connections++;
+            return true;
         }
 
-        final var suffix = ".sql.matching";
-        final var keys = props.stringPropertyNames().stream()
-                .filter(k -> k.endsWith(suffix))
-                .map(String::strip)
-                .collect(toList());
-        return keys.stream()
-                .collect(toMap(
-                        key -> {
-                            final var sql = props.getProperty(key);
-                            final var ignoreCase = Boolean.parseBoolean(props.getProperty(key.substring(0, key.length() - suffix.length()), "true"));
-                            return new RewriteConfiguration.Sql(
-                                    sql, ignoreCase,
-                                    ignoreCase ? sql.toLowerCase(ROOT).hashCode() : sql.hashCode());
-                        },
-                        key -> {
-                            final var prefix = key.substring(0, key.length() - suffix.length());
-                            final var bindingsPrefix = prefix + ".bindings.";
-                            final var resultSetPrefix = prefix + ".resultset.";
-                            final var resultSetIndicesPrefix = resultSetPrefix + "index.";
-                            final var resultSetNamesPrefix = resultSetPrefix + "name.";
-                            return new RewriteConfiguration.RewriteStatement(
-                                    props.getProperty(prefix + ".sql.replacing", props.getProperty(key)).strip(),
-                                    props.stringPropertyNames().stream()
-                                            .filter(b -> b.startsWith(bindingsPrefix))
-                                            .collect(toMap(i -> Integer.parseInt(i.substring(bindingsPrefix.length()).strip()), i -> Integer.parseInt(props.getProperty(i).strip()))),
-                                    RewriteConfiguration.RewriteType.valueOf(props.getProperty(prefix + ".type", "PLAIN")),
-                                    props.stringPropertyNames().stream()
-                                            .filter(b -> b.startsWith(resultSetIndicesPrefix))
-                                            .collect(toMap(i -> Integer.parseInt(i.substring(resultSetIndicesPrefix.length()).strip()), i -> Integer.parseInt(props.getProperty(i).strip()))),
-                                    props.stringPropertyNames().stream()
-                                            .filter(b -> b.startsWith(resultSetNamesPrefix))
-                                            .collect(toMap(i -> i.substring(resultSetNamesPrefix.length()).strip(), i -> props.getProperty(i).strip())));
-                        }));
+        private synchronized void release() {
+            connections--;
+            if (retired && connections == 0) {
+                close();
+            }
+        }
+
+        // removed from the cache: JMX names are freed for the next data of the same URL right now
+        // but what open connections still use is only closed with the last of them
+        private synchronized void retire() {
+            if (retired) {
+                return;
+            }
+            retired = true;
+            if (reloadTask != null) {
+                reloadTask.cancel(false);
+                reloadTask = null;
+            }
+            if (explainer != null) {
+                explainer.close();
+                explainer = null;
+            }
+            if (context.metrics() != null) {
+                context.metrics().close();
+            }
+            if (connections == 0) {
+                close();
+            }
+        }
+
+        private synchronized void close() {
+            closed = true;
+            if (dumpTask != null) {
+                dumpTask.cancel(false);
+                dumpTask = null;
+            }
+            if (context.slowLog() != null) {
+                context.slowLog().close();
+            }
+        }
     }
 
-    private static class UrlData {
+    // shared by background tasks (configuration reload, pool eviction)
+    static final class Scheduler {
+        static final ScheduledExecutorService INSTANCE = Executors.newSingleThreadScheduledExecutor(r -> {
+            final var thread = new Thread(r, "yupiik-jdbc-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        private Scheduler() {
+            // no-op
+        }
+    }
+
+    private static class DelegateDriver {
         private final java.sql.Driver driver;
         private final String url;
-        private final RewriteConfiguration configuration;
 
-        private UrlData(final java.sql.Driver driver, final String url, final RewriteConfiguration configuration) {
+        private DelegateDriver(final java.sql.Driver driver, final String url) {
             this.driver = driver;
             this.url = url;
-            this.configuration = configuration;
         }
     }
 }
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding;
+
+import java.sql.Connection;
+
+// registered with ServiceLoader (META-INF/services/io.yupiik.jdbc.overriding.ExecutionListener),
+// listeners are loaded once per driver URL and must be thread safe, rule is null when no rule matched,
+// a listener failure is logged and ignored
+public interface ExecutionListener {
+    default void onConnect(final Connection connection) {
+        // no-op
+    }
+
+    default void onPrepare(final String sql) {
+        // no-op
+    }
+
+    default void onMatch(final String originalSql, final String rewrittenSql, final String rule) {
+        // no-op
+    }
+
+    // called for every execution, the returned context (a tracing span for example) is passed back to afterExecute,
+    // without matching rule rewrittenSql is the original SQL (both are null for plain statement batches)
+    default Object beforeExecute(final String originalSql, final String rewrittenSql, final String rule) {
+        return null;
+    }
+
+    // error is null on success
+    default void afterExecute(final Object context, final Throwable error) {
+        // no-op
+    }
+
+    default void onBatch(final String originalSql, final String rewrittenSql, final String rule, final int size) {
+        // no-op
+    }
+
+    default void onClose(final Connection connection) {
+        // no-op
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding;
+
+import java.sql.Connection;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.logging.Logger;
+
+import static java.util.logging.Level.WARNING;
+import static java.util.stream.Collectors.toList;
+
+// dispatches to the registered listeners, a failing listener is logged and never breaks the statement execution
+// nor masks its error
+final class ExecutionListeners implements ExecutionListener {
+    private static final Logger LOGGER = Logger.getLogger(ExecutionListeners.class.getName());
+
+    private final ExecutionListener[] listeners;
+
+    private ExecutionListeners(final List<ExecutionListener> listeners) {
+        this.listeners = listeners.toArray(new ExecutionListener[0]);
+    }
+
+    // null when there is no listener so callers only test a field
+    static ExecutionListener load(final ClassLoader loader) {
+        final var listeners = ServiceLoader.load(ExecutionListener.class, loader).stream()
+                .map(ServiceLoader.Provider::get)
+                .collect(toList());
+        if (listeners.isEmpty()) {
+            return null;
+        }
+        LOGGER.info(() -> "Using execution listeners " + listeners);
+        return new ExecutionListeners(listeners);
+    }
+
+    @Override
+    public void onConnect(final Connection connection) {
+        for (final var listener : listeners) {
+            try {
+                listener.onConnect(connection);
+            } catch (final RuntimeException re) {
+                onError(listener, "onConnect", re);
+            }
+        }
+    }
+
+    @Override
+    public void onPrepare(final String sql) {
+        for (final var listener : listeners) {
+            try {
+                listener.onPrepare(sql);
+            } catch (final RuntimeException re) {
+                onError(listener, "onPrepare", re);
+            }
+        }
+    }
+
+    @Override
+    public void onMatch(final String originalSql, final String rewrittenSql, final String rule) {
+        for (final var listener : listeners) {
+            try {
+                listener.onMatch(originalSql, rewrittenSql, rule);
+            } catch (final RuntimeException re) {
+                onError(listener, "onMatch", re);
+            }
+        }
+    }
+
+    @Override
+    public Object beforeExecute(final String originalSql, final String rewrittenSql, final String rule) {
+        final var contexts = new Object[listeners.length];
+        for (int i = 0; i < listeners.length; i++) {
+            try {
+                contexts[i] = listeners[i].beforeExecute(originalSql, rewrittenSql, rule);
+            } catch (final RuntimeException re) {
+                onError(listeners[i], "beforeExecute", re);
+            }
+        }
+        return contexts;
+    }
+
+    @Override
+    public void afterExecute(final Object context, final Throwable error) {
+        final var contexts = (Object[]) context;
+        for (int i = listeners.length - 1; i >= 0; i--) { // reverse order to close nested scopes properly
+            try {
+                listeners[i].afterExecute(contexts[i], error);
+            } catch (final RuntimeException re) {
+                onError(listeners[i], "afterExecute", re);
+            }
+        }
+    }
+
+    @Override
+    public void onBatch(final String originalSql, final String rewrittenSql, final String rule, final int size) {
+        for (final var listener : listeners) {
+            try {
+                listener.onBatch(originalSql, rewrittenSql, rule, size);
+            } catch (final RuntimeException re) {
+                onError(listener, "onBatch", re);
+            }
+        }
+    }
+
+    @Override
+    public void onClose(final Connection connection) {
+        for (final var listener : listeners) {
+            try {
+                listener.onClose(connection);
+            } catch (final RuntimeException re) {
+                onError(listener, "onClose", re);
+            }
+        }
+    }
+
+    private void onError(final ExecutionListener listener, final String callback, final RuntimeException error) {
+        LOGGER.log(WARNING, error, () -> "Listener " + listener + " failed in " + callback + ": " + error.getMessage());
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+import static java.util.logging.Level.WARNING;
+
+// JMX access to the explain API of a driver URL, always uses the current (reloaded) configuration
+class Explainer implements ExplainerMBean, AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(Explainer.class.getName());
+
+    private final Supplier<RewriteConfiguration> configuration;
+    private final ObjectName objectName;
+
+    Explainer(final String name, final Supplier<RewriteConfiguration> configuration) {
+        this.configuration = configuration;
+        try {
+            this.objectName = new ObjectName("io.yupiik.jdbc:type=Explain,registry=" + ObjectName.quote(name));
+            final var server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) { // previous instance for the same URL
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+        } catch (final JMException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    @Override
+    public String explain(final String sql) {
+        return configuration.get().explain(sql == null ? "" : sql.strip()).toString();
+    }
+
+    @Override
+    public void close() {
+        try {
+            final var server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (final JMException e) {
+            LOGGER.log(WARNING, e, () -> "Can't unregister '" + objectName + "': " + e.getMessage());
+        }
+    }
+}
@@ -15,45 +15,203 @@
  */
 package io.yupiik.jdbc.overriding;
 
+import io.yupiik.jdbc.overriding.rewrite.AsyncExecutors;
+import io.yupiik.jdbc.overriding.rewrite.Bulkhead;
+import io.yupiik.jdbc.overriding.rewrite.KeyLoader;
 import io.yupiik.jdbc.overriding.rewrite.MatchedRewriting;
+import io.yupiik.jdbc.overriding.rewrite.SingleFlight;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
 
 import static io.yupiik.jdbc.overriding.RewriteConfiguration.RewriteType.REGEX;
+import static java.util.Comparator.comparingInt;
+import static java.util.function.Function.identity;
+import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toMap;
 
 public class RewriteConfiguration {
     private final Map<Sql, RewriteStatement> configurations;
-    private final Map<Pattern, RewriteStatement> regexes;
+    private final List<Regex> regexes;
+    private final Map<String, Bulkhead> bulkheads;
 
     public RewriteConfiguration(final Map<Sql, RewriteStatement> configurations) {
+        this(configurations, false);
+    }
+
+    public RewriteConfiguration(final Map<Sql, RewriteStatement> configurations, final boolean parallel) {
+        this(configurations, configurations, parallel);
+    }
+
+    // eager are the statements which must be known upfront (regexes, bulkheads), others can be lazily looked up
+    public RewriteConfiguration(final Map<Sql, RewriteStatement> configurations, final Map<Sql, RewriteStatement> eager,
+                                final boolean parallel) {
+        this(configurations, eager, parallel, false);
+    }
+
+    // lazy mode compiles the patterns in background (by priority) or on first use instead of on the connecting thread
+    public RewriteConfiguration(final Map<Sql, RewriteStatement> configurations, final Map<Sql, RewriteStatement> eager,
+                                final boolean parallel, final boolean lazyRegexes) {
+        this(configurations, eager, parallel, lazyRegexes, null);
+    }
+
+    // previous enables to reuse the compiled patterns of the unchanged rules on reloads
+    public RewriteConfiguration(final Map<Sql, RewriteStatement> configurations, final Map<Sql, RewriteStatement> eager,
+                                final boolean parallel, final boolean lazyRegexes, final RewriteConfiguration previous) {
+        final var reusable = previous == null ?
+                Map.<RewriteStatement, Regex>of() :
+                previous.regexes.stream().collect(toMap(Regex::statement, identity()));
         this.configurations = configurations;
-        this.regexes = configurations.entrySet().stream()
+        this.regexes = eager.entrySet().stream()
                 .filter(i -> i.getValue().type() == REGEX)
-                .collect(toMap(i -> Pattern.compile(i.getKey().raw()), Map.Entry::getValue));
+                .map(i -> {
+                    final var existing = reusable.get(i.getValue());
+                    return existing != null ? existing : new Regex(i.getKey().raw(), i.getValue());
+                })
+                .sorted(comparingInt((Regex r) -> r.statement().priority()).reversed()
+                        .thenComparing(r -> r.statement().name() == null ? "" : r.statement().name()))
+                .collect(toList());
+        if (lazyRegexes) {
+            if (!regexes.isEmpty()) {
+                AsyncExecutors.defaultExecutor().execute(this::warmUp);
+            }
+        } else {
+            (parallel ? regexes.parallelStream() : regexes.stream()).forEach(Regex::pattern);
+        }
+        this.bulkheads = eager.values().stream()
+                .map(RewriteStatement::bulkhead)
+                .filter(Objects::nonNull)
+                .collect(toMap(Bulkhead::name, identity()));
     }
 
     public Map<Sql, RewriteStatement> configurations() {
         return configurations;
     }
 
+    public List<Regex> regexes() {
+        return regexes;
+    }
+
+    public Map<String, Bulkhead> bulkheads() {
+        return bulkheads;
+    }
+
+    // exact match first, then case insensitive and regexes (slower so last)
+    public MatchedRewriting match(final String sql) {
+        return lookup(sql, null);
+    }
+
+    // same lookup than match() but timing and recording each step, does not touch any connection
+    public RewriteExplanation explain(final String sql) {
+        final var steps = new ArrayList<RewriteExplanation.Step>();
+        final var matched = lookup(sql, steps);
+        return matched == null ?
+                new RewriteExplanation(sql, steps, null, null) :
+                new RewriteExplanation(sql, steps, matched.configuration(), matched.sql());
+    }
+
     public MatchedRewriting tryRewriteUsingRegexes(final String sql) {
+        return lookupRegexes(sql, null);
+    }
+
+    // the only lookup implementation, trace is null for match() so nothing is timed nor recorded
+    private MatchedRewriting lookup(final String sql, final List<RewriteExplanation.Step> trace) {
+        final var exact = lookup(new Sql(sql, false, sql.hashCode()), RewriteExplanation.Phase.EXACT, trace);
+        if (exact != null) {
+            return new MatchedRewriting(sql, exact.replacement(), exact);
+        }
+
+        final var caseInsensitive = lookup(
+                new Sql(sql, true, sql.toLowerCase(Locale.ROOT).hashCode()), RewriteExplanation.Phase.CASE_INSENSITIVE, trace);
+        if (caseInsensitive != null) {
+            return new MatchedRewriting(sql, caseInsensitive.replacement(), caseInsensitive);
+        }
+
+        return lookupRegexes(sql, trace);
+    }
+
+    private RewriteStatement lookup(final Sql key, final RewriteExplanation.Phase phase, final List<RewriteExplanation.Step> trace) {
+        if (trace == null) {
+            return configurations.get(key);
+        }
+
+        final long start = System.nanoTime();
+        final var rewriteStatement = configurations.get(key);
+        trace.add(new RewriteExplanation.Step(
+                phase, rewriteStatement == null ? null : rewriteStatement.name(), rewriteStatement != null, System.nanoTime() - start));
+        return rewriteStatement;
+    }
+
+    private MatchedRewriting lookupRegexes(final String sql, final List<RewriteExplanation.Step> trace) {
         if (regexes.isEmpty()) {
             return null;
         }
 
-        for (final var entry : regexes.entrySet()) {
-            final var matcher = entry.getKey().matcher(sql);
-            if (matcher.matches()) {
-                return new MatchedRewriting(matcher.replaceFirst(entry.getValue().replacement()), entry.getValue());
+        for (final var regex : regexes) {
+            final long start = trace == null ? 0 : System.nanoTime();
+            final var matcher = regex.pattern().matcher(sql);
+            final boolean matches = matcher.matches();
+            final var matched = matches ?
+                    new MatchedRewriting(sql, matcher.replaceFirst(regex.statement().replacement()), regex.statement()) :
+                    null;
+            if (trace != null) {
+                trace.add(new RewriteExplanation.Step(
+                        RewriteExplanation.Phase.REGEX, regex.statement().name(), matches, System.nanoTime() - start));
+            }
+            if (matched != null) {
+                return matched;
             }
         }
         return null;
     }
 
+    // compile in matching order and exercise the matchers a bit to get them JIT-ed before the first statements
+    private void warmUp() {
+        for (final var regex : regexes) {
+            final var pattern = regex.pattern();
+            for (int i = 0; i < 100; i++) {
+                pattern.matcher(regex.source()).matches();
+            }
+        }
+    }
+
+    public static class Regex {
+        private final String source;
+        private final RewriteStatement statement;
+        private volatile Pattern pattern;
+
+        public Regex(final String source, final RewriteStatement statement) {
+            this.source = source;
+            this.statement = statement;
+        }
+
+        public String source() {
+            return source;
+        }
+
+        public RewriteStatement statement() {
+            return statement;
+        }
+
+        public boolean isCompiled() {
+            return pattern != null;
+        }
+
+        public Pattern pattern() { // concurrent compilations are harmless so no lock
+            var compiled = pattern;
+            if (compiled == null) {
+                compiled = Pattern.compile(source);
+                pattern = compiled;
+            }
+            return compiled;
+        }
+    }
+
     public static class Sql implements Predicate<Sql> {
         private final String raw;
         private final boolean ignoreCase;
@@ -97,19 +255,80 @@ public class RewriteConfiguration {
     }
 
     public static class RewriteStatement {
+        private final String name;
         private final String replacement;
         private final Map<Integer, Integer> bindingIndices;
         private final Map<Integer, Integer> resultSetIndexOverride;
         private final Map<String, String> resultSetNameOverride;
         private final RewriteType type;
+        private final String delegate;
+        private final Sharding sharding;
+        private final Bulkhead bulkhead;
+        private final int maxTimeout;
+        private final SingleFlight singleFlight;
+        private final KeyLoader keyLoader;
+        private final int priority;
 
         public RewriteStatement(final String replacement, final Map<Integer, Integer> bindingIndices, final RewriteType type,
                                 final Map<Integer, Integer> resultSetIndexOverride, final Map<String, String> resultSetNameOverride) {
-            this.replacement = replacement;
-            this.bindingIndices = bindingIndices;
-            this.resultSetIndexOverride = resultSetIndexOverride;
-            this.resultSetNameOverride = resultSetNameOverride;
-            this.type = type;
+            this(builder()
+                    .replacement(replacement)
+                    .bindingIndices(bindingIndices)
+                    .type(type)
+                    .resultSetIndexOverride(resultSetIndexOverride)
+                    .resultSetNameOverride(resultSetNameOverride));
+        }
+
+        private RewriteStatement(final Builder builder) {
+            this.name = builder.name;
+            this.replacement = builder.replacement;
+            this.bindingIndices = builder.bindingIndices;
+            this.resultSetIndexOverride = builder.resultSetIndexOverride;
+            this.resultSetNameOverride = builder.resultSetNameOverride;
+            this.type = builder.type;
+            this.delegate = builder.delegate;
+            this.sharding = builder.sharding;
+            this.bulkhead = builder.bulkhead;
+            this.maxTimeout = builder.maxTimeout;
+            this.singleFlight = builder.singleFlight;
+            this.keyLoader = builder.keyLoader;
+            this.priority = builder.priority;
+        }
+
+        public static Builder builder() {
+            return new Builder();
+        }
+
+        public int priority() {
+            return priority;
+        }
+
+        public KeyLoader keyLoader() {
+            return keyLoader;
+        }
+
+        public SingleFlight singleFlight() {
+            return singleFlight;
+        }
+
+        public int maxTimeout() {
+            return maxTimeout;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public Bulkhead bulkhead() {
+            return bulkhead;
+        }
+
+        public String delegate() {
+            return delegate;
+        }
+
+        public Sharding sharding() {
+            return sharding;
         }
 
         public RewriteType type() {
@@ -131,6 +350,196 @@ public class RewriteConfiguration {
         public String replacement() {
             return replacement;
         }
+
+        public static final class Builder {
+            private String name;
+            private String replacement;
+            private Map<Integer, Integer> bindingIndices = Map.of();
+            private Map<Integer, Integer> resultSetIndexOverride;
+            private Map<String, String> resultSetNameOverride;
+            private RewriteType type = RewriteType.PLAIN;
+            private String delegate;
+            private Sharding sharding;
+            private Bulkhead bulkhead;
+            private int maxTimeout;
+            private SingleFlight singleFlight;
+            private KeyLoader keyLoader;
+            private int priority;
+
+            private Builder() {
+                // no-op
+            }
+
+            public Builder name(final String name) {
+                this.name = name;
+                return this;
+            }
+
+            public Builder replacement(final String replacement) {
+                this.replacement = replacement;
+                return this;
+            }
+
+            public Builder bindingIndices(final Map<Integer, Integer> bindingIndices) {
+                this.bindingIndices = bindingIndices;
+                return this;
+            }
+
+            public Builder resultSetIndexOverride(final Map<Integer, Integer> resultSetIndexOverride) {
+                this.resultSetIndexOverride = resultSetIndexOverride;
+                return this;
+            }
+
+            public Builder resultSetNameOverride(final Map<String, String> resultSetNameOverride) {
+                this.resultSetNameOverride = resultSetNameOverride;
+                return this;
+            }
+
+            public Builder type(final RewriteType type) {
+                this.type = type;
+                return this;
+            }
+
+            public Builder delegate(final String delegate) {
+                this.delegate = delegate;
+                return this;
+            }
+
+            public Builder sharding(final Sharding sharding) {
+                this.sharding = sharding;
+                return this;
+            }
+
+            public Builder bulkhead(final Bulkhead bulkhead) {
+                this.bulkhead = bulkhead;
+                return this;
+            }
+
+            public Builder maxTimeout(final int maxTimeout) {
+                this.maxTimeout = maxTimeout;
+                return this;
+            }
+
+            public Builder singleFlight(final SingleFlight singleFlight) {
+                this.singleFlight = singleFlight;
+                return this;
+            }
+
+            public Builder keyLoader(final KeyLoader keyLoader) {
+                this.keyLoader = keyLoader;
+                return this;
+            }
+
+            public Builder priority(final int priority) {
+                this.priority = priority;
+                return this;
+            }
+
+            public RewriteStatement build() {
+                return new RewriteStatement(this);
+            }
+        }
+    }
+
+    public static class Sharding {
+        private final List<String> delegates;
+        private final int binding;
+        private final ShardingStrategy strategy;
+        private final long[] ranges;
+        private final boolean fanOut;
+        private final int parallelism;
+
+        public Sharding(final List<String> delegates, final int binding, final ShardingStrategy strategy,
+                        final long[] ranges, final boolean fanOut) {
+            this(delegates, binding, strategy, ranges, fanOut, delegates.size());
+        }
+
+        // parallelism is the max number of shards a fan-out executes on concurrently
+        public Sharding(final List<String> delegates, final int binding, final ShardingStrategy strategy,
+                        final long[] ranges, final boolean fanOut, final int parallelism) {
+            if (delegates.isEmpty()) {
+                throw new IllegalArgumentException("No sharding delegate");
+            }
+            if (strategy == ShardingStrategy.RANGE && (ranges == null || ranges.length != delegates.size() - 1)) {
+                throw new IllegalArgumentException("RANGE sharding needs " + (delegates.size() - 1) + " ranges for delegates " + delegates);
+            }
+            this.delegates = delegates;
+            this.binding = binding;
+            this.strategy = strategy;
+            this.ranges = ranges;
+            this.fanOut = fanOut;
+            this.parallelism = Math.max(1, parallelism);
+        }
+
+        public List<String> delegates() {
+            return delegates;
+        }
+
+        public int binding() {
+            return binding;
+        }
+
+        public ShardingStrategy strategy() {
+            return strategy;
+        }
+
+        public boolean fanOut() {
+            return fanOut;
+        }
+
+        public int parallelism() {
+            return parallelism;
+        }
+
+        // RANGE needs a numeric key (number or numeric string), any key can be hashed
+        public boolean isValidKey(final Object value) {
+            return strategy != ShardingStrategy.RANGE || value instanceof Number || isLong(String.valueOf(value).strip());
+        }
+
+        // see isValidKey
+        public String select(final Object value) {
+            switch (strategy) {
+                case RANGE: {
+                    final long key = value instanceof Number ? ((Number) value).longValue() : Long.parseLong(String.valueOf(value).strip());
+                    for (int i = 0; i < ranges.length; i++) {
+                        if (key < ranges[i]) {
+                            return delegates.get(i);
+                        }
+                    }
+                    return delegates.get(ranges.length);
+                }
+                case HASH:
+                default:
+                    return delegates.get(Math.floorMod(hash(value), delegates.size()));
+            }
+        }
+
+        // a numeric key lands on the same shard whether it is bound as a number or as a string ("12" and 12)
+        private static int hash(final Object value) {
+            if (value instanceof Number) {
+                return Long.hashCode(((Number) value).longValue());
+            }
+            final var string = String.valueOf(value).strip();
+            return isLong(string) ? Long.hashCode(Long.parseLong(string)) : string.hashCode();
+        }
+
+        private static boolean isLong(final String value) {
+            final int start = value.startsWith("-") || value.startsWith("+") ? 1 : 0;
+            if (value.length() == start || value.length() - start > 18) { // 18 digits always fit in a long
+                return false;
+            }
+            for (int i = start; i < value.length(); i++) {
+                final char c = value.charAt(i);
+                if (c < '0' || c > '9') {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    public enum ShardingStrategy {
+        HASH, RANGE
     }
 
     public enum RewriteType {
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding;
+
+import io.yupiik.jdbc.overriding.rewrite.Bulkhead;
+import io.yupiik.jdbc.overriding.rewrite.KeyLoader;
+import io.yupiik.jdbc.overriding.rewrite.SingleFlight;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import static java.util.Locale.ROOT;
+import static java.util.Objects.requireNonNull;
+import static java.util.Optional.ofNullable;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toMap;
+
+// groups the properties per rule in a single pass then compiles each rule from its own properties only
+public class RewriteConfigurationLoader {
+    private static final String MATCHING = "sql.matching";
+
+    private final boolean parallel;
+
+    public RewriteConfigurationLoader(final boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    public Map<RewriteConfiguration.Sql, RewriteConfiguration.RewriteStatement> load(final Properties properties) {
+        return compile(group(properties));
+    }
+
+    // rule name -> (key without the rule name prefix -> value), the rule name itself is stored with an empty key
+    public Map<String, Map<String, String>> group(final Properties properties) {
+        final var keys = properties.stringPropertyNames();
+        final var rules = new HashMap<String, Map<String, String>>();
+        for (final var key : keys) {
+            if (key.endsWith('.' + MATCHING)) {
+                rules.put(key.substring(0, key.length() - MATCHING.length() - 1), new HashMap<>());
+            }
+        }
+
+        for (final var key : keys) {
+            final var value = properties.getProperty(key);
+            final var self = rules.get(key);
+            if (self != null) {
+                self.put("", value);
+                continue;
+            }
+
+            // names can contain dots so take the longest known one
+            int dot = key.lastIndexOf('.');
+            while (dot > 0) {
+                final var rule = rules.get(key.substring(0, dot));
+                if (rule != null) {
+                    rule.put(key.substring(dot + 1), value);
+                    break;
+                }
+                dot = key.lastIndexOf('.', dot - 1);
+            }
+        }
+        return rules;
+    }
+
+    public Map<RewriteConfiguration.Sql, RewriteConfiguration.RewriteStatement> compile(final Map<String, Map<String, String>> rules) {
+        final var stream = parallel ? rules.entrySet().parallelStream() : rules.entrySet().stream();
+        return stream.collect(toMap(e -> sql(e.getValue()), e -> compile(e.getKey(), e.getValue())));
+    }
+
+    public static RewriteConfiguration.Sql sql(final Map<String, String> rule) {
+        final var sql = rule.get(MATCHING);
+        final var ignoreCase = Boolean.parseBoolean(rule.getOrDefault("", "true"));
+        return new RewriteConfiguration.Sql(sql, ignoreCase, ignoreCase ? sql.toLowerCase(ROOT).hashCode() : sql.hashCode());
+    }
+
+    public static RewriteConfiguration.RewriteStatement compile(final String name, final Map<String, String> rule) {
+        return stateful(RewriteConfiguration.RewriteStatement.builder()
+                .name(name)
+                .replacement(rule.getOrDefault("sql.replacing", rule.get(MATCHING)).strip())
+                .bindingIndices(subset(rule, "bindings.", Integer::parseInt, Integer::parseInt))
+                .type(RewriteConfiguration.RewriteType.valueOf(rule.getOrDefault("type", "PLAIN")))
+                .resultSetIndexOverride(subset(rule, "resultset.index.", Integer::parseInt, Integer::parseInt))
+                .resultSetNameOverride(subset(rule, "resultset.name.", Function.identity(), Function.identity()))
+                .delegate(ofNullable(rule.get("delegate")).map(String::strip).orElse(null))
+                .maxTimeout(Integer.parseInt(rule.getOrDefault("timeout.max", "0").strip()))
+                .priority(Integer.parseInt(rule.getOrDefault("priority", "0").strip())), name, rule)
+                .build();
+    }
+
+    // the parts holding runtime state (counters, queues), always created from the properties (snapshots keep them as is)
+    static boolean isStateful(final String key) {
+        return key.startsWith("sharding.") || key.startsWith("concurrency.") || key.startsWith("loader.") || "singleFlight".equals(key);
+    }
+
+    static RewriteConfiguration.RewriteStatement.Builder stateful(final RewriteConfiguration.RewriteStatement.Builder builder,
+                                                                  final String name, final Map<String, String> rule) {
+        return builder
+                .sharding(sharding(rule))
+                .bulkhead(bulkhead(name, rule))
+                .singleFlight(Boolean.parseBoolean(rule.getOrDefault("singleFlight", "false").strip()) ? new SingleFlight(name) : null)
+                .keyLoader(keyLoader(name, rule));
+    }
+
+    private static <K, V> Map<K, V> subset(final Map<String, String> rule, final String prefix,
+                                           final Function<String, K> keyMapper, final Function<String, V> valueMapper) {
+        return rule.entrySet().stream()
+                .filter(it -> it.getKey().startsWith(prefix))
+                .collect(toMap(
+                        i -> keyMapper.apply(i.getKey().substring(prefix.length()).strip()),
+                        i -> valueMapper.apply(i.getValue().strip())));
+    }
+
+    private static KeyLoader keyLoader(final String name, final Map<String, String> rule) {
+        final var sql = rule.get("loader.sql");
+        if (sql == null || sql.isBlank()) {
+            return null;
+        }
+        return new KeyLoader(
+                name, sql.strip(),
+                rule.getOrDefault("loader.keyColumn", "id").strip(),
+                ofNullable(rule.get("loader.arrayType")).map(String::strip).orElse(null),
+                Long.parseLong(rule.getOrDefault("loader.window", "5").strip()),
+                Integer.parseInt(rule.getOrDefault("loader.maxKeys", "100").strip()),
+                Integer.parseInt(rule.getOrDefault("loader.keyBinding", "1").strip()));
+    }
+
+    private static Bulkhead bulkhead(final String name, final Map<String, String> rule) {
+        final var max = rule.get("concurrency.max");
+        if (max == null || max.isBlank()) {
+            return null;
+        }
+        return new Bulkhead(name, Integer.parseInt(max.strip()), Long.parseLong(rule.getOrDefault("concurrency.timeout", "0").strip()));
+    }
+
+    private static RewriteConfiguration.Sharding sharding(final Map<String, String> rule) {
+        final var delegates = rule.get("sharding.delegates");
+        if (delegates == null || delegates.isBlank()) {
+            return null;
+        }
+        final var ranges = rule.get("sharding.ranges");
+        final var names = Stream.of(delegates.split(",")).map(String::strip).filter(it -> !it.isBlank()).collect(toList());
+        return new RewriteConfiguration.Sharding(
+                names,
+                Integer.parseInt(requireNonNull(rule.get("sharding.binding"), "No 'sharding.binding' set").strip()),
+                RewriteConfiguration.ShardingStrategy.valueOf(rule.getOrDefault("sharding.strategy", "HASH").strip().toUpperCase(ROOT)),
+                ranges == null || ranges.isBlank() ?
+                        null :
+                        Stream.of(ranges.split(",")).map(String::strip).filter(it -> !it.isBlank()).mapToLong(Long::parseLong).toArray(),
+                Boolean.parseBoolean(rule.getOrDefault("sharding.fanOut", "false").strip()),
+                Integer.parseInt(rule.getOrDefault("sharding.parallelism", Integer.toString(names.size())).strip()));
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding;
+
+import io.yupiik.jdbc.overriding.jfr.ConfigurationLoadEvent;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.function.Function.identity;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toMap;
+import static java.util.stream.Collectors.toSet;
+
+// the configuration can be a comma separated list of files, classpath resources, directories (*.properties) or globs,
+// each source is parsed and compiled on its own so a reload only recompiles the modified ones
+class RewriteConfigurationSources {
+    private static final Logger LOGGER = Logger.getLogger(RewriteConfigurationSources.class.getName());
+
+    private final ClassLoader loader;
+    private final String configuration;
+    private final boolean parallel;
+    private final boolean lazyRegexes;
+
+    // only used by the loading thread (connect then reload thread)
+    private Map<String, Source> sources = Map.of();
+    private Map<String, FileTime> failed;
+    private Set<String> missing = Set.of();
+    private RewriteConfiguration current;
+
+    RewriteConfigurationSources(final ClassLoader loader, final String configuration,
+                                final boolean parallel, final boolean lazyRegexes) {
+        this.loader = loader;
+        this.configuration = configuration;
+        this.parallel = parallel;
+        this.lazyRegexes = lazyRegexes;
+    }
+
+    // a classpath resource never changes so no need to poll it
+    boolean isWatchable() {
+        return locations().anyMatch(it -> isGlob(it) || Files.exists(Path.of(it)));
+    }
+
+    synchronized RewriteConfiguration load() {
+        return load(true);
+    }
+
+    // null if nothing changed
+    synchronized RewriteConfiguration reload() {
+        return load(false);
+    }
+
+    private RewriteConfiguration load(final boolean force) {
+        final var start = System.nanoTime();
+        final var states = new LinkedHashMap<String, FileTime>(); // last modified is null for classpath resources
+        locations().flatMap(this::expand).forEach(it -> states.putIfAbsent(it, lastModified(it)));
+        keepMissingFiles(states);
+        final var changed = states.entrySet().stream()
+                .filter(it -> {
+                    final var existing = sources.get(it.getKey());
+                    return existing == null || !Objects.equals(existing.lastModified, it.getValue());
+                })
+                .map(Map.Entry::getKey)
+                .collect(toList());
+        if (!force && (changed.isEmpty() && states.keySet().equals(sources.keySet()) || states.equals(failed))) {
+            return null;
+        }
+
+        final var event = new ConfigurationLoadEvent();
+        event.begin();
+        try {
+            final var parsed = (changed.size() > 1 ? changed.parallelStream() : changed.stream())
+                    .map(it -> parse(it, states.get(it)))
+                    .collect(toMap(it -> it.location, identity()));
+            final var next = new LinkedHashMap<String, Source>();
+            states.keySet().forEach(it -> next.put(it, parsed.getOrDefault(it, sources.get(it))));
+
+            final var rewriteConfiguration = merge(next);
+            sources = next;
+            current = rewriteConfiguration;
+            failed = null;
+            if (event.shouldCommit()) {
+                event.configuration = configuration;
+                event.rules = rewriteConfiguration.configurations().size();
+                event.regexes = rewriteConfiguration.regexes().size();
+                event.sources = next.size();
+                event.parsed = changed.size();
+                event.success = true;
+                event.commit();
+            }
+            LOGGER.info(() -> "Loaded " + rewriteConfiguration.configurations().size() + " rules (" +
+                    rewriteConfiguration.regexes().size() + " regexes) from " + next.size() + " source(s) (" +
+                    changed.size() + " parsed) in " + NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+            return rewriteConfiguration;
+        } catch (final RuntimeException re) {
+            failed = states; // don't retry until something changes
+            if (event.shouldCommit()) {
+                event.configuration = configuration;
+                event.sources = states.size();
+                event.parsed = changed.size();
+                event.commit();
+            }
+            throw re;
+        }
+    }
+
+    // a file which disappeared (deleted or replaced in a non atomic way) keeps its rules instead of silently dropping them,
+    // the classpath fallback is only for locations which were not a file when loaded
+    private void keepMissingFiles(final Map<String, FileTime> states) {
+        final var nowMissing = states.entrySet().stream()
+                .filter(it -> it.getValue() == null)
+                .map(Map.Entry::getKey)
+                .filter(it -> {
+                    final var existing = sources.get(it);
+                    return existing != null && existing.lastModified != null;
+                })
+                .collect(toSet());
+        for (final var location : nowMissing) {
+            states.put(location, sources.get(location).lastModified);
+        }
+        if (!nowMissing.equals(missing)) { // log once per disappearance, this is called at each reload tick
+            nowMissing.stream()
+                    .filter(it -> !missing.contains(it))
+                    .forEach(it -> LOGGER.warning(() -> "Configuration file '" + it + "' is missing, keeping its previous rules"));
+            missing = nowMissing;
+        }
+    }
+
+    private RewriteConfiguration merge(final Map<String, Source> next) {
+        final var snapshots = next.values().stream().filter(it -> it.snapshot != null).collect(toList());
+        if (!snapshots.isEmpty()) {
+            if (next.size() > 1) {
+                throw new IllegalArgumentException("A snapshot can't be combined with other sources: " + next.keySet());
+            }
+            final var snapshot = snapshots.get(0).snapshot;
+            return new RewriteConfiguration(snapshot, snapshot.eagerRules(), parallel, lazyRegexes, current);
+        }
+
+        final var owners = new HashMap<String, String>();
+        final var statements = new HashMap<RewriteConfiguration.Sql, RewriteConfiguration.RewriteStatement>();
+        for (final var source : next.values()) {
+            for (final var name : source.names) {
+                final var existing = owners.putIfAbsent(name, source.location);
+                if (existing != null) {
+                    throw new IllegalArgumentException("Rule '" + name + "' is defined in '" + existing + "' and '" + source.location + "'");
+                }
+            }
+            for (final var statement : source.statements.entrySet()) {
+                if (statements.putIfAbsent(statement.getKey(), statement.getValue()) != null) {
+                    throw new IllegalArgumentException("Duplicated matching sql '" + statement.getKey().raw() + "' in '" + source.location + "'");
+                }
+            }
+        }
+        return new RewriteConfiguration(statements, statements, parallel, lazyRegexes, current);
+    }
+
+    // lastModified is null for classpath resources, a file disappearing while parsed fails the load
+    private Source parse(final String location, final FileTime lastModified) {
+        final var isFile = lastModified != null;
+        try {
+            final var path = isFile ? Path.of(location) : null;
+            if (isFile && RewriteSnapshot.isSnapshot(path)) {
+                return new Source(location, lastModified, Set.of(), Map.of(), RewriteSnapshot.open(path));
+            }
+
+            final var properties = new Properties();
+            if (isFile) {
+                try (final var is = Files.newInputStream(path)) {
+                    properties.load(is);
+                }
+            } else {
+                try (final var is = loader.getResourceAsStream(location)) {
+                    if (is != null) {
+                        properties.load(is);
+                    }
+                }
+            }
+
+            final var configurationLoader = new RewriteConfigurationLoader(parallel);
+            final var rules = configurationLoader.group(properties);
+            return new Source(location, lastModified, rules.keySet(), configurationLoader.compile(rules), null);
+        } catch (final IOException e) {
+            throw new IllegalArgumentException("Can't load '" + location + "': " + e.getMessage(), e);
+        }
+    }
+
+    private Stream<String> locations() {
+        return Stream.of(configuration.split(","))
+                .map(String::strip)
+                .filter(it -> !it.isBlank());
+    }
+
+    private Stream<String> expand(final String location) {
+        try {
+            if (isGlob(location)) {
+                final int firstGlobChar = Stream.of('*', '?', '{', '[')
+                        .mapToInt(location::indexOf)
+                        .filter(it -> it >= 0)
+                        .min()
+                        .orElseThrow();
+                final int separator = Math.max(location.lastIndexOf('/', firstGlobChar), location.lastIndexOf('\\', firstGlobChar));
+                final var root = Path.of(separator < 0 ? "." : location.substring(0, separator + 1));
+                if (!Files.isDirectory(root)) {
+                    return Stream.empty();
+                }
+                final var matcher = FileSystems.getDefault().getPathMatcher("glob:" + location);
+                try (final var files = Files.walk(root)) {
+                    return files
+                            .filter(it -> Files.isRegularFile(it) && matcher.matches(separator < 0 ? root.relativize(it) : it))
+                            .map(Path::toString)
+                            .sorted()
+                            .collect(toList())
+                            .stream();
+                }
+            }
+
+            final var path = Path.of(location);
+            if (Files.isDirectory(path)) {
+                try (final var files = Files.list(path)) {
+                    return files
+                            .filter(it -> Files.isRegularFile(it) && it.getFileName().toString().endsWith(".properties"))
+                            .map(Path::toString)
+                            .sorted()
+                            .collect(toList())
+                            .stream();
+                }
+            }
+            return Stream.of(location);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static boolean isGlob(final String location) {
+        return location.indexOf('*') >= 0 || location.indexOf('?') >= 0 || location.indexOf('{') >= 0 || location.indexOf('[') >= 0;
+    }
+
+    private static FileTime lastModified(final String location) {
+        try {
+            final var path = Path.of(location);
+            return Files.exists(path) ? Files.getLastModifiedTime(path) : null;
+        } catch (final IOException | RuntimeException e) { // deleted, being replaced or not a path, retry at next tick
+            return null;
+        }
+    }
+
+    private static class Source {
+        private final String location;
+        private final FileTime lastModified;
+        private final Set<String> names;
+        private final Map<RewriteConfiguration.Sql, RewriteConfiguration.RewriteStatement> statements;
+        private final RewriteSnapshot snapshot;
+
+        private Source(final String location, final FileTime lastModified, final Set<String> names,
+                       final Map<RewriteConfiguration.Sql, RewriteConfiguration.RewriteStatement> statements,
+                       final RewriteSnapshot snapshot) {
+            this.location = location;
+            this.lastModified = lastModified;
+            this.names = names;
+            this.statements = statements;
+            this.snapshot = snapshot;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding;
+
+import java.util.List;
+import java.util.Map;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+// what the rule lookup does for a SQL statement, see RewriteConfiguration#explain
+public class RewriteExplanation {
+    private final String sql;
+    private final List<Step> steps;
+    private final RewriteConfiguration.RewriteStatement rule;
+    private final String rewrittenSql;
+
+    public RewriteExplanation(final String sql, final List<Step> steps,
+                              final RewriteConfiguration.RewriteStatement rule, final String rewrittenSql) {
+        this.sql = sql;
+        this.steps = steps;
+        this.rule = rule;
+        this.rewrittenSql = rewrittenSql;
+    }
+
+    public String sql() {
+        return sql;
+    }
+
+    // in lookup order, the last one is the winning one when there is a rule
+    public List<Step> steps() {
+        return steps;
+    }
+
+    public boolean isMatched() {
+        return rule != null;
+    }
+
+    // null when no rule matched
+    public RewriteConfiguration.RewriteStatement rule() {
+        return rule;
+    }
+
+    // the SQL actually prepared on the delegate connection
+    public String rewrittenSql() {
+        return rewrittenSql;
+    }
+
+    public long totalNanos() {
+        return steps.stream().mapToLong(Step::nanos).sum();
+    }
+
+    @Override
+    public String toString() {
+        final var out = new StringBuilder("SQL: ").append(sql).append('\n');
+        for (final var step : steps) {
+            out.append("  ").append(step).append('\n');
+        }
+        if (rule == null) {
+            return out.append("No rule matched, SQL is executed as is (")
+                    .append(NANOSECONDS.toMicros(totalNanos())).append("us)").toString();
+        }
+        out.append("Rule: ").append(rule.name()).append(" (").append(rule.type()).append(", ")
+                .append(NANOSECONDS.toMicros(totalNanos())).append("us)\n")
+                .append("Rewritten SQL: ").append(rewrittenSql);
+        append(out, "Bindings (application -> rewritten)", rule.bindingIndices());
+        append(out, "Result set indices", rule.resultSetIndexOverride());
+        append(out, "Result set names", rule.resultSetNameOverride());
+        if (rule.delegate() != null) {
+            out.append("\nDelegate: ").append(rule.delegate()).append(" (outside write transactions)");
+        }
+        if (rule.sharding() != null) {
+            out.append("\nSharding: ").append(rule.sharding().delegates());
+        }
+        return out.toString();
+    }
+
+    private void append(final StringBuilder out, final String name, final Map<?, ?> mapping) {
+        if (mapping != null && !mapping.isEmpty()) {
+            out.append('\n').append(name).append(": ").append(mapping);
+        }
+    }
+
+    public enum Phase {
+        EXACT, CASE_INSENSITIVE, REGEX
+    }
+
+    public static class Step {
+        private final Phase phase;
+        private final String candidate; // rule name for regexes, null for a map lookup without result
+        private final boolean matched;
+        private final long nanos;
+
+        public Step(final Phase phase, final String candidate, final boolean matched, final long nanos) {
+            this.phase = phase;
+            this.candidate = candidate;
+            this.matched = matched;
+            this.nanos = nanos;
+        }
+
+        public Phase phase() {
+            return phase;
+        }
+
+        public String candidate() {
+            return candidate;
+        }
+
+        public boolean matched() {
+            return matched;
+        }
+
+        public long nanos() {
+            return nanos;
+        }
+
+        @Override
+        public String toString() {
+            return phase + (candidate == null ? "" : " '" + candidate + "'") + ": " +
+                    (matched ? "matched" : "no match") + " (" + NANOSECONDS.toMicros(nanos) + "us)";
+        }
+    }
+}
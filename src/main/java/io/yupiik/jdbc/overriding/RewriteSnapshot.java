@@ -0,0 +1,355 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.util.stream.Collectors.toMap;
+import static java.util.stream.Collectors.toSet;
+
+// binary form of a configuration:
+// header: magic, version, rule count
+// index (sorted by hash): hash, flags, block offset, block length
+// blocks: matching sql, rule name, compiled rule (replacement, type, priority, timeout, delegate, bindings and result set tables)
+// then the properties of the stateful parts (see RewriteConfigurationLoader#isStateful)
+// the file is memory mapped and rules are only decoded when looked up, except regex and bulkhead ones,
+// regex patterns are compiled from their source by RewriteConfiguration since a Pattern has no binary form
+public class RewriteSnapshot extends AbstractMap<RewriteConfiguration.Sql, RewriteConfiguration.RewriteStatement> {
+    private static final int MAGIC = 0x594A5253;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 3 * Integer.BYTES;
+    private static final int ENTRY_SIZE = 4 * Integer.BYTES;
+    private static final int IGNORE_CASE = 1;
+    private static final int REGEX = 1 << 1;
+    private static final int EAGER = 1 << 2;
+
+    private final ByteBuffer buffer;
+    private final int size;
+    private final Map<Integer, RewriteConfiguration.RewriteStatement> decoded = new ConcurrentHashMap<>();
+    private final RewriteConfiguration.Sql[] keys; // decoded once, racy initialization is fine since Sql is immutable
+
+    private RewriteSnapshot(final ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.size = buffer.getInt(2 * Integer.BYTES);
+        this.keys = new RewriteConfiguration.Sql[size];
+    }
+
+    public static void main(final String... args) throws IOException {
+        if (args.length < 2) {
+            throw new IllegalArgumentException("Usage: java " + RewriteSnapshot.class.getName() + " <configuration.properties>... <snapshot>");
+        }
+        final var loader = new RewriteConfigurationLoader(false);
+        final var rules = new HashMap<String, Map<String, String>>();
+        for (int i = 0; i < args.length - 1; i++) {
+            final var properties = new Properties();
+            try (final var is = Files.newInputStream(Path.of(args[i]))) {
+                properties.load(is);
+            }
+            for (final var rule : loader.group(properties).entrySet()) {
+                if (rules.putIfAbsent(rule.getKey(), rule.getValue()) != null) {
+                    throw new IllegalArgumentException("Rule '" + rule.getKey() + "' is defined twice (" + args[i] + ")");
+                }
+            }
+        }
+        write(rules, Path.of(args[args.length - 1]));
+    }
+
+    public static boolean isSnapshot(final Path location) {
+        try (final InputStream stream = Files.newInputStream(location)) {
+            final var header = stream.readNBytes(Integer.BYTES);
+            return header.length == Integer.BYTES && ByteBuffer.wrap(header).getInt() == MAGIC;
+        } catch (final IOException e) {
+            return false;
+        }
+    }
+
+    public static RewriteSnapshot open(final Path location) throws IOException {
+        try (final var channel = FileChannel.open(location, READ)) {
+            final var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+                throw new IllegalArgumentException("'" + location + "' is not a configuration snapshot");
+            }
+            if (buffer.getInt(Integer.BYTES) != VERSION) {
+                throw new IllegalArgumentException("Unsupported snapshot version: " + buffer.getInt(Integer.BYTES));
+            }
+            return new RewriteSnapshot(buffer);
+        }
+    }
+
+    public static void write(final Map<String, Map<String, String>> rules, final Path target) throws IOException {
+        final var blocks = new ByteArrayOutputStream();
+        final var entries = new ArrayList<int[]>(rules.size());
+        final var owners = new HashMap<RewriteConfiguration.Sql, String>();
+        try (final var out = new DataOutputStream(blocks)) {
+            for (final var rule : rules.entrySet()) {
+                final var properties = rule.getValue();
+                final var sql = RewriteConfigurationLoader.sql(properties);
+                final var owner = owners.putIfAbsent(sql, rule.getKey());
+                if (owner != null) { // same check than the properties loading
+                    throw new IllegalArgumentException("Duplicated matching sql '" + sql.raw() + "' in rules '" + owner + "' and '" + rule.getKey() + "'");
+                }
+
+                final var statement = RewriteConfigurationLoader.compile(rule.getKey(), properties); // validates the rule
+                final int start = out.size();
+                writeString(out, properties.get("sql.matching"));
+                writeString(out, rule.getKey());
+                writeString(out, statement.replacement());
+                out.writeByte(statement.type().ordinal());
+                out.writeInt(statement.priority());
+                out.writeInt(statement.maxTimeout());
+                writeString(out, statement.delegate());
+                writeIndices(out, statement.bindingIndices());
+                writeIndices(out, statement.resultSetIndexOverride());
+                writeNames(out, statement.resultSetNameOverride());
+                writeNames(out, properties.entrySet().stream()
+                        .filter(it -> RewriteConfigurationLoader.isStateful(it.getKey()))
+                        .collect(toMap(Map.Entry::getKey, Map.Entry::getValue)));
+
+                final var bulkhead = properties.get("concurrency.max");
+                final boolean regex = statement.type() == RewriteConfiguration.RewriteType.REGEX;
+                entries.add(new int[]{
+                        sql.hashCode(),
+                        (sql.ignoreCase() ? IGNORE_CASE : 0) | (regex ? REGEX : 0) |
+                                (regex || (bulkhead != null && !bulkhead.isBlank()) ? EAGER : 0),
+                        start, out.size() - start
+                });
+            }
+        }
+        entries.sort(Comparator.comparingInt(it -> it[0]));
+
+        final int blocksOffset = HEADER_SIZE + entries.size() * ENTRY_SIZE;
+        final var header = ByteBuffer.allocate(blocksOffset)
+                .putInt(MAGIC)
+                .putInt(VERSION)
+                .putInt(entries.size());
+        for (final var entry : entries) {
+            header.putInt(entry[0]).putInt(entry[1]).putInt(blocksOffset + entry[2]).putInt(entry[3]);
+        }
+
+        // running drivers map the target so it is never rewritten in place (truncating a mapped file crashes its readers),
+        // the new snapshot is written next to it and renamed, opened mappings keep the previous file content
+        final var parent = target.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        final var tmp = Files.createTempFile(parent, target.getFileName().toString(), ".tmp");
+        try {
+            try (final var out = Files.newOutputStream(tmp)) {
+                out.write(header.array());
+                blocks.writeTo(out);
+            }
+            try {
+                Files.move(tmp, target, ATOMIC_MOVE, REPLACE_EXISTING);
+            } catch (final AtomicMoveNotSupportedException amnse) { // still a rename in the same directory
+                Files.move(tmp, target, REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    // rules needing a global view (regexes, bulkheads monitoring)
+    public Map<RewriteConfiguration.Sql, RewriteConfiguration.RewriteStatement> eagerRules() {
+        return IntStream.range(0, size)
+                .filter(i -> (flags(i) & EAGER) != 0)
+                .boxed()
+                .collect(toMap(this::sql, this::statement));
+    }
+
+    @Override
+    public RewriteConfiguration.RewriteStatement get(final Object key) {
+        if (!(key instanceof RewriteConfiguration.Sql)) {
+            return null;
+        }
+        final var sql = (RewriteConfiguration.Sql) key;
+        final int hash = sql.hashCode();
+        for (int i = firstIndexOf(hash); i >= 0 && i < size && hashAt(i) == hash; i++) {
+            if (((flags(i) & IGNORE_CASE) != 0) == sql.ignoreCase() && sql.equals(sql(i))) {
+                return statement(i);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override // decodes everything so only for tooling
+    public Set<Entry<RewriteConfiguration.Sql, RewriteConfiguration.RewriteStatement>> entrySet() {
+        return IntStream.range(0, size)
+                .mapToObj(i -> new SimpleImmutableEntry<>(sql(i), statement(i)))
+                .collect(toSet());
+    }
+
+    private int firstIndexOf(final int hash) {
+        int low = 0;
+        int high = size - 1;
+        int found = -1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int current = hashAt(middle);
+            if (current < hash) {
+                low = middle + 1;
+            } else {
+                if (current == hash) {
+                    found = middle;
+                }
+                high = middle - 1;
+            }
+        }
+        return found;
+    }
+
+    private RewriteConfiguration.Sql sql(final int index) {
+        var sql = keys[index];
+        if (sql == null) {
+            final boolean ignoreCase = (flags(index) & IGNORE_CASE) != 0;
+            sql = new RewriteConfiguration.Sql(readString(block(index)), ignoreCase, hashAt(index));
+            keys[index] = sql;
+        }
+        return sql;
+    }
+
+    private RewriteConfiguration.RewriteStatement statement(final int index) {
+        return decoded.computeIfAbsent(index, i -> { // ensure stateful parts (bulkhead, ...) are created once
+            final var block = block(i);
+            readString(block); // matching
+            final var name = readString(block);
+            final var builder = RewriteConfiguration.RewriteStatement.builder()
+                    .name(name)
+                    .replacement(readString(block))
+                    .type(RewriteConfiguration.RewriteType.values()[block.get()])
+                    .priority(block.getInt())
+                    .maxTimeout(block.getInt())
+                    .delegate(readString(block))
+                    .bindingIndices(readIndices(block))
+                    .resultSetIndexOverride(readIndices(block))
+                    .resultSetNameOverride(readNames(block));
+            final var stateful = readNames(block);
+            return RewriteConfigurationLoader.stateful(builder, name, stateful == null ? Map.of() : stateful).build();
+        });
+    }
+
+    private int hashAt(final int index) {
+        return buffer.getInt(HEADER_SIZE + index * ENTRY_SIZE);
+    }
+
+    private int flags(final int index) {
+        return buffer.getInt(HEADER_SIZE + index * ENTRY_SIZE + Integer.BYTES);
+    }
+
+    private ByteBuffer block(final int index) { // duplicate to be thread safe
+        final int entry = HEADER_SIZE + index * ENTRY_SIZE;
+        final int offset = buffer.getInt(entry + 2 * Integer.BYTES);
+        final int length = buffer.getInt(entry + 3 * Integer.BYTES);
+        return buffer.duplicate().position(offset).limit(offset + length);
+    }
+
+    private static String readString(final ByteBuffer block) {
+        final int length = block.getInt();
+        if (length < 0) {
+            return null;
+        }
+        final var bytes = new byte[length];
+        block.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    // null (-1) or count then key/value pairs
+    private static Map<Integer, Integer> readIndices(final ByteBuffer block) {
+        final int count = block.getInt();
+        if (count < 0) {
+            return null;
+        }
+        final var indices = new HashMap<Integer, Integer>(count);
+        for (int i = 0; i < count; i++) {
+            indices.put(block.getInt(), block.getInt());
+        }
+        return indices;
+    }
+
+    private static Map<String, String> readNames(final ByteBuffer block) {
+        final int count = block.getInt();
+        if (count < 0) {
+            return null;
+        }
+        final var names = new HashMap<String, String>(count);
+        for (int i = 0; i < count; i++) {
+            names.put(readString(block), readString(block));
+        }
+        return names;
+    }
+
+    private static void writeIndices(final DataOutputStream out, final Map<Integer, Integer> indices) throws IOException {
+        if (indices == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(indices.size());
+        for (final var entry : indices.entrySet()) {
+            out.writeInt(entry.getKey());
+            out.writeInt(entry.getValue());
+        }
+    }
+
+    private static void writeNames(final DataOutputStream out, final Map<String, String> names) throws IOException {
+        if (names == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(names.size());
+        for (final var entry : names.entrySet()) {
+            writeString(out, entry.getKey());
+            writeString(out, entry.getValue());
+        }
+    }
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        final var bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
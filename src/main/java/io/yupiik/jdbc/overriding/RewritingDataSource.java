@@ -0,0 +1,628 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding;
+
+import io.yupiik.jdbc.overriding.delegation.DelegatingConnection;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.logging.Level.FINE;
+
+// pools the physical connections and wraps them in rewriting connections sharing the URL configuration,
+// the semaphore bounds the pool size and idle connections are kept in a lock-free deque (LIFO to reuse warm connections)
+public class RewritingDataSource implements DataSource, AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(RewritingDataSource.class.getName());
+
+    private final Driver driver = new Driver();
+    private final ConcurrentLinkedDeque<Pooled> idle = new ConcurrentLinkedDeque<>();
+    private final LongAdder borrowed = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder destroyed = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder usageNanos = new LongAdder();
+
+    private String url;
+    private String username;
+    private String password;
+    private int maxSize = 10;
+    private long connectionTimeout = 30_000;
+    private int validationTimeout = 5;
+    private long idleTimeout = 600_000;
+    private long maxLifetime = 1_800_000;
+    private PrintWriter logWriter;
+
+    private volatile Semaphore permits;
+    private volatile boolean closed;
+    private Properties info;
+    private ScheduledFuture<?> evictionTask;
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        final var permits = start();
+        final long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(connectionTimeout, MILLISECONDS)) {
+                timeouts.increment();
+                throw new SQLTransientConnectionException("No connection available after " + connectionTimeout + "ms");
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException(e);
+        } finally {
+            waitNanos.add(System.nanoTime() - start);
+        }
+
+        try {
+            final var pooled = borrow();
+            borrowed.increment();
+            return driver.wrap(url, new PooledConnection(pooled), info);
+        } catch (final SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public Connection getConnection(final String username, final String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Credentials are set on the datasource, use getConnection()");
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (evictionTask != null) {
+            evictionTask.cancel(false);
+            evictionTask = null;
+        }
+        Pooled pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            destroy(pooled);
+        }
+    }
+
+    private Pooled borrow() throws SQLException {
+        Pooled pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            if (isValid(pooled)) {
+                return pooled;
+            }
+            destroy(pooled);
+        }
+
+        final var connection = driver.connectPhysical(url, info);
+        try {
+            final var fresh = new Pooled(connection);
+            created.increment();
+            return fresh;
+        } catch (final SQLException | RuntimeException e) {
+            try {
+                connection.close();
+            } catch (final SQLException ce) {
+                e.addSuppressed(ce);
+            }
+            throw e;
+        }
+    }
+
+    // changes is the state modified by the borrower (see Pooled flags), the next borrower gets the initial state back
+    private void release(final Pooled pooled, final int changes) {
+        try {
+            if (closed || isExpired(pooled, System.nanoTime()) || pooled.connection.isClosed()) {
+                destroy(pooled);
+                return;
+            }
+            final boolean autoCommit = pooled.connection.getAutoCommit();
+            if (!autoCommit) { // don't leak a pending transaction to the next borrower
+                pooled.connection.rollback();
+            }
+            if (autoCommit != pooled.autoCommit) {
+                pooled.connection.setAutoCommit(pooled.autoCommit);
+            }
+            pooled.reset(changes);
+            pooled.connection.clearWarnings();
+            pooled.lastUsed = System.nanoTime();
+            idle.offerFirst(pooled);
+        } catch (final SQLException e) {
+            destroy(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    // validating a connection used very recently is a useless round trip
+    private boolean isValid(final Pooled pooled) {
+        final long now = System.nanoTime();
+        if (isExpired(pooled, now)) {
+            return false;
+        }
+        try {
+            return now - pooled.lastUsed < MILLISECONDS.toNanos(500) || pooled.connection.isValid(validationTimeout);
+        } catch (final SQLException e) {
+            return false;
+        }
+    }
+
+    private boolean isExpired(final Pooled pooled, final long now) {
+        return maxLifetime > 0 && now - pooled.created > MILLISECONDS.toNanos(maxLifetime);
+    }
+
+    private void evict() {
+        final long now = System.nanoTime();
+        for (final var pooled : idle) {
+            if ((isExpired(pooled, now) || (idleTimeout > 0 && now - pooled.lastUsed > MILLISECONDS.toNanos(idleTimeout))) &&
+                    idle.removeFirstOccurrence(pooled)) {
+                destroy(pooled);
+            }
+        }
+    }
+
+    // the connection is not reusable (aborted), its permit is released like on a release
+    private void discard(final Pooled pooled) {
+        try {
+            destroy(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void destroy(final Pooled pooled) {
+        destroyed.increment();
+        try {
+            pooled.connection.close();
+        } catch (final SQLException e) {
+            LOGGER.log(FINE, e, () -> "Can't close connection: " + e.getMessage());
+        }
+    }
+
+    private Semaphore start() throws SQLException {
+        if (closed) {
+            throw new SQLException("Datasource closed");
+        }
+        var current = permits;
+        if (current == null) {
+            synchronized (this) {
+                current = permits;
+                if (current == null) {
+                    if (url == null || !driver.acceptsURL(url)) {
+                        throw new SQLException("Invalid url: '" + url + "'");
+                    }
+                    info = new Properties();
+                    if (username != null) {
+                        info.setProperty("user", username);
+                    }
+                    if (password != null) {
+                        info.setProperty("password", password);
+                    }
+                    final long period = Math.max(1_000, Math.min(30_000, Math.min(
+                            idleTimeout > 0 ? idleTimeout / 2 : Long.MAX_VALUE,
+                            maxLifetime > 0 ? maxLifetime / 2 : Long.MAX_VALUE)));
+                    evictionTask = Driver.Scheduler.INSTANCE.scheduleWithFixedDelay(this::evict, period, period, MILLISECONDS);
+                    current = new Semaphore(maxSize, true);
+                    permits = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    public int getActiveConnections() {
+        final var current = permits;
+        return current == null ? 0 : maxSize - current.availablePermits();
+    }
+
+    public int getIdleConnections() {
+        return idle.size();
+    }
+
+    public int getPendingRequests() {
+        final var current = permits;
+        return current == null ? 0 : current.getQueueLength();
+    }
+
+    public long getBorrowedCount() {
+        return borrowed.sum();
+    }
+
+    public long getCreatedCount() {
+        return created.sum();
+    }
+
+    public long getDestroyedCount() {
+        return destroyed.sum();
+    }
+
+    public long getTimeoutCount() {
+        return timeouts.sum();
+    }
+
+    public long getTotalWaitMillis() {
+        return NANOSECONDS.toMillis(waitNanos.sum());
+    }
+
+    public long getTotalUsageMillis() {
+        return NANOSECONDS.toMillis(usageNanos.sum());
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(final String url) {
+        this.url = url;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(final String username) {
+        this.username = username;
+    }
+
+    public void setPassword(final String password) {
+        this.password = password;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(final int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public long getConnectionTimeout() {
+        return connectionTimeout;
+    }
+
+    public void setConnectionTimeout(final long connectionTimeout) {
+        this.connectionTimeout = connectionTimeout;
+    }
+
+    public int getValidationTimeout() {
+        return validationTimeout;
+    }
+
+    public void setValidationTimeout(final int validationTimeout) {
+        this.validationTimeout = validationTimeout;
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public void setIdleTimeout(final long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    public long getMaxLifetime() {
+        return maxLifetime;
+    }
+
+    public void setMaxLifetime(final long maxLifetime) {
+        this.maxLifetime = maxLifetime;
+    }
+
+    @Override
+    public PrintWriter getLogWriter() {
+        return logWriter;
+    }
+
+    @Override
+    public void setLogWriter(final PrintWriter out) {
+        this.logWriter = out;
+    }
+
+    @Override
+    public void setLoginTimeout(final int seconds) {
+        this.connectionTimeout = seconds * 1_000L;
+    }
+
+    @Override
+    public int getLoginTimeout() {
+        return (int) (connectionTimeout / 1_000);
+    }
+
+    @Override
+    public Logger getParentLogger() {
+        return driver.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(final Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("Can't unwrap " + iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(final Class<?> iface) {
+        return iface.isInstance(this);
+    }
+
+    // the initial state of the physical connection is captured once to restore it between borrowers
+    private static class Pooled {
+        private static final int READ_ONLY = 1;
+        private static final int ISOLATION = 1 << 1;
+        private static final int CATALOG = 1 << 2;
+        private static final int SCHEMA = 1 << 3;
+        private static final int NETWORK_TIMEOUT = 1 << 4;
+
+        private final Connection connection;
+        private final long created = System.nanoTime();
+        private final boolean autoCommit;
+        private final boolean readOnly;
+        private final int transactionIsolation;
+        private final String catalog;
+        private final String schema;
+        private final int networkTimeout;
+        private final int unsupported; // state the driver can't read so the connection is destroyed if it changes
+        private volatile long lastUsed = created;
+
+        private Pooled(final Connection connection) throws SQLException {
+            this.connection = connection;
+            this.autoCommit = connection.getAutoCommit();
+            this.readOnly = connection.isReadOnly();
+            this.transactionIsolation = connection.getTransactionIsolation();
+            this.catalog = connection.getCatalog();
+
+            int unsupported = 0;
+            String schema = null;
+            try {
+                schema = connection.getSchema();
+            } catch (final SQLFeatureNotSupportedException | AbstractMethodError e) {
+                unsupported |= SCHEMA;
+            }
+            int networkTimeout = 0;
+            try {
+                networkTimeout = connection.getNetworkTimeout();
+            } catch (final SQLFeatureNotSupportedException | AbstractMethodError e) {
+                unsupported |= NETWORK_TIMEOUT;
+            }
+            this.schema = schema;
+            this.networkTimeout = networkTimeout;
+            this.unsupported = unsupported;
+        }
+
+        private void reset(final int changes) throws SQLException {
+            if (changes == 0) {
+                return;
+            }
+            if ((changes & unsupported) != 0) {
+                throw new SQLException("Can't restore the connection state");
+            }
+            if ((changes & READ_ONLY) != 0 && connection.isReadOnly() != readOnly) {
+                connection.setReadOnly(readOnly);
+            }
+            if ((changes & ISOLATION) != 0 && connection.getTransactionIsolation() != transactionIsolation) {
+                connection.setTransactionIsolation(transactionIsolation);
+            }
+            if ((changes & CATALOG) != 0 && !Objects.equals(connection.getCatalog(), catalog)) {
+                connection.setCatalog(catalog);
+            }
+            if ((changes & SCHEMA) != 0 && !Objects.equals(connection.getSchema(), schema)) {
+                connection.setSchema(schema);
+            }
+            if ((changes & NETWORK_TIMEOUT) != 0 && connection.getNetworkTimeout() != networkTimeout) {
+                connection.setNetworkTimeout(Runnable::run, networkTimeout);
+            }
+        }
+    }
+
+    // close returns the physical connection to the pool instead of closing it,
+    // the statements left opened are closed and the handle is no more usable after close
+    private class PooledConnection extends DelegatingConnection {
+        private static final int PRUNE_THRESHOLD = 64;
+
+        private final Pooled pooled;
+        private final long borrowedAt = System.nanoTime();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private final List<Statement> statements = new ArrayList<>(); // guarded by itself
+        private volatile int changes;
+
+        private PooledConnection(final Pooled pooled) {
+            super(pooled.connection);
+            this.pooled = pooled;
+        }
+
+        @Override
+        protected Connection delegate() throws SQLException {
+            if (closed.get()) {
+                throw new SQLException("Connection closed");
+            }
+            return super.delegate();
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                closeStatements();
+                usageNanos.add(System.nanoTime() - borrowedAt);
+                release(pooled, changes);
+            }
+        }
+
+        @Override
+        public void abort(final Executor executor) throws SQLException {
+            if (closed.compareAndSet(false, true)) {
+                usageNanos.add(System.nanoTime() - borrowedAt);
+                try {
+                    pooled.connection.abort(executor);
+                } finally {
+                    discard(pooled);
+                }
+            }
+        }
+
+        @Override
+        public boolean isClosed() throws SQLException {
+            return closed.get() || super.isClosed();
+        }
+
+        @Override
+        public boolean isValid(final int timeout) throws SQLException {
+            return !closed.get() && super.isValid(timeout);
+        }
+
+        @Override
+        public void setReadOnly(final boolean readOnly) throws SQLException {
+            super.setReadOnly(readOnly);
+            changes |= Pooled.READ_ONLY;
+        }
+
+        @Override
+        public void setTransactionIsolation(final int level) throws SQLException {
+            super.setTransactionIsolation(level);
+            changes |= Pooled.ISOLATION;
+        }
+
+        @Override
+        public void setCatalog(final String catalog) throws SQLException {
+            super.setCatalog(catalog);
+            changes |= Pooled.CATALOG;
+        }
+
+        @Override
+        public void setSchema(final String schema) throws SQLException {
+            super.setSchema(schema);
+            changes |= Pooled.SCHEMA;
+        }
+
+        @Override
+        public void setNetworkTimeout(final Executor executor, final int milliseconds) throws SQLException {
+            super.setNetworkTimeout(executor, milliseconds);
+            changes |= Pooled.NETWORK_TIMEOUT;
+        }
+
+        @Override
+        public Statement createStatement() throws SQLException {
+            return track(super.createStatement());
+        }
+
+        @Override
+        public Statement createStatement(final int resultSetType, final int resultSetConcurrency) throws SQLException {
+            return track(super.createStatement(resultSetType, resultSetConcurrency));
+        }
+
+        @Override
+        public Statement createStatement(final int resultSetType, final int resultSetConcurrency,
+                                         final int resultSetHoldability) throws SQLException {
+            return track(super.createStatement(resultSetType, resultSetConcurrency, resultSetHoldability));
+        }
+
+        @Override
+        public PreparedStatement prepareStatement(final String sql) throws SQLException {
+            return track(super.prepareStatement(sql));
+        }
+
+        @Override
+        public PreparedStatement prepareStatement(final String sql, final int resultSetType,
+                                                  final int resultSetConcurrency) throws SQLException {
+            return track(super.prepareStatement(sql, resultSetType, resultSetConcurrency));
+        }
+
+        @Override
+        public PreparedStatement prepareStatement(final String sql, final int resultSetType, final int resultSetConcurrency,
+                                                  final int resultSetHoldability) throws SQLException {
+            return track(super.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability));
+        }
+
+        @Override
+        public PreparedStatement prepareStatement(final String sql, final int autoGeneratedKeys) throws SQLException {
+            return track(super.prepareStatement(sql, autoGeneratedKeys));
+        }
+
+        @Override
+        public PreparedStatement prepareStatement(final String sql, final int[] columnIndexes) throws SQLException {
+            return track(super.prepareStatement(sql, columnIndexes));
+        }
+
+        @Override
+        public PreparedStatement prepareStatement(final String sql, final String[] columnNames) throws SQLException {
+            return track(super.prepareStatement(sql, columnNames));
+        }
+
+        @Override
+        public CallableStatement prepareCall(final String sql) throws SQLException {
+            return track(super.prepareCall(sql));
+        }
+
+        @Override
+        public CallableStatement prepareCall(final String sql, final int resultSetType,
+                                             final int resultSetConcurrency) throws SQLException {
+            return track(super.prepareCall(sql, resultSetType, resultSetConcurrency));
+        }
+
+        @Override
+        public CallableStatement prepareCall(final String sql, final int resultSetType, final int resultSetConcurrency,
+                                             final int resultSetHoldability) throws SQLException {
+            return track(super.prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability));
+        }
+
+        // statements closed by the application are pruned from time to time to not grow with the connection usage
+        private <T extends Statement> T track(final T statement) {
+            synchronized (statements) {
+                if (statements.size() >= PRUNE_THRESHOLD) {
+                    statements.removeIf(it -> {
+                        try {
+                            return it.isClosed();
+                        } catch (final SQLException e) {
+                            return true;
+                        }
+                    });
+                }
+                statements.add(statement);
+            }
+            return statement;
+        }
+
+        private void closeStatements() {
+            synchronized (statements) {
+                for (final var statement : statements) {
+                    try {
+                        statement.close();
+                    } catch (final SQLException e) {
+                        LOGGER.log(FINE, e, () -> "Can't close statement: " + e.getMessage());
+                    }
+                }
+                statements.clear();
+            }
+        }
+    }
+}
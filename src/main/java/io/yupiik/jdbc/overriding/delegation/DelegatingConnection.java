@@ -42,303 +42,318 @@ public class DelegatingConnection implements Connection {
         this.delegate = delegate;
     }
 
+    protected Connection delegate() throws SQLException {
+        return delegate;
+    }
+
     @Override
     public Statement createStatement() throws SQLException {
-        return delegate.createStatement();
+        return delegate().createStatement();
     }
 
     @Override
     public PreparedStatement prepareStatement(final String sql) throws SQLException {
-        return delegate.prepareStatement(sql);
+        return delegate().prepareStatement(sql);
     }
 
     @Override
     public CallableStatement prepareCall(final String sql) throws SQLException {
-        return delegate.prepareCall(sql);
+        return delegate().prepareCall(sql);
     }
 
     @Override
     public String nativeSQL(final String sql) throws SQLException {
-        return delegate.nativeSQL(sql);
+        return delegate().nativeSQL(sql);
     }
 
     @Override
     public void setAutoCommit(final boolean autoCommit) throws SQLException {
-        delegate.setAutoCommit(autoCommit);
+        delegate().setAutoCommit(autoCommit);
     }
 
     @Override
     public boolean getAutoCommit() throws SQLException {
-        return delegate.getAutoCommit();
+        return delegate().getAutoCommit();
     }
 
     @Override
     public void commit() throws SQLException {
-        delegate.commit();
+        delegate().commit();
     }
 
     @Override
     public void rollback() throws SQLException {
-        delegate.rollback();
+        delegate().rollback();
     }
 
     @Override
     public void close() throws SQLException {
-        delegate.close();
+        delegate().close();
     }
 
     @Override
     public boolean isClosed() throws SQLException {
-        return delegate.isClosed();
+        return delegate().isClosed();
     }
 
     @Override
     public DatabaseMetaData getMetaData() throws SQLException {
-        return delegate.getMetaData();
+        return delegate().getMetaData();
     }
 
     @Override
     public void setReadOnly(final boolean readOnly) throws SQLException {
-        delegate.setReadOnly(readOnly);
+        delegate().setReadOnly(readOnly);
     }
 
     @Override
     public boolean isReadOnly() throws SQLException {
-        return delegate.isReadOnly();
+        return delegate().isReadOnly();
     }
 
     @Override
     public void setCatalog(final String catalog) throws SQLException {
-        delegate.setCatalog(catalog);
+        delegate().setCatalog(catalog);
     }
 
     @Override
     public String getCatalog() throws SQLException {
-        return delegate.getCatalog();
+        return delegate().getCatalog();
     }
 
     @Override
     public void setTransactionIsolation(final int level) throws SQLException {
-        delegate.setTransactionIsolation(level);
+        delegate().setTransactionIsolation(level);
     }
 
     @Override
     public int getTransactionIsolation() throws SQLException {
-        return delegate.getTransactionIsolation();
+        return delegate().getTransactionIsolation();
     }
 
     @Override
     public SQLWarning getWarnings() throws SQLException {
-        return delegate.getWarnings();
+        return delegate().getWarnings();
     }
 
     @Override
     public void clearWarnings() throws SQLException {
-        delegate.clearWarnings();
+        delegate().clearWarnings();
     }
 
     @Override
     public Statement createStatement(final int resultSetType, final int resultSetConcurrency) throws SQLException {
-        return delegate.createStatement(resultSetType, resultSetConcurrency);
+        return delegate().createStatement(resultSetType, resultSetConcurrency);
     }
 
     @Override
     public PreparedStatement prepareStatement(final String sql, final int resultSetType, final int resultSetConcurrency) throws SQLException {
-        return delegate.prepareStatement(sql, resultSetType, resultSetConcurrency);
+        return delegate().prepareStatement(sql, resultSetType, resultSetConcurrency);
     }
 
     @Override
     public CallableStatement prepareCall(final String sql, final int resultSetType, final int resultSetConcurrency) throws SQLException {
-        return delegate.prepareCall(sql, resultSetType, resultSetConcurrency);
+        return delegate().prepareCall(sql, resultSetType, resultSetConcurrency);
     }
 
     @Override
     public Map<String, Class<?>> getTypeMap() throws SQLException {
-        return delegate.getTypeMap();
+        return delegate().getTypeMap();
     }
 
     @Override
     public void setTypeMap(final Map<String, Class<?>> map) throws SQLException {
-        delegate.setTypeMap(map);
+        delegate().setTypeMap(map);
     }
 
     @Override
     public void setHoldability(final int holdability) throws SQLException {
-        delegate.setHoldability(holdability);
+        delegate().setHoldability(holdability);
     }
 
     @Override
     public int getHoldability() throws SQLException {
-        return delegate.getHoldability();
+        return delegate().getHoldability();
     }
 
     @Override
     public Savepoint setSavepoint() throws SQLException {
-        return delegate.setSavepoint();
+        return delegate().setSavepoint();
     }
 
     @Override
     public Savepoint setSavepoint(final String name) throws SQLException {
-        return delegate.setSavepoint(name);
+        return delegate().setSavepoint(name);
     }
 
     @Override
     public void rollback(final Savepoint savepoint) throws SQLException {
-        delegate.rollback(savepoint);
+        delegate().rollback(savepoint);
     }
 
     @Override
     public void releaseSavepoint(final Savepoint savepoint) throws SQLException {
-        delegate.releaseSavepoint(savepoint);
+        delegate().releaseSavepoint(savepoint);
     }
 
     @Override
     public Statement createStatement(final int resultSetType, final int resultSetConcurrency, final int resultSetHoldability) throws SQLException {
-        return delegate.createStatement(resultSetType, resultSetConcurrency, resultSetHoldability);
+        return delegate().createStatement(resultSetType, resultSetConcurrency, resultSetHoldability);
     }
 
     @Override
     public PreparedStatement prepareStatement(final String sql, final int resultSetType, final int resultSetConcurrency, final int resultSetHoldability) throws SQLException {
-        return delegate.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+        return delegate().prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
     }
 
     @Override
     public CallableStatement prepareCall(final String sql, final int resultSetType, final int resultSetConcurrency, final int resultSetHoldability) throws SQLException {
-        return delegate.prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+        return delegate().prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
     }
 
     @Override
     public PreparedStatement prepareStatement(final String sql, final int autoGeneratedKeys) throws SQLException {
-        return delegate.prepareStatement(sql, autoGeneratedKeys);
+        return delegate().prepareStatement(sql, autoGeneratedKeys);
     }
 
     @Override
     public PreparedStatement prepareStatement(final String sql, final int[] columnIndexes) throws SQLException {
-        return delegate.prepareStatement(sql, columnIndexes);
+        return delegate().prepareStatement(sql, columnIndexes);
     }
 
     @Override
     public PreparedStatement prepareStatement(final String sql, final String[] columnNames) throws SQLException {
-        return delegate.prepareStatement(sql, columnNames);
+        return delegate().prepareStatement(sql, columnNames);
     }
 
     @Override
     public Clob createClob() throws SQLException {
-        return delegate.createClob();
+        return delegate().createClob();
     }
 
     @Override
     public Blob createBlob() throws SQLException {
-        return delegate.createBlob();
+        return delegate().createBlob();
     }
 
     @Override
     public NClob createNClob() throws SQLException {
-        return delegate.createNClob();
+        return delegate().createNClob();
     }
 
     @Override
     public SQLXML createSQLXML() throws SQLException {
-        return delegate.createSQLXML();
+        return delegate().createSQLXML();
     }
 
     @Override
     public boolean isValid(final int timeout) throws SQLException {
-        return delegate.isValid(timeout);
+        return delegate().isValid(timeout);
     }
 
     @Override
     public void setClientInfo(final String name, final String value) throws SQLClientInfoException {
-        delegate.setClientInfo(name, value);
+        clientInfoDelegate().setClientInfo(name, value);
     }
 
     @Override
     public void setClientInfo(final Properties properties) throws SQLClientInfoException {
-        delegate.setClientInfo(properties);
+        clientInfoDelegate().setClientInfo(properties);
     }
 
     @Override
     public String getClientInfo(final String name) throws SQLException {
-        return delegate.getClientInfo(name);
+        return delegate().getClientInfo(name);
     }
 
     @Override
     public Properties getClientInfo() throws SQLException {
-        return delegate.getClientInfo();
+        return delegate().getClientInfo();
     }
 
     @Override
     public Array createArrayOf(final String typeName, final Object[] elements) throws SQLException {
-        return delegate.createArrayOf(typeName, elements);
+        return delegate().createArrayOf(typeName, elements);
     }
 
     @Override
     public Struct createStruct(final String typeName, final Object[] attributes) throws SQLException {
-        return delegate.createStruct(typeName, attributes);
+        return delegate().createStruct(typeName, attributes);
     }
 
     @Override
     public void setSchema(final String schema) throws SQLException {
-        delegate.setSchema(schema);
+        delegate().setSchema(schema);
     }
 
     @Override
     public String getSchema() throws SQLException {
-        return delegate.getSchema();
+        return delegate().getSchema();
     }
 
     @Override
     public void abort(final Executor executor) throws SQLException {
-        delegate.abort(executor);
+        delegate().abort(executor);
     }
 
     @Override
     public void setNetworkTimeout(final Executor executor, final int milliseconds) throws SQLException {
-        delegate.setNetworkTimeout(executor, milliseconds);
+        delegate().setNetworkTimeout(executor, milliseconds);
     }
 
     @Override
     public int getNetworkTimeout() throws SQLException {
-        return delegate.getNetworkTimeout();
+        return delegate().getNetworkTimeout();
     }
 
     @Override
     public void beginRequest() throws SQLException {
-        delegate.beginRequest();
+        delegate().beginRequest();
     }
 
     @Override
     public void endRequest() throws SQLException {
-        delegate.endRequest();
+        delegate().endRequest();
     }
 
     @Override
     public boolean setShardingKeyIfValid(final ShardingKey shardingKey, final ShardingKey superShardingKey, final int timeout) throws SQLException {
-        return delegate.setShardingKeyIfValid(shardingKey, superShardingKey, timeout);
+        return delegate().setShardingKeyIfValid(shardingKey, superShardingKey, timeout);
     }
 
     @Override
     public boolean setShardingKeyIfValid(final ShardingKey shardingKey, final int timeout) throws SQLException {
-        return delegate.setShardingKeyIfValid(shardingKey, timeout);
+        return delegate().setShardingKeyIfValid(shardingKey, timeout);
     }
 
     @Override
     public void setShardingKey(final ShardingKey shardingKey, final ShardingKey superShardingKey) throws SQLException {
-        delegate.setShardingKey(shardingKey, superShardingKey);
+        delegate().setShardingKey(shardingKey, superShardingKey);
     }
 
     @Override
     public void setShardingKey(final ShardingKey shardingKey) throws SQLException {
-        delegate.setShardingKey(shardingKey);
+        delegate().setShardingKey(shardingKey);
     }
 
     @Override
     public <T> T unwrap(final Class<T> iface) throws SQLException {
-        return iface == DelegatingConnection.class ? iface.cast(this) : delegate.unwrap(iface);
+        return iface == DelegatingConnection.class ? iface.cast(this) : delegate().unwrap(iface);
     }
 
     @Override
     public boolean isWrapperFor(final Class<?> iface) throws SQLException {
-        return iface == DelegatingConnection.class || delegate.isWrapperFor(iface);
+        return iface == DelegatingConnection.class || delegate().isWrapperFor(iface);
+    }
+
+    // client info setters can only throw SQLClientInfoException
+    private Connection clientInfoDelegate() throws SQLClientInfoException {
+        try {
+            return delegate();
+        } catch (final SQLClientInfoException e) {
+            throw e;
+        } catch (final SQLException e) {
+            throw new SQLClientInfoException(e.getMessage(), e.getSQLState(), e.getErrorCode(), Map.of(), e);
+        }
     }
 }
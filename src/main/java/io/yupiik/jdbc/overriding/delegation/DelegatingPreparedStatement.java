@@ -46,574 +46,578 @@ public class DelegatingPreparedStatement implements PreparedStatement {
         this.preparedStatement = preparedStatement;
     }
 
+    protected PreparedStatement delegate() throws SQLException {
+        return preparedStatement;
+    }
+
     @Override
     public ResultSet executeQuery() throws SQLException {
-        return preparedStatement.executeQuery();
+        return delegate().executeQuery();
     }
 
     @Override
     public int executeUpdate() throws SQLException {
-        return preparedStatement.executeUpdate();
+        return delegate().executeUpdate();
     }
 
     @Override
     public void setNull(final int parameterIndex, final int sqlType) throws SQLException {
-        preparedStatement.setNull(parameterIndex, sqlType);
+        delegate().setNull(parameterIndex, sqlType);
     }
 
     @Override
     public void setBoolean(final int parameterIndex, final boolean x) throws SQLException {
-        preparedStatement.setBoolean(parameterIndex, x);
+        delegate().setBoolean(parameterIndex, x);
     }
 
     @Override
     public void setByte(final int parameterIndex, final byte x) throws SQLException {
-        preparedStatement.setByte(parameterIndex, x);
+        delegate().setByte(parameterIndex, x);
     }
 
     @Override
     public void setShort(final int parameterIndex, final short x) throws SQLException {
-        preparedStatement.setShort(parameterIndex, x);
+        delegate().setShort(parameterIndex, x);
     }
 
     @Override
     public void setInt(final int parameterIndex, final int x) throws SQLException {
-        preparedStatement.setInt(parameterIndex, x);
+        delegate().setInt(parameterIndex, x);
     }
 
     @Override
     public void setLong(final int parameterIndex, final long x) throws SQLException {
-        preparedStatement.setLong(parameterIndex, x);
+        delegate().setLong(parameterIndex, x);
     }
 
     @Override
     public void setFloat(final int parameterIndex, final float x) throws SQLException {
-        preparedStatement.setFloat(parameterIndex, x);
+        delegate().setFloat(parameterIndex, x);
     }
 
     @Override
     public void setDouble(final int parameterIndex, final double x) throws SQLException {
-        preparedStatement.setDouble(parameterIndex, x);
+        delegate().setDouble(parameterIndex, x);
     }
 
     @Override
     public void setBigDecimal(final int parameterIndex, final BigDecimal x) throws SQLException {
-        preparedStatement.setBigDecimal(parameterIndex, x);
+        delegate().setBigDecimal(parameterIndex, x);
     }
 
     @Override
     public void setString(final int parameterIndex, final String x) throws SQLException {
-        preparedStatement.setString(parameterIndex, x);
+        delegate().setString(parameterIndex, x);
     }
 
     @Override
     public void setBytes(final int parameterIndex, final byte[] x) throws SQLException {
-        preparedStatement.setBytes(parameterIndex, x);
+        delegate().setBytes(parameterIndex, x);
     }
 
     @Override
     public void setDate(final int parameterIndex, final Date x) throws SQLException {
-        preparedStatement.setDate(parameterIndex, x);
+        delegate().setDate(parameterIndex, x);
     }
 
     @Override
     public void setTime(final int parameterIndex, final Time x) throws SQLException {
-        preparedStatement.setTime(parameterIndex, x);
+        delegate().setTime(parameterIndex, x);
     }
 
     @Override
     public void setTimestamp(final int parameterIndex, final Timestamp x) throws SQLException {
-        preparedStatement.setTimestamp(parameterIndex, x);
+        delegate().setTimestamp(parameterIndex, x);
     }
 
     @Override
     public void setAsciiStream(final int parameterIndex, final InputStream x, final int length) throws SQLException {
-        preparedStatement.setAsciiStream(parameterIndex, x, length);
+        delegate().setAsciiStream(parameterIndex, x, length);
     }
 
     @Override
     @SuppressWarnings("deprecation")
     public void setUnicodeStream(final int parameterIndex, final InputStream x, final int length) throws SQLException {
-        preparedStatement.setUnicodeStream(parameterIndex, x, length);
+        delegate().setUnicodeStream(parameterIndex, x, length);
     }
 
     @Override
     public void setBinaryStream(final int parameterIndex, final InputStream x, final int length) throws SQLException {
-        preparedStatement.setBinaryStream(parameterIndex, x, length);
+        delegate().setBinaryStream(parameterIndex, x, length);
     }
 
     @Override
     public void clearParameters() throws SQLException {
-        preparedStatement.clearParameters();
+        delegate().clearParameters();
     }
 
     @Override
     public void setObject(final int parameterIndex, final Object x, final int targetSqlType) throws SQLException {
-        preparedStatement.setObject(parameterIndex, x, targetSqlType);
+        delegate().setObject(parameterIndex, x, targetSqlType);
     }
 
     @Override
     public void setObject(final int parameterIndex, final Object x) throws SQLException {
-        preparedStatement.setObject(parameterIndex, x);
+        delegate().setObject(parameterIndex, x);
     }
 
     @Override
     public boolean execute() throws SQLException {
-        return preparedStatement.execute();
+        return delegate().execute();
     }
 
     @Override
     public void addBatch() throws SQLException {
-        preparedStatement.addBatch();
+        delegate().addBatch();
     }
 
     @Override
     public void setCharacterStream(final int parameterIndex, final Reader reader, final int length) throws SQLException {
-        preparedStatement.setCharacterStream(parameterIndex, reader, length);
+        delegate().setCharacterStream(parameterIndex, reader, length);
     }
 
     @Override
     public void setRef(final int parameterIndex, final Ref x) throws SQLException {
-        preparedStatement.setRef(parameterIndex, x);
+        delegate().setRef(parameterIndex, x);
     }
 
     @Override
     public void setBlob(final int parameterIndex, final Blob x) throws SQLException {
-        preparedStatement.setBlob(parameterIndex, x);
+        delegate().setBlob(parameterIndex, x);
     }
 
     @Override
     public void setClob(final int parameterIndex, final Clob x) throws SQLException {
-        preparedStatement.setClob(parameterIndex, x);
+        delegate().setClob(parameterIndex, x);
     }
 
     @Override
     public void setArray(final int parameterIndex, final Array x) throws SQLException {
-        preparedStatement.setArray(parameterIndex, x);
+        delegate().setArray(parameterIndex, x);
     }
 
     @Override
     public ResultSetMetaData getMetaData() throws SQLException {
-        return preparedStatement.getMetaData();
+        return delegate().getMetaData();
     }
 
     @Override
     public void setDate(final int parameterIndex, final Date x, final Calendar cal) throws SQLException {
-        preparedStatement.setDate(parameterIndex, x, cal);
+        delegate().setDate(parameterIndex, x, cal);
     }
 
     @Override
     public void setTime(final int parameterIndex, final Time x, final Calendar cal) throws SQLException {
-        preparedStatement.setTime(parameterIndex, x, cal);
+        delegate().setTime(parameterIndex, x, cal);
     }
 
     @Override
     public void setTimestamp(final int parameterIndex, final Timestamp x, final Calendar cal) throws SQLException {
-        preparedStatement.setTimestamp(parameterIndex, x, cal);
+        delegate().setTimestamp(parameterIndex, x, cal);
     }
 
     @Override
     public void setNull(final int parameterIndex, final int sqlType, final String typeName) throws SQLException {
-        preparedStatement.setNull(parameterIndex, sqlType, typeName);
+        delegate().setNull(parameterIndex, sqlType, typeName);
     }
 
     @Override
     public void setURL(final int parameterIndex, final URL x) throws SQLException {
-        preparedStatement.setURL(parameterIndex, x);
+        delegate().setURL(parameterIndex, x);
     }
 
     @Override
     public ParameterMetaData getParameterMetaData() throws SQLException {
-        return preparedStatement.getParameterMetaData();
+        return delegate().getParameterMetaData();
     }
 
     @Override
     public void setRowId(final int parameterIndex, final RowId x) throws SQLException {
-        preparedStatement.setRowId(parameterIndex, x);
+        delegate().setRowId(parameterIndex, x);
     }
 
     @Override
     public void setNString(final int parameterIndex, final String value) throws SQLException {
-        preparedStatement.setNString(parameterIndex, value);
+        delegate().setNString(parameterIndex, value);
     }
 
     @Override
     public void setNCharacterStream(final int parameterIndex, final Reader value, final long length) throws SQLException {
-        preparedStatement.setNCharacterStream(parameterIndex, value, length);
+        delegate().setNCharacterStream(parameterIndex, value, length);
     }
 
     @Override
     public void setNClob(final int parameterIndex, final NClob value) throws SQLException {
-        preparedStatement.setNClob(parameterIndex, value);
+        delegate().setNClob(parameterIndex, value);
     }
 
     @Override
     public void setClob(final int parameterIndex, final Reader reader, final long length) throws SQLException {
-        preparedStatement.setClob(parameterIndex, reader, length);
+        delegate().setClob(parameterIndex, reader, length);
     }
 
     @Override
     public void setBlob(final int parameterIndex, final InputStream inputStream, final long length) throws SQLException {
-        preparedStatement.setBlob(parameterIndex, inputStream, length);
+        delegate().setBlob(parameterIndex, inputStream, length);
     }
 
     @Override
     public void setNClob(final int parameterIndex, final Reader reader, final long length) throws SQLException {
-        preparedStatement.setNClob(parameterIndex, reader, length);
+        delegate().setNClob(parameterIndex, reader, length);
     }
 
     @Override
     public void setSQLXML(final int parameterIndex, final SQLXML xmlObject) throws SQLException {
-        preparedStatement.setSQLXML(parameterIndex, xmlObject);
+        delegate().setSQLXML(parameterIndex, xmlObject);
     }
 
     @Override
     public void setObject(final int parameterIndex, final Object x, final int targetSqlType, final int scaleOrLength) throws SQLException {
-        preparedStatement.setObject(parameterIndex, x, targetSqlType, scaleOrLength);
+        delegate().setObject(parameterIndex, x, targetSqlType, scaleOrLength);
     }
 
     @Override
     public void setAsciiStream(final int parameterIndex, final InputStream x, final long length) throws SQLException {
-        preparedStatement.setAsciiStream(parameterIndex, x, length);
+        delegate().setAsciiStream(parameterIndex, x, length);
     }
 
     @Override
     public void setBinaryStream(final int parameterIndex, final InputStream x, final long length) throws SQLException {
-        preparedStatement.setBinaryStream(parameterIndex, x, length);
+        delegate().setBinaryStream(parameterIndex, x, length);
     }
 
     @Override
     public void setCharacterStream(final int parameterIndex, final Reader reader, final long length) throws SQLException {
-        preparedStatement.setCharacterStream(parameterIndex, reader, length);
+        delegate().setCharacterStream(parameterIndex, reader, length);
     }
 
     @Override
     public void setAsciiStream(final int parameterIndex, final InputStream x) throws SQLException {
-        preparedStatement.setAsciiStream(parameterIndex, x);
+        delegate().setAsciiStream(parameterIndex, x);
     }
 
     @Override
     public void setBinaryStream(final int parameterIndex, final InputStream x) throws SQLException {
-        preparedStatement.setBinaryStream(parameterIndex, x);
+        delegate().setBinaryStream(parameterIndex, x);
     }
 
     @Override
     public void setCharacterStream(final int parameterIndex, final Reader reader) throws SQLException {
-        preparedStatement.setCharacterStream(parameterIndex, reader);
+        delegate().setCharacterStream(parameterIndex, reader);
     }
 
     @Override
     public void setNCharacterStream(final int parameterIndex, final Reader value) throws SQLException {
-        preparedStatement.setNCharacterStream(parameterIndex, value);
+        delegate().setNCharacterStream(parameterIndex, value);
     }
 
     @Override
     public void setClob(final int parameterIndex, final Reader reader) throws SQLException {
-        preparedStatement.setClob(parameterIndex, reader);
+        delegate().setClob(parameterIndex, reader);
     }
 
     @Override
     public void setBlob(final int parameterIndex, final InputStream inputStream) throws SQLException {
-        preparedStatement.setBlob(parameterIndex, inputStream);
+        delegate().setBlob(parameterIndex, inputStream);
     }
 
     @Override
     public void setNClob(final int parameterIndex, final Reader reader) throws SQLException {
-        preparedStatement.setNClob(parameterIndex, reader);
+        delegate().setNClob(parameterIndex, reader);
     }
 
     @Override
     public void setObject(final int parameterIndex, final Object x, final SQLType targetSqlType, final int scaleOrLength) throws SQLException {
-        preparedStatement.setObject(parameterIndex, x, targetSqlType, scaleOrLength);
+        delegate().setObject(parameterIndex, x, targetSqlType, scaleOrLength);
     }
 
     @Override
     public void setObject(final int parameterIndex, final Object x, final SQLType targetSqlType) throws SQLException {
-        preparedStatement.setObject(parameterIndex, x, targetSqlType);
+        delegate().setObject(parameterIndex, x, targetSqlType);
     }
 
     @Override
     public long executeLargeUpdate() throws SQLException {
-        return preparedStatement.executeLargeUpdate();
+        return delegate().executeLargeUpdate();
     }
 
     @Override
     public ResultSet executeQuery(final String sql) throws SQLException {
-        return preparedStatement.executeQuery(sql);
+        return delegate().executeQuery(sql);
     }
 
     @Override
     public int executeUpdate(final String sql) throws SQLException {
-        return preparedStatement.executeUpdate(sql);
+        return delegate().executeUpdate(sql);
     }
 
     @Override
     public void close() throws SQLException {
-        preparedStatement.close();
+        delegate().close();
     }
 
     @Override
     public int getMaxFieldSize() throws SQLException {
-        return preparedStatement.getMaxFieldSize();
+        return delegate().getMaxFieldSize();
     }
 
     @Override
     public void setMaxFieldSize(final int max) throws SQLException {
-        preparedStatement.setMaxFieldSize(max);
+        delegate().setMaxFieldSize(max);
     }
 
     @Override
     public int getMaxRows() throws SQLException {
-        return preparedStatement.getMaxRows();
+        return delegate().getMaxRows();
     }
 
     @Override
     public void setMaxRows(final int max) throws SQLException {
-        preparedStatement.setMaxRows(max);
+        delegate().setMaxRows(max);
     }
 
     @Override
     public void setEscapeProcessing(final boolean enable) throws SQLException {
-        preparedStatement.setEscapeProcessing(enable);
+        delegate().setEscapeProcessing(enable);
     }
 
     @Override
     public int getQueryTimeout() throws SQLException {
-        return preparedStatement.getQueryTimeout();
+        return delegate().getQueryTimeout();
     }
 
     @Override
     public void setQueryTimeout(final int seconds) throws SQLException {
-        preparedStatement.setQueryTimeout(seconds);
+        delegate().setQueryTimeout(seconds);
     }
 
     @Override
     public void cancel() throws SQLException {
-        preparedStatement.cancel();
+        delegate().cancel();
     }
 
     @Override
     public SQLWarning getWarnings() throws SQLException {
-        return preparedStatement.getWarnings();
+        return delegate().getWarnings();
     }
 
     @Override
     public void clearWarnings() throws SQLException {
-        preparedStatement.clearWarnings();
+        delegate().clearWarnings();
     }
 
     @Override
     public void setCursorName(final String name) throws SQLException {
-        preparedStatement.setCursorName(name);
+        delegate().setCursorName(name);
     }
 
     @Override
     public boolean execute(final String sql) throws SQLException {
-        return preparedStatement.execute(sql);
+        return delegate().execute(sql);
     }
 
     @Override
     public ResultSet getResultSet() throws SQLException {
-        return preparedStatement.getResultSet();
+        return delegate().getResultSet();
     }
 
     @Override
     public int getUpdateCount() throws SQLException {
-        return preparedStatement.getUpdateCount();
+        return delegate().getUpdateCount();
     }
 
     @Override
     public boolean getMoreResults() throws SQLException {
-        return preparedStatement.getMoreResults();
+        return delegate().getMoreResults();
     }
 
     @Override
     public void setFetchDirection(final int direction) throws SQLException {
-        preparedStatement.setFetchDirection(direction);
+        delegate().setFetchDirection(direction);
     }
 
     @Override
     public int getFetchDirection() throws SQLException {
-        return preparedStatement.getFetchDirection();
+        return delegate().getFetchDirection();
     }
 
     @Override
     public void setFetchSize(final int rows) throws SQLException {
-        preparedStatement.setFetchSize(rows);
+        delegate().setFetchSize(rows);
     }
 
     @Override
     public int getFetchSize() throws SQLException {
-        return preparedStatement.getFetchSize();
+        return delegate().getFetchSize();
     }
 
     @Override
     public int getResultSetConcurrency() throws SQLException {
-        return preparedStatement.getResultSetConcurrency();
+        return delegate().getResultSetConcurrency();
     }
 
     @Override
     public int getResultSetType() throws SQLException {
-        return preparedStatement.getResultSetType();
+        return delegate().getResultSetType();
     }
 
     @Override
     public void addBatch(final String sql) throws SQLException {
-        preparedStatement.addBatch(sql);
+        delegate().addBatch(sql);
     }
 
     @Override
     public void clearBatch() throws SQLException {
-        preparedStatement.clearBatch();
+        delegate().clearBatch();
     }
 
     @Override
     public int[] executeBatch() throws SQLException {
-        return preparedStatement.executeBatch();
+        return delegate().executeBatch();
     }
 
     @Override
     public Connection getConnection() throws SQLException {
-        return preparedStatement.getConnection();
+        return delegate().getConnection();
     }
 
     @Override
     public boolean getMoreResults(final int current) throws SQLException {
-        return preparedStatement.getMoreResults(current);
+        return delegate().getMoreResults(current);
     }
 
     @Override
     public ResultSet getGeneratedKeys() throws SQLException {
-        return preparedStatement.getGeneratedKeys();
+        return delegate().getGeneratedKeys();
     }
 
     @Override
     public int executeUpdate(final String sql, final int autoGeneratedKeys) throws SQLException {
-        return preparedStatement.executeUpdate(sql, autoGeneratedKeys);
+        return delegate().executeUpdate(sql, autoGeneratedKeys);
     }
 
     @Override
     public int executeUpdate(final String sql, final int[] columnIndexes) throws SQLException {
-        return preparedStatement.executeUpdate(sql, columnIndexes);
+        return delegate().executeUpdate(sql, columnIndexes);
     }
 
     @Override
     public int executeUpdate(final String sql, final String[] columnNames) throws SQLException {
-        return preparedStatement.executeUpdate(sql, columnNames);
+        return delegate().executeUpdate(sql, columnNames);
     }
 
     @Override
     public boolean execute(final String sql, final int autoGeneratedKeys) throws SQLException {
-        return preparedStatement.execute(sql, autoGeneratedKeys);
+        return delegate().execute(sql, autoGeneratedKeys);
     }
 
     @Override
     public boolean execute(final String sql, final int[] columnIndexes) throws SQLException {
-        return preparedStatement.execute(sql, columnIndexes);
+        return delegate().execute(sql, columnIndexes);
     }
 
     @Override
     public boolean execute(final String sql, final String[] columnNames) throws SQLException {
-        return preparedStatement.execute(sql, columnNames);
+        return delegate().execute(sql, columnNames);
     }
 
     @Override
     public int getResultSetHoldability() throws SQLException {
-        return preparedStatement.getResultSetHoldability();
+        return delegate().getResultSetHoldability();
     }
 
     @Override
     public boolean isClosed() throws SQLException {
-        return preparedStatement.isClosed();
+        return delegate().isClosed();
     }
 
     @Override
     public void setPoolable(final boolean poolable) throws SQLException {
-        preparedStatement.setPoolable(poolable);
+        delegate().setPoolable(poolable);
     }
 
     @Override
     public boolean isPoolable() throws SQLException {
-        return preparedStatement.isPoolable();
+        return delegate().isPoolable();
     }
 
     @Override
     public void closeOnCompletion() throws SQLException {
-        preparedStatement.closeOnCompletion();
+        delegate().closeOnCompletion();
     }
 
     @Override
     public boolean isCloseOnCompletion() throws SQLException {
-        return preparedStatement.isCloseOnCompletion();
+        return delegate().isCloseOnCompletion();
     }
 
     @Override
     public long getLargeUpdateCount() throws SQLException {
-        return preparedStatement.getLargeUpdateCount();
+        return delegate().getLargeUpdateCount();
     }
 
     @Override
     public void setLargeMaxRows(final long max) throws SQLException {
-        preparedStatement.setLargeMaxRows(max);
+        delegate().setLargeMaxRows(max);
     }
 
     @Override
     public long getLargeMaxRows() throws SQLException {
-        return preparedStatement.getLargeMaxRows();
+        return delegate().getLargeMaxRows();
     }
 
     @Override
     public long[] executeLargeBatch() throws SQLException {
-        return preparedStatement.executeLargeBatch();
+        return delegate().executeLargeBatch();
     }
 
     @Override
     public long executeLargeUpdate(final String sql) throws SQLException {
-        return preparedStatement.executeLargeUpdate(sql);
+        return delegate().executeLargeUpdate(sql);
     }
 
     @Override
     public long executeLargeUpdate(final String sql, final int autoGeneratedKeys) throws SQLException {
-        return preparedStatement.executeLargeUpdate(sql, autoGeneratedKeys);
+        return delegate().executeLargeUpdate(sql, autoGeneratedKeys);
     }
 
     @Override
     public long executeLargeUpdate(final String sql, final int[] columnIndexes) throws SQLException {
-        return preparedStatement.executeLargeUpdate(sql, columnIndexes);
+        return delegate().executeLargeUpdate(sql, columnIndexes);
     }
 
     @Override
     public long executeLargeUpdate(final String sql, final String[] columnNames) throws SQLException {
-        return preparedStatement.executeLargeUpdate(sql, columnNames);
+        return delegate().executeLargeUpdate(sql, columnNames);
     }
 
     @Override
     public String enquoteLiteral(final String val) throws SQLException {
-        return preparedStatement.enquoteLiteral(val);
+        return delegate().enquoteLiteral(val);
     }
 
     @Override
     public String enquoteIdentifier(final String identifier, final boolean alwaysQuote) throws SQLException {
-        return preparedStatement.enquoteIdentifier(identifier, alwaysQuote);
+        return delegate().enquoteIdentifier(identifier, alwaysQuote);
     }
 
     @Override
     public boolean isSimpleIdentifier(final String identifier) throws SQLException {
-        return preparedStatement.isSimpleIdentifier(identifier);
+        return delegate().isSimpleIdentifier(identifier);
     }
 
     @Override
     public String enquoteNCharLiteral(final String val) throws SQLException {
-        return preparedStatement.enquoteNCharLiteral(val);
+        return delegate().enquoteNCharLiteral(val);
     }
 
     @Override
     public <T> T unwrap(final Class<T> iface) throws SQLException {
-        return DelegatingPreparedStatement.class == iface ? iface.cast(this) : preparedStatement.unwrap(iface);
+        return DelegatingPreparedStatement.class == iface ? iface.cast(this) : delegate().unwrap(iface);
     }
 
     @Override
     public boolean isWrapperFor(final Class<?> iface) throws SQLException {
-        return DelegatingPreparedStatement.class == iface || preparedStatement.isWrapperFor(iface);
+        return DelegatingPreparedStatement.class == iface || delegate().isWrapperFor(iface);
     }
 }
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("io.yupiik.jdbc.ConfigurationLoad")
+@Label("Configuration Load")
+@Category({"Yupiik", "JDBC"})
+@Description("Loading or reloading of the rewrite configuration.")
+public class ConfigurationLoadEvent extends Event {
+    @Label("Configuration")
+    public String configuration;
+
+    @Label("Rules")
+    public int rules;
+
+    @Label("Regexes")
+    public int regexes;
+
+    @Label("Sources")
+    public int sources;
+
+    @Label("Parsed Sources")
+    public int parsed;
+
+    @Label("Success")
+    public boolean success;
+}
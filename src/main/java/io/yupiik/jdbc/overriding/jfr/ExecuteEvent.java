@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+@Threshold("10 ms")
+@Name("io.yupiik.jdbc.Execute")
+@Label("Execute")
+@Category({"Yupiik", "JDBC"})
+@Description("Execution of a rewritten statement by the delegate driver, bulkhead wait excluded.")
+public class ExecuteEvent extends Event {
+    @Label("Rule")
+    public String rule;
+
+    @Label("SQL")
+    public String sql;
+
+    @Label("Success")
+    public boolean success;
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+@Threshold("10 ms")
+@Name("io.yupiik.jdbc.ResultSetIteration")
+@Label("Result Set Iteration")
+@Category({"Yupiik", "JDBC"})
+@Description("Lifetime of the result set of a rewritten statement, from the execution to its closing.")
+public class ResultSetIterationEvent extends Event {
+    @Label("Rule")
+    public String rule;
+
+    @Label("Rows")
+    public long rows;
+}
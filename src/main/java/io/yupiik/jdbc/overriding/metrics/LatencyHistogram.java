@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// lock-free histogram with power of two nanoseconds buckets, precise enough to spot outliers
+// and to not round sub-microsecond latencies (rule matching) to zero
+public class LatencyHistogram {
+    private static final int BUCKETS = 50;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(final long nanos) {
+        final long value = Math.max(0, nanos);
+        buckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value)));
+        count.increment();
+        total.add(value);
+        if (value > max.get()) {
+            max.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public double meanNanos() {
+        final long count = this.count.sum();
+        return count == 0 ? 0 : total.sum() / (double) count;
+    }
+
+    public double meanMicros() {
+        return meanNanos() / 1_000;
+    }
+
+    public long totalNanos() {
+        return total.sum();
+    }
+
+    public long totalMicros() {
+        return totalNanos() / 1_000;
+    }
+
+    public long maxNanos() {
+        return max.get();
+    }
+
+    public long maxMicros() {
+        return maxNanos() / 1_000;
+    }
+
+    // upper bound of the bucket containing the percentile
+    public long percentileNanos(final double percentile) {
+        final long count = this.count.sum();
+        if (count == 0) {
+            return 0;
+        }
+        final long target = (long) Math.ceil(count * percentile);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= target) {
+                return Math.min(i == 0 ? 0 : 1L << i, max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public long percentileMicros(final double percentile) {
+        return percentileNanos(percentile) / 1_000;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        total.reset();
+        max.set(0);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding.metrics;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import static java.util.logging.Level.WARNING;
+
+// per rule metrics of a driver URL, kept by rule name so they survive configuration reloads
+public class MetricsRegistry implements MetricsRegistryMBean, AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(MetricsRegistry.class.getName());
+
+    private final String name;
+    private final boolean jmx;
+    private final Map<String, RuleMetrics> rules = new ConcurrentHashMap<>();
+    private final LatencyHistogram misses = new LatencyHistogram();
+    private volatile boolean closed; // metrics are still collected but no more exposed
+
+    public MetricsRegistry(final String name, final boolean jmx) {
+        this.name = name;
+        this.jmx = jmx;
+        if (jmx) {
+            register(this, objectName("Registry", null));
+        }
+    }
+
+    public RuleMetrics rule(final String rule) {
+        final var existing = rules.get(rule);
+        if (existing != null) {
+            return existing;
+        }
+        return rules.computeIfAbsent(rule, key -> {
+            final var metrics = new RuleMetrics(key);
+            if (jmx && !closed) {
+                register(metrics, objectName("Rule", key));
+            }
+            return metrics;
+        });
+    }
+
+    public Map<String, RuleMetrics> rules() {
+        return rules;
+    }
+
+    public void onMiss(final long nanos) {
+        misses.record(nanos);
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.count();
+    }
+
+    @Override
+    public double getMissMeanMicros() {
+        return misses.meanMicros();
+    }
+
+    @Override
+    public Set<String> getRules() {
+        return new TreeSet<>(rules.keySet());
+    }
+
+    @Override
+    public void reset() {
+        misses.reset();
+        rules.values().forEach(RuleMetrics::reset);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (!jmx) {
+            return;
+        }
+        for (final var rule : rules.keySet()) {
+            unregister(objectName("Rule", rule));
+        }
+        unregister(objectName("Registry", null));
+    }
+
+    private ObjectName objectName(final String type, final String rule) {
+        try {
+            return new ObjectName("io.yupiik.jdbc:type=" + type + ",registry=" + ObjectName.quote(name) +
+                    (rule == null ? "" : ",name=" + ObjectName.quote(rule)));
+        } catch (final JMException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private void register(final Object mbean, final ObjectName objectName) {
+        try {
+            final var server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) { // previous registry for the same URL
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(mbean, objectName);
+        } catch (final JMException e) {
+            LOGGER.log(WARNING, e, () -> "Can't register '" + objectName + "': " + e.getMessage());
+        }
+    }
+
+    private void unregister(final ObjectName objectName) {
+        try {
+            final var server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (final JMException e) {
+            LOGGER.log(WARNING, e, () -> "Can't unregister '" + objectName + "': " + e.getMessage());
+        }
+    }
+}
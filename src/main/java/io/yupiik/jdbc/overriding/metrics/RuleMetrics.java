@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+public class RuleMetrics implements RuleMetricsMBean {
+    private final String name;
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder rowsRead = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder batchedRows = new LongAdder();
+    private final LatencyHistogram match = new LatencyHistogram();
+    private final LatencyHistogram execute = new LatencyHistogram();
+    private final LatencyHistogram fetch = new LatencyHistogram();
+
+    public RuleMetrics(final String name) {
+        this.name = name;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public void onMatch(final long nanos) {
+        match.record(nanos);
+    }
+
+    public void onExecute(final long nanos) {
+        execute.record(nanos);
+    }
+
+    public void onError() {
+        errors.increment();
+    }
+
+    public void onBatch(final int size) {
+        batches.increment();
+        batchedRows.add(size);
+    }
+
+    public void onFetch(final long nanos, final boolean hasRow) {
+        fetch.record(nanos);
+        if (hasRow) {
+            rowsRead.increment();
+        }
+    }
+
+    public LatencyHistogram matchLatency() {
+        return match;
+    }
+
+    public LatencyHistogram executeLatency() {
+        return execute;
+    }
+
+    public LatencyHistogram fetchLatency() {
+        return fetch;
+    }
+
+    @Override
+    public long getMatches() {
+        return match.count();
+    }
+
+    @Override
+    public long getExecutions() {
+        return execute.count();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public long getRowsRead() {
+        return rowsRead.sum();
+    }
+
+    @Override
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    @Override
+    public long getBatchedRows() {
+        return batchedRows.sum();
+    }
+
+    @Override
+    public double getMatchMeanNanos() {
+        return match.meanNanos();
+    }
+
+    @Override
+    public long getMatchP99Nanos() {
+        return match.percentileNanos(.99);
+    }
+
+    @Override
+    public double getExecuteMeanMicros() {
+        return execute.meanMicros();
+    }
+
+    @Override
+    public long getExecuteP50Micros() {
+        return execute.percentileMicros(.5);
+    }
+
+    @Override
+    public long getExecuteP99Micros() {
+        return execute.percentileMicros(.99);
+    }
+
+    @Override
+    public long getExecuteMaxMicros() {
+        return execute.maxMicros();
+    }
+
+    @Override
+    public double getFetchMeanMicros() {
+        return fetch.meanMicros();
+    }
+
+    @Override
+    public long getFetchP99Micros() {
+        return fetch.percentileMicros(.99);
+    }
+
+    @Override
+    public void reset() {
+        errors.reset();
+        rowsRead.reset();
+        batches.reset();
+        batchedRows.reset();
+        match.reset();
+        execute.reset();
+        fetch.reset();
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding.metrics;
+
+public interface RuleMetricsMBean {
+    long getMatches();
+
+    long getExecutions();
+
+    long getErrors();
+
+    long getRowsRead();
+
+    long getBatches();
+
+    long getBatchedRows();
+
+    // matching is usually sub-microsecond
+    double getMatchMeanNanos();
+
+    long getMatchP99Nanos();
+
+    double getExecuteMeanMicros();
+
+    long getExecuteP50Micros();
+
+    long getExecuteP99Micros();
+
+    long getExecuteMaxMicros();
+
+    double getFetchMeanMicros();
+
+    long getFetchP99Micros();
+
+    void reset();
+}
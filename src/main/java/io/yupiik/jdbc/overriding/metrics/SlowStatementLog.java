@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding.metrics;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.logging.Level.WARNING;
+
+// statements use offer() which never blocks: records are dropped (and counted) when the queue is full,
+// formatting and logging are done by a dedicated thread so a slow log handler never slows down the application
+public class SlowStatementLog implements AutoCloseable {
+    public static final String LOGGER_NAME = "io.yupiik.jdbc.overriding.SlowStatements";
+
+    private static final Logger LOGGER = Logger.getLogger(LOGGER_NAME);
+
+    private final long thresholdNanos;
+    private final int maxValueLength;
+    private final Set<Integer> masked; // application parameter indices, null means all
+    private final BlockingQueue<Record> queue;
+    private final LongAdder dropped = new LongAdder();
+    private final Thread appender;
+
+    public SlowStatementLog(final long thresholdMillis, final int queueSize, final int maxValueLength, final Set<Integer> masked) {
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        this.maxValueLength = maxValueLength;
+        this.masked = masked;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.appender = new Thread(this::append, "yupiik-jdbc-slow-statements");
+        this.appender.setDaemon(true);
+        this.appender.start();
+    }
+
+    public boolean isSlow(final long nanos) {
+        return nanos >= thresholdNanos;
+    }
+
+    public void offer(final Record record) {
+        if (!queue.offer(record)) {
+            dropped.increment();
+        }
+    }
+
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    @Override
+    public void close() {
+        appender.interrupt();
+    }
+
+    private void append() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                final var record = queue.take();
+                try {
+                    LOGGER.log(WARNING, format(record));
+                } catch (final RuntimeException re) { // never kill the appender
+                    LOGGER.log(WARNING, re, () -> "Can't log a slow statement: " + re.getMessage());
+                }
+
+                final long lost = dropped.sumThenReset();
+                if (lost > 0) {
+                    LOGGER.warning(() -> lost + " slow statement(s) not logged, queue was full");
+                }
+            }
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private String format(final Record record) {
+        final var out = new StringBuilder("Slow statement (")
+                .append(NANOSECONDS.toMillis(record.durationNanos)).append("ms");
+        if (record.rows >= 0) {
+            out.append(", ").append(record.rows).append(" rows");
+        }
+        if (!record.success) {
+            out.append(", failed");
+        }
+        out.append(") rule='").append(record.rule)
+                .append("', sql='").append(record.originalSql)
+                .append("', rewritten='").append(record.sql).append('\'');
+        if (record.values != null) {
+            out.append(", bindings=[");
+            for (int i = 0; i < record.values.length; i++) {
+                if (i > 0) {
+                    out.append(", ");
+                }
+                out.append(i + 1).append('=').append(format(record.parameterIndices[i], record.values[i]));
+            }
+            out.append(']');
+        }
+        return out.toString();
+    }
+
+    private String format(final int parameterIndex, final Object value) {
+        if (value == null) {
+            return "NULL";
+        }
+        if (masked == null || masked.contains(parameterIndex)) {
+            return "***";
+        }
+        if (value instanceof byte[]) {
+            return "<byte[" + ((byte[]) value).length + "]>";
+        }
+        if (value instanceof InputStream || value instanceof Reader || value instanceof Blob || value instanceof Clob) {
+            return '<' + value.getClass().getSimpleName() + '>';
+        }
+        final var string = String.valueOf(value);
+        return '\'' + (string.length() > maxValueLength ? string.substring(0, maxValueLength) + "..." : string) + '\'';
+    }
+
+    public static class Record {
+        private final String originalSql;
+        private final String rule;
+        private final String sql;
+        private final Object[] values; // by rewritten statement index - 1
+        private final int[] parameterIndices; // application index of each value
+        private final long durationNanos;
+        private final boolean success;
+        private long rows;
+
+        public Record(final String originalSql, final String rule, final String sql,
+                      final Object[] values, final int[] parameterIndices,
+                      final long durationNanos, final long rows, final boolean success) {
+            this.originalSql = originalSql;
+            this.rule = rule;
+            this.sql = sql;
+            this.values = values;
+            this.parameterIndices = parameterIndices;
+            this.durationNanos = durationNanos;
+            this.rows = rows;
+            this.success = success;
+        }
+
+        // result set rows are only known once it is closed
+        public void rows(final long rows) {
+            this.rows = rows;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding.metrics;
+
+import java.util.regex.Pattern;
+
+// normalizes a statement so executions only differing by their literals share the same statistics
+public final class SqlFingerprint {
+    private static final Pattern PLACEHOLDER_LIST = Pattern.compile("\\?(?:\\s*,\\s*\\?)+");
+
+    private SqlFingerprint() {
+        // no-op
+    }
+
+    public static String of(final String sql) {
+        final var out = new StringBuilder(sql.length());
+        boolean pendingSpace = false;
+        final int length = sql.length();
+        for (int i = 0; i < length; i++) {
+            final char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                pendingSpace = true;
+                continue;
+            }
+            if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') { // line comment
+                final int end = sql.indexOf('\n', i);
+                i = end < 0 ? length : end;
+                pendingSpace = true;
+                continue;
+            }
+            if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') { // block comment
+                final int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? length : end + 1;
+                pendingSpace = true;
+                continue;
+            }
+
+            if (pendingSpace && out.length() > 0) {
+                out.append(' ');
+            }
+            pendingSpace = false;
+
+            if (c == '\'') { // string literal, '' is an escaped quote
+                i++;
+                while (i < length) {
+                    if (sql.charAt(i) == '\'') {
+                        if (i + 1 < length && sql.charAt(i + 1) == '\'') {
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                out.append('?');
+            } else if (c == '"' || c == '`') { // quoted identifier, kept as is
+                final int end = sql.indexOf(c, i + 1);
+                final int last = end < 0 ? length - 1 : end;
+                out.append(sql, i, last + 1);
+                i = last;
+            } else if (Character.isDigit(c) && !isIdentifierPart(out)) {
+                while (i + 1 < length && (Character.isLetterOrDigit(sql.charAt(i + 1)) || sql.charAt(i + 1) == '.')) {
+                    i++;
+                }
+                out.append('?');
+            } else {
+                out.append(Character.toLowerCase(c));
+            }
+        }
+        return PLACEHOLDER_LIST.matcher(out).replaceAll("?, ...");
+    }
+
+    private static boolean isIdentifierPart(final StringBuilder out) {
+        if (out.length() == 0) {
+            return false;
+        }
+        final char last = out.charAt(out.length() - 1);
+        return Character.isLetterOrDigit(last) || last == '_' || last == '$';
+    }
+}
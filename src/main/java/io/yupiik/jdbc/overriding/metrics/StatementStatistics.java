@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding.metrics;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.Comparator.comparingLong;
+import static java.util.stream.Collectors.toList;
+
+// bounded statistics by SQL fingerprint, the table is a space-saving heavy hitter sketch:
+// when full, the least called entry is replaced and its count is inherited (as an overestimation)
+// so frequent statements are always kept whatever the number of distinct ones.
+// To keep the eviction cheap with a lot of distinct statements, the least called entry is searched
+// in a random sample of the table (all of it when small), the inherited count stays an upper bound
+public class StatementStatistics {
+    private static final int EVICTION_SAMPLES = 16;
+
+    private final int maxEntries;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Entry[] slots; // guarded by this, gives an O(1) access to the eviction candidates
+    private int used; // guarded by this
+
+    public StatementStatistics(final int maxEntries) {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.slots = new Entry[this.maxEntries];
+    }
+
+    public Tracker tracker(final String fingerprint) {
+        return new Tracker(this, fingerprint);
+    }
+
+    // rows can be negative when not known yet (result set), see onRows
+    public void record(final String fingerprint, final long nanos, final long rows, final boolean success) {
+        final var entry = entry(fingerprint);
+        entry.calls.increment();
+        entry.latency.record(nanos);
+        if (rows > 0) {
+            entry.rows.add(rows);
+        }
+        if (!success) {
+            entry.errors.increment();
+        }
+    }
+
+    public void onRows(final String fingerprint, final long rows) {
+        final var entry = entries.get(fingerprint);
+        if (entry != null) { // else evicted meanwhile
+            entry.rows.add(rows);
+        }
+    }
+
+    // sorted by total execution time, most expensive first
+    public List<Snapshot> snapshot() {
+        return entries.values().stream()
+                .map(Snapshot::new)
+                .sorted(comparingLong(Snapshot::getTotalMicros).reversed())
+                .collect(toList());
+    }
+
+    public synchronized void reset() {
+        entries.clear();
+        Arrays.fill(slots, 0, used, null);
+        used = 0;
+    }
+
+    // tab separated to be easily loaded in a spreadsheet or sorted with command line tools
+    public void dump(final Path target) throws IOException {
+        final var out = new StringBuilder("calls\terrors\trows\ttotal_us\tmean_us\tp50_us\tp99_us\tmax_us\tcalls_overestimation\tfingerprint\n");
+        for (final var it : snapshot()) {
+            out.append(it.getCalls()).append('\t')
+                    .append(it.getErrors()).append('\t')
+                    .append(it.getRows()).append('\t')
+                    .append(it.getTotalMicros()).append('\t')
+                    .append(Math.round(it.getMeanMicros())).append('\t')
+                    .append(it.getP50Micros()).append('\t')
+                    .append(it.getP99Micros()).append('\t')
+                    .append(it.getMaxMicros()).append('\t')
+                    .append(it.getCallsOverestimation()).append('\t')
+                    .append(it.getFingerprint().replace('\t', ' ')).append('\n');
+        }
+
+        final var parent = target.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        final var tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        Files.writeString(tmp, out, UTF_8);
+        try {
+            Files.move(tmp, target, REPLACE_EXISTING, ATOMIC_MOVE);
+        } catch (final IOException ioe) { // atomic move not supported
+            Files.move(tmp, target, REPLACE_EXISTING);
+        }
+    }
+
+    private Entry entry(final String fingerprint) {
+        final var existing = entries.get(fingerprint);
+        if (existing != null) {
+            return existing;
+        }
+
+        synchronized (this) { // only new fingerprints lock, executions of known ones stay lock free
+            final var current = entries.get(fingerprint);
+            if (current != null) {
+                return current;
+            }
+
+            final int slot;
+            long inherited = 0;
+            if (used < maxEntries) {
+                slot = used++;
+            } else {
+                final var evicted = evictionCandidate();
+                entries.remove(evicted.fingerprint);
+                inherited = evicted.calls.sum();
+                slot = evicted.slot;
+            }
+
+            final var entry = new Entry(fingerprint, inherited, slot);
+            slots[slot] = entry;
+            entries.put(fingerprint, entry);
+            return entry;
+        }
+    }
+
+    // least called entry of a bounded sample so a full table does not make new fingerprints linear
+    private Entry evictionCandidate() {
+        Entry min = null;
+        long minCalls = Long.MAX_VALUE;
+        if (used <= EVICTION_SAMPLES) {
+            for (int i = 0; i < used; i++) {
+                final long calls = slots[i].calls.sum();
+                if (calls < minCalls) {
+                    minCalls = calls;
+                    min = slots[i];
+                }
+            }
+        } else {
+            final var random = ThreadLocalRandom.current();
+            for (int i = 0; i < EVICTION_SAMPLES; i++) {
+                final var candidate = slots[random.nextInt(used)];
+                final long calls = candidate.calls.sum();
+                if (calls < minCalls) {
+                    minCalls = calls;
+                    min = candidate;
+                }
+            }
+        }
+        return min;
+    }
+
+    // binds a statement to its fingerprint, the entry is looked up for each execution since it can be evicted
+    public static class Tracker {
+        private final StatementStatistics statistics;
+        private final String fingerprint;
+
+        private Tracker(final StatementStatistics statistics, final String fingerprint) {
+            this.statistics = statistics;
+            this.fingerprint = fingerprint;
+        }
+
+        public String fingerprint() {
+            return fingerprint;
+        }
+
+        public void record(final long nanos, final long rows, final boolean success) {
+            statistics.record(fingerprint, nanos, rows, success);
+        }
+
+        public void onRows(final long rows) {
+            statistics.onRows(fingerprint, rows);
+        }
+    }
+
+    public static class Snapshot {
+        private final String fingerprint;
+        private final long calls;
+        private final long callsOverestimation;
+        private final long errors;
+        private final long rows;
+        private final long totalMicros;
+        private final double meanMicros;
+        private final long p50Micros;
+        private final long p99Micros;
+        private final long maxMicros;
+
+        private Snapshot(final Entry entry) {
+            this.fingerprint = entry.fingerprint;
+            this.calls = entry.calls.sum();
+            this.callsOverestimation = entry.overestimation;
+            this.errors = entry.errors.sum();
+            this.rows = entry.rows.sum();
+            this.totalMicros = entry.latency.totalMicros();
+            this.meanMicros = entry.latency.meanMicros();
+            this.p50Micros = entry.latency.percentileMicros(.5);
+            this.p99Micros = entry.latency.percentileMicros(.99);
+            this.maxMicros = entry.latency.maxMicros();
+        }
+
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        public long getCalls() {
+            return calls;
+        }
+
+        // calls inherited from the evicted entry, the real count is between calls - overestimation and calls
+        public long getCallsOverestimation() {
+            return callsOverestimation;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public long getTotalMicros() {
+            return totalMicros;
+        }
+
+        public double getMeanMicros() {
+            return meanMicros;
+        }
+
+        public long getP50Micros() {
+            return p50Micros;
+        }
+
+        public long getP99Micros() {
+            return p99Micros;
+        }
+
+        public long getMaxMicros() {
+            return maxMicros;
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot[fingerprint='" + fingerprint + "', calls=" + calls + ", errors=" + errors +
+                    ", rows=" + rows + ", totalMicros=" + totalMicros + ", p99Micros=" + p99Micros + "]";
+        }
+    }
+
+    private static class Entry {
+        private final String fingerprint;
+        private final long overestimation;
+        private final int slot;
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        private Entry(final String fingerprint, final long overestimation, final int slot) {
+            this.fingerprint = fingerprint;
+            this.overestimation = overestimation;
+            this.slot = slot;
+            this.calls.add(overestimation);
+        }
+    }
+}
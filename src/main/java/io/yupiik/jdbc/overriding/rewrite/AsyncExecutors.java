@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding.rewrite;
+
+import io.yupiik.jdbc.overriding.Deadline;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.sql.SQLException;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+public final class AsyncExecutors {
+    private AsyncExecutors() {
+        // no-op
+    }
+
+    public static Executor defaultExecutor() {
+        return DefaultExecutor.INSTANCE;
+    }
+
+    // propagates the caller deadline to the task
+    static <T> CompletableFuture<T> supplyAsync(final Executor executor, final Task<T> task) {
+        final var deadline = Deadline.current();
+        final var future = new CompletableFuture<T>();
+        try {
+            executor.execute(() -> {
+                final var scope = deadline == null ? null : deadline.enter();
+                try {
+                    future.complete(task.run());
+                } catch (final SQLException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    if (scope != null) {
+                        scope.close();
+                    }
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    // runs the tasks one after the other (in submission order) on the underlying executor,
+    // used to not execute concurrently on a connection which is not thread safe
+    static Executor serial(final Executor executor) {
+        return new SerialExecutor(executor);
+    }
+
+    // threads <= 0 means virtual threads when available (java >= 21) else an unbounded pool of daemon threads
+    public static ExecutorService newExecutor(final String name, final int threads) {
+        final var counter = new AtomicInteger();
+        if (threads > 0) {
+            // idle threads die so the pool does not need to be shut down when no more referenced
+            final var pool = new ThreadPoolExecutor(
+                    threads, threads, 1, MINUTES, new LinkedBlockingQueue<>(),
+                    r -> newDaemonThread(name, counter, r));
+            pool.allowCoreThreadTimeOut(true);
+            return pool;
+        }
+        try {
+            return (ExecutorService) MethodHandles.publicLookup()
+                    .findStatic(Executors.class, "newVirtualThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class))
+                    .invoke();
+        } catch (final NoSuchMethodException | IllegalAccessException e) {
+            return Executors.newCachedThreadPool(r -> newDaemonThread(name, counter, r));
+        } catch (final Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Thread newDaemonThread(final String name, final AtomicInteger counter, final Runnable runnable) {
+        final var thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    @FunctionalInterface
+    interface Task<T> {
+        T run() throws SQLException;
+    }
+
+    private static final class SerialExecutor implements Executor {
+        private final Executor executor;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean running = new AtomicBoolean();
+
+        private SerialExecutor(final Executor executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        public void execute(final Runnable task) {
+            tasks.add(task);
+            try {
+                schedule();
+            } catch (final RejectedExecutionException ree) {
+                tasks.remove(task);
+                throw ree;
+            }
+        }
+
+        private void schedule() {
+            if (!tasks.isEmpty() && running.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this::drain);
+                } catch (final RuntimeException re) {
+                    running.set(false);
+                    throw re;
+                }
+            }
+        }
+
+        private void drain() {
+            do { // a task can be added between the last poll and the flag reset
+                try {
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                } finally {
+                    running.set(false);
+                }
+            } while (!tasks.isEmpty() && running.compareAndSet(false, true));
+        }
+    }
+
+    private static final class DefaultExecutor {
+        private static final Executor INSTANCE = newExecutor("yupiik-jdbc-async", 0);
+    }
+}
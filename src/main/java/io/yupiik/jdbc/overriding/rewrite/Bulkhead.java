@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding.rewrite;
+
+import java.sql.SQLTransientException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+public class Bulkhead {
+    private final String name;
+    private final int maxConcurrency;
+    private final long timeout;
+    private final Semaphore semaphore;
+    private final LongAdder rejected = new LongAdder();
+
+    public Bulkhead(final String name, final int maxConcurrency, final long timeout) {
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException("Invalid max concurrency for '" + name + "': " + maxConcurrency);
+        }
+        this.name = name;
+        this.maxConcurrency = maxConcurrency;
+        this.timeout = Math.max(0, timeout);
+        this.semaphore = new Semaphore(maxConcurrency, true);
+    }
+
+    public void acquire() throws SQLTransientException {
+        try {
+            // note: tryAcquire() would barge and ignore fairness, the timed flavor does not
+            if (semaphore.tryAcquire(timeout, MILLISECONDS)) {
+                return;
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            rejected.increment();
+            throw new SQLTransientException("Interrupted while waiting for a permit on '" + name + "'", e);
+        }
+        rejected.increment();
+        throw new SQLTransientException("Too many concurrent executions of '" + name + "' (max=" + maxConcurrency + ", timeout=" + timeout + "ms)");
+    }
+
+    public void release() {
+        semaphore.release();
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public int maxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public int inFlight() {
+        return maxConcurrency - semaphore.availablePermits();
+    }
+
+    public int queued() {
+        return semaphore.getQueueLength();
+    }
+
+    public long rejected() {
+        return rejected.sum();
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding.rewrite;
+
+import io.yupiik.jdbc.overriding.delegation.DelegatingDatabaseMetaData;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// serves the catalog queries from the shared cache, other methods are cheap and delegated
+public class CachingDatabaseMetaData extends DelegatingDatabaseMetaData {
+    private final Connection connection;
+    private final MetaDataCache cache;
+    private final String user;
+
+    public CachingDatabaseMetaData(final DatabaseMetaData metaData, final Connection connection,
+                                   final MetaDataCache cache, final String user) {
+        super(metaData);
+        this.connection = connection;
+        this.cache = cache;
+        this.user = user;
+    }
+
+    public void invalidate() {
+        cache.invalidate();
+    }
+
+    @Override
+    public Connection getConnection() {
+        return connection;
+    }
+
+    @Override
+    public ResultSet getProcedures(final String catalog, final String schemaPattern, final String procedureNamePattern) throws SQLException {
+        return cache.get(
+                key("getProcedures", catalog, schemaPattern, procedureNamePattern),
+                () -> super.getProcedures(catalog, schemaPattern, procedureNamePattern));
+    }
+
+    @Override
+    public ResultSet getProcedureColumns(final String catalog, final String schemaPattern,
+                                         final String procedureNamePattern, final String columnNamePattern) throws SQLException {
+        return cache.get(
+                key("getProcedureColumns", catalog, schemaPattern, procedureNamePattern, columnNamePattern),
+                () -> super.getProcedureColumns(catalog, schemaPattern, procedureNamePattern, columnNamePattern));
+    }
+
+    @Override
+    public ResultSet getTables(final String catalog, final String schemaPattern, final String tableNamePattern,
+                               final String[] types) throws SQLException {
+        return cache.get(
+                key("getTables", catalog, schemaPattern, tableNamePattern, Arrays.toString(types)),
+                () -> super.getTables(catalog, schemaPattern, tableNamePattern, types));
+    }
+
+    @Override
+    public ResultSet getSchemas() throws SQLException {
+        return cache.get(key("getSchemas"), super::getSchemas);
+    }
+
+    @Override
+    public ResultSet getCatalogs() throws SQLException {
+        return cache.get(key("getCatalogs"), super::getCatalogs);
+    }
+
+    @Override
+    public ResultSet getTableTypes() throws SQLException {
+        return cache.get(key("getTableTypes"), super::getTableTypes);
+    }
+
+    @Override
+    public ResultSet getColumns(final String catalog, final String schemaPattern, final String tableNamePattern,
+                                final String columnNamePattern) throws SQLException {
+        return cache.get(
+                key("getColumns", catalog, schemaPattern, tableNamePattern, columnNamePattern),
+                () -> super.getColumns(catalog, schemaPattern, tableNamePattern, columnNamePattern));
+    }
+
+    @Override
+    public ResultSet getColumnPrivileges(final String catalog, final String schema, final String table,
+                                         final String columnNamePattern) throws SQLException {
+        return cache.get(
+                key("getColumnPrivileges", catalog, schema, table, columnNamePattern),
+                () -> super.getColumnPrivileges(catalog, schema, table, columnNamePattern));
+    }
+
+    @Override
+    public ResultSet getTablePrivileges(final String catalog, final String schemaPattern, final String tableNamePattern) throws SQLException {
+        return cache.get(
+                key("getTablePrivileges", catalog, schemaPattern, tableNamePattern),
+                () -> super.getTablePrivileges(catalog, schemaPattern, tableNamePattern));
+    }
+
+    @Override
+    public ResultSet getBestRowIdentifier(final String catalog, final String schema, final String table,
+                                          final int scope, final boolean nullable) throws SQLException {
+        return cache.get(
+                key("getBestRowIdentifier", catalog, schema, table, scope, nullable),
+                () -> super.getBestRowIdentifier(catalog, schema, table, scope, nullable));
+    }
+
+    @Override
+    public ResultSet getVersionColumns(final String catalog, final String schema, final String table) throws SQLException {
+        return cache.get(key("getVersionColumns", catalog, schema, table), () -> super.getVersionColumns(catalog, schema, table));
+    }
+
+    @Override
+    public ResultSet getPrimaryKeys(final String catalog, final String schema, final String table) throws SQLException {
+        return cache.get(key("getPrimaryKeys", catalog, schema, table), () -> super.getPrimaryKeys(catalog, schema, table));
+    }
+
+    @Override
+    public ResultSet getImportedKeys(final String catalog, final String schema, final String table) throws SQLException {
+        return cache.get(key("getImportedKeys", catalog, schema, table), () -> super.getImportedKeys(catalog, schema, table));
+    }
+
+    @Override
+    public ResultSet getExportedKeys(final String catalog, final String schema, final String table) throws SQLException {
+        return cache.get(key("getExportedKeys", catalog, schema, table), () -> super.getExportedKeys(catalog, schema, table));
+    }
+
+    @Override
+    public ResultSet getCrossReference(final String parentCatalog, final String parentSchema, final String parentTable,
+                                       final String foreignCatalog, final String foreignSchema,
+                                       final String foreignTable) throws SQLException {
+        return cache.get(
+                key("getCrossReference", parentCatalog, parentSchema, parentTable, foreignCatalog, foreignSchema, foreignTable),
+                () -> super.getCrossReference(parentCatalog, parentSchema, parentTable, foreignCatalog, foreignSchema, foreignTable));
+    }
+
+    @Override
+    public ResultSet getTypeInfo() throws SQLException {
+        return cache.get(key("getTypeInfo"), super::getTypeInfo);
+    }
+
+    @Override
+    public ResultSet getIndexInfo(final String catalog, final String schema, final String table, final boolean unique,
+                                  final boolean approximate) throws SQLException {
+        return cache.get(
+                key("getIndexInfo", catalog, schema, table, unique, approximate),
+                () -> super.getIndexInfo(catalog, schema, table, unique, approximate));
+    }
+
+    @Override
+    public ResultSet getUDTs(final String catalog, final String schemaPattern, final String typeNamePattern,
+                             final int[] types) throws SQLException {
+        return cache.get(
+                key("getUDTs", catalog, schemaPattern, typeNamePattern, Arrays.toString(types)),
+                () -> super.getUDTs(catalog, schemaPattern, typeNamePattern, types));
+    }
+
+    @Override
+    public ResultSet getSuperTypes(final String catalog, final String schemaPattern, final String typeNamePattern) throws SQLException {
+        return cache.get(
+                key("getSuperTypes", catalog, schemaPattern, typeNamePattern),
+                () -> super.getSuperTypes(catalog, schemaPattern, typeNamePattern));
+    }
+
+    @Override
+    public ResultSet getSuperTables(final String catalog, final String schemaPattern, final String tableNamePattern) throws SQLException {
+        return cache.get(
+                key("getSuperTables", catalog, schemaPattern, tableNamePattern),
+                () -> super.getSuperTables(catalog, schemaPattern, tableNamePattern));
+    }
+
+    @Override
+    public ResultSet getAttributes(final String catalog, final String schemaPattern, final String typeNamePattern,
+                                   final String attributeNamePattern) throws SQLException {
+        return cache.get(
+                key("getAttributes", catalog, schemaPattern, typeNamePattern, attributeNamePattern),
+                () -> super.getAttributes(catalog, schemaPattern, typeNamePattern, attributeNamePattern));
+    }
+
+    @Override
+    public ResultSet getSchemas(final String catalog, final String schemaPattern) throws SQLException {
+        return cache.get(key("getSchemas", catalog, schemaPattern), () -> super.getSchemas(catalog, schemaPattern));
+    }
+
+    @Override
+    public ResultSet getClientInfoProperties() throws SQLException {
+        return cache.get(key("getClientInfoProperties"), super::getClientInfoProperties);
+    }
+
+    @Override
+    public ResultSet getFunctions(final String catalog, final String schemaPattern, final String functionNamePattern) throws SQLException {
+        return cache.get(
+                key("getFunctions", catalog, schemaPattern, functionNamePattern),
+                () -> super.getFunctions(catalog, schemaPattern, functionNamePattern));
+    }
+
+    @Override
+    public ResultSet getFunctionColumns(final String catalog, final String schemaPattern,
+                                        final String functionNamePattern, final String columnNamePattern) throws SQLException {
+        return cache.get(
+                key("getFunctionColumns", catalog, schemaPattern, functionNamePattern, columnNamePattern),
+                () -> super.getFunctionColumns(catalog, schemaPattern, functionNamePattern, columnNamePattern));
+    }
+
+    @Override
+    public ResultSet getPseudoColumns(final String catalog, final String schemaPattern, final String tableNamePattern,
+                                      final String columnNamePattern) throws SQLException {
+        return cache.get(
+                key("getPseudoColumns", catalog, schemaPattern, tableNamePattern, columnNamePattern),
+                () -> super.getPseudoColumns(catalog, schemaPattern, tableNamePattern, columnNamePattern));
+    }
+
+    @Override
+    public <T> T unwrap(final Class<T> iface) throws SQLException {
+        return iface == CachingDatabaseMetaData.class ? iface.cast(this) : super.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(final Class<?> iface) throws SQLException {
+        return iface == CachingDatabaseMetaData.class || super.isWrapperFor(iface);
+    }
+
+    // visible data can depend on the user
+    private List<Object> key(final Object... parameters) {
+        final var key = new ArrayList<>(parameters.length + 1);
+        key.add(user);
+        key.addAll(Arrays.asList(parameters));
+        return key;
+    }
+}
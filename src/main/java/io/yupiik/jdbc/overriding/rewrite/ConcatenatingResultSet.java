@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding.rewrite;
+
+import io.yupiik.jdbc.overriding.delegation.DelegatingResultSet;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+// iterates sequentially over a set of result sets sharing the same columns (fan-out queries)
+public class ConcatenatingResultSet extends DelegatingResultSet {
+    private final List<ResultSet> resultSets;
+    private int current;
+
+    public ConcatenatingResultSet(final List<ResultSet> resultSets) {
+        super(resultSets.get(0));
+        this.resultSets = resultSets;
+    }
+
+    @Override
+    protected ResultSet delegate() {
+        return resultSets.get(current);
+    }
+
+    @Override
+    public boolean next() throws SQLException {
+        while (true) {
+            if (resultSets.get(current).next()) {
+                return true;
+            }
+            if (current == resultSets.size() - 1) {
+                return false;
+            }
+            current++;
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        SQLException error = null;
+        for (final var resultSet : resultSets) {
+            try {
+                resultSet.close();
+            } catch (final SQLException e) {
+                if (error == null) {
+                    error = e;
+                } else {
+                    error.addSuppressed(e);
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+}
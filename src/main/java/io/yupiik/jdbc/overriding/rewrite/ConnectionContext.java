@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding.rewrite;
+
+import io.yupiik.jdbc.overriding.ExecutionListener;
+import io.yupiik.jdbc.overriding.metrics.MetricsRegistry;
+import io.yupiik.jdbc.overriding.metrics.SlowStatementLog;
+import io.yupiik.jdbc.overriding.metrics.StatementStatistics;
+
+import java.util.concurrent.Executor;
+
+// collaborators shared by all the connections of a driver URL, observers are null when disabled
+// to keep the hot path free of any overhead
+public final class ConnectionContext {
+    private static final ConnectionContext DEFAULTS = builder().build();
+
+    private final Executor asyncExecutor;
+    private final Executor fanOutExecutor;
+    private final boolean stateCaching;
+    private final MetaDataCache metaDataCache;
+    private final MetricsRegistry metrics;
+    private final StatementStatistics statistics;
+    private final SlowStatementLog slowLog;
+    private final ExecutionListener listener;
+
+    private ConnectionContext(final Builder builder) {
+        this.asyncExecutor = builder.asyncExecutor == null ? AsyncExecutors.defaultExecutor() : builder.asyncExecutor;
+        this.fanOutExecutor = asyncExecutor;
+        this.stateCaching = builder.stateCaching;
+        this.metaDataCache = builder.metaDataCache;
+        this.metrics = builder.metrics;
+        this.statistics = builder.statistics;
+        this.slowLog = builder.slowLog;
+        this.listener = builder.listener;
+    }
+
+    private ConnectionContext(final ConnectionContext shared, final Executor asyncExecutor) {
+        this.asyncExecutor = asyncExecutor;
+        this.fanOutExecutor = shared.fanOutExecutor;
+        this.stateCaching = shared.stateCaching;
+        this.metaDataCache = shared.metaDataCache;
+        this.metrics = shared.metrics;
+        this.statistics = shared.statistics;
+        this.slowLog = shared.slowLog;
+        this.listener = shared.listener;
+    }
+
+    public static ConnectionContext defaults() {
+        return DEFAULTS;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    // executor of the async executions, serialized for the statements of a RewritingConnection
+    public Executor asyncExecutor() {
+        return asyncExecutor;
+    }
+
+    // the shared executor, each shard has its own connection so a fan-out can use it concurrently
+    public Executor fanOutExecutor() {
+        return fanOutExecutor;
+    }
+
+    // a connection specific context, its async executions run one after the other
+    ConnectionContext forConnection() {
+        return new ConnectionContext(this, AsyncExecutors.serial(fanOutExecutor));
+    }
+
+    public boolean stateCaching() {
+        return stateCaching;
+    }
+
+    public MetaDataCache metaDataCache() {
+        return metaDataCache;
+    }
+
+    public MetricsRegistry metrics() {
+        return metrics;
+    }
+
+    public StatementStatistics statistics() {
+        return statistics;
+    }
+
+    public SlowStatementLog slowLog() {
+        return slowLog;
+    }
+
+    public ExecutionListener listener() {
+        return listener;
+    }
+
+    public static final class Builder {
+        private Executor asyncExecutor;
+        private boolean stateCaching;
+        private MetaDataCache metaDataCache;
+        private MetricsRegistry metrics;
+        private StatementStatistics statistics;
+        private SlowStatementLog slowLog;
+        private ExecutionListener listener;
+
+        private Builder() {
+            // no-op
+        }
+
+        public Builder asyncExecutor(final Executor asyncExecutor) {
+            this.asyncExecutor = asyncExecutor;
+            return this;
+        }
+
+        public Builder stateCaching(final boolean stateCaching) {
+            this.stateCaching = stateCaching;
+            return this;
+        }
+
+        public Builder metaDataCache(final MetaDataCache metaDataCache) {
+            this.metaDataCache = metaDataCache;
+            return this;
+        }
+
+        public Builder metrics(final MetricsRegistry metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        public Builder statistics(final StatementStatistics statistics) {
+            this.statistics = statistics;
+            return this;
+        }
+
+        public Builder slowLog(final SlowStatementLog slowLog) {
+            this.slowLog = slowLog;
+            return this;
+        }
+
+        public Builder listener(final ExecutionListener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        public ConnectionContext build() {
+            return new ConnectionContext(this);
+        }
+    }
+}
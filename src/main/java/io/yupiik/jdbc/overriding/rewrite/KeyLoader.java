@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding.rewrite;
+
+import javax.sql.rowset.CachedRowSet;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.stream.Collectors.joining;
+
+// groups single key lookups issued concurrently (DataLoader pattern) in a single "in" query
+public class KeyLoader {
+    private static final String KEYS_PLACEHOLDER = "{keys}";
+
+    private final String name;
+    private final String sql;
+    private final String keyColumn;
+    private final String arrayType;
+    private final long window;
+    private final int maxKeys;
+    private final int keyBinding;
+    private final Object lock = new Object();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder lookups = new LongAdder();
+    private Batch pending;
+
+    public KeyLoader(final String name, final String sql, final String keyColumn, final String arrayType,
+                     final long window, final int maxKeys) {
+        this(name, sql, keyColumn, arrayType, window, maxKeys, 1);
+    }
+
+    // keyBinding is the index of the binding of the matched statement holding the key
+    public KeyLoader(final String name, final String sql, final String keyColumn, final String arrayType,
+                     final long window, final int maxKeys, final int keyBinding) {
+        if (keyBinding < 1) {
+            throw new IllegalArgumentException("'" + name + "' loader key binding must be >= 1, got " + keyBinding);
+        }
+        if (!sql.contains(KEYS_PLACEHOLDER) && arrayType == null) {
+            throw new IllegalArgumentException("'" + name + "' loader needs either a " + KEYS_PLACEHOLDER + " placeholder or an array type");
+        }
+        this.name = name;
+        this.sql = sql;
+        this.keyColumn = keyColumn;
+        this.arrayType = arrayType;
+        this.window = window;
+        this.maxKeys = Math.max(1, maxKeys);
+        this.keyBinding = keyBinding;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public int keyBinding() {
+        return keyBinding;
+    }
+
+    public long loads() {
+        return loads.sum();
+    }
+
+    public long lookups() {
+        return lookups.sum();
+    }
+
+    // the connection is the one of the caller opening the batch, the query is executed by its thread
+    public ResultSet load(final Object key, final Connection connection, final Query query) throws SQLException {
+        lookups.increment();
+
+        final var normalizedKey = normalize(key);
+        final Batch batch;
+        final boolean leader;
+        synchronized (lock) {
+            leader = pending == null;
+            if (leader) {
+                pending = new Batch();
+            }
+            batch = pending;
+            batch.keys.putIfAbsent(normalizedKey, key);
+            if (batch.keys.size() >= maxKeys) {
+                pending = null;
+                batch.full.countDown();
+            }
+        }
+
+        if (leader) {
+            try {
+                batch.full.await(window, MILLISECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                synchronized (lock) {
+                    if (pending == batch) {
+                        pending = null;
+                    }
+                }
+            }
+            // from here the batch keys are no more modified
+            loads.increment();
+            try {
+                batch.result.complete(index(query.execute(prepare(connection, new ArrayList<>(batch.keys.values())))));
+            } catch (final SQLException | RuntimeException e) {
+                batch.result.completeExceptionally(e);
+                throw e;
+            }
+        }
+
+        final var loaded = SingleFlight.await(batch.result, name);
+        return RowSets.share(loaded.rows, loaded.index.getOrDefault(normalizedKey, new int[0]));
+    }
+
+    private PreparedStatement prepare(final Connection connection, final List<Object> keys) throws SQLException {
+        if (arrayType != null) {
+            final var statement = connection.prepareStatement(sql);
+            try {
+                statement.setArray(1, connection.createArrayOf(arrayType, keys.toArray()));
+            } catch (final SQLException e) {
+                statement.close();
+                throw e;
+            }
+            return statement;
+        }
+
+        final var statement = connection.prepareStatement(sql.replace(KEYS_PLACEHOLDER, keys.stream().map(it -> "?").collect(joining(", "))));
+        try {
+            for (int i = 0; i < keys.size(); i++) {
+                statement.setObject(i + 1, keys.get(i));
+            }
+        } catch (final SQLException e) {
+            statement.close();
+            throw e;
+        }
+        return statement;
+    }
+
+    private Loaded index(final CachedRowSet rows) throws SQLException {
+        final var index = new HashMap<String, List<Integer>>();
+        final var column = rows.findColumn(keyColumn);
+        rows.beforeFirst();
+        while (rows.next()) {
+            index.computeIfAbsent(normalize(rows.getObject(column)), k -> new ArrayList<>()).add(rows.getRow());
+        }
+        rows.beforeFirst();
+
+        final var rowsByKey = new HashMap<String, int[]>(index.size());
+        for (final var entry : index.entrySet()) {
+            rowsByKey.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+        }
+        return new Loaded(rows, rowsByKey);
+    }
+
+    // a key bound as a string can match a numeric column and conversely
+    private static String normalize(final Object key) {
+        return String.valueOf(key);
+    }
+
+    @FunctionalInterface
+    public interface Query {
+        // executes and materializes the statement, then closes it
+        CachedRowSet execute(PreparedStatement statement) throws SQLException;
+    }
+
+    private static class Batch {
+        private final Map<String, Object> keys = new LinkedHashMap<>();
+        private final CountDownLatch full = new CountDownLatch(1);
+        private final CompletableFuture<Loaded> result = new CompletableFuture<>();
+    }
+
+    private static class Loaded {
+        private final CachedRowSet rows;
+        private final Map<String, int[]> index;
+
+        private Loaded(final CachedRowSet rows, final Map<String, int[]> index) {
+            this.rows = rows;
+            this.index = index;
+        }
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding.rewrite;
+
+import io.yupiik.jdbc.overriding.delegation.DelegatingConnection;
+
+import java.sql.Connection;
+import java.sql.SQLClientInfoException;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+
+// opens the physical connection on the first call needing it, state changes before are recorded and replayed
+public class LazyConnection extends DelegatingConnection {
+    private final Opener opener;
+    private volatile Connection connection;
+    private volatile boolean closed;
+
+    // recorded state, only used until the connection is opened
+    private Boolean autoCommit;
+    private Boolean readOnly;
+    private Integer transactionIsolation;
+    private String catalog;
+    private String schema;
+    private Integer holdability;
+    private Map<String, Class<?>> typeMap;
+    private Properties clientInfo;
+    private Executor networkTimeoutExecutor;
+    private Integer networkTimeout;
+
+    public LazyConnection(final Opener opener) {
+        super(null);
+        this.opener = opener;
+    }
+
+    public boolean isOpened() {
+        return connection != null;
+    }
+
+    @Override
+    protected Connection delegate() throws SQLException {
+        var current = connection;
+        if (current == null) {
+            synchronized (this) {
+                current = connection;
+                if (current == null) {
+                    if (closed) {
+                        throw new SQLException("Connection closed");
+                    }
+                    current = open();
+                    connection = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    @Override
+    public synchronized void setAutoCommit(final boolean autoCommit) throws SQLException {
+        if (connection == null) {
+            this.autoCommit = autoCommit;
+        } else {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    @Override // the driver (or its URL) can change the default so only a recorded value avoids to open the connection
+    public synchronized boolean getAutoCommit() throws SQLException {
+        return connection == null && autoCommit != null ? autoCommit : delegate().getAutoCommit();
+    }
+
+    // the auto-commit mode set before the connection is opened, null if not set (or already opened)
+    public synchronized Boolean recordedAutoCommit() {
+        return connection == null ? autoCommit : null;
+    }
+
+    @Override
+    public synchronized void setReadOnly(final boolean readOnly) throws SQLException {
+        if (connection == null) {
+            this.readOnly = readOnly;
+        } else {
+            connection.setReadOnly(readOnly);
+        }
+    }
+
+    @Override
+    public synchronized boolean isReadOnly() throws SQLException {
+        return connection == null && readOnly != null ? readOnly : delegate().isReadOnly();
+    }
+
+    @Override
+    public synchronized void setTransactionIsolation(final int level) throws SQLException {
+        if (connection == null) {
+            this.transactionIsolation = level;
+        } else {
+            connection.setTransactionIsolation(level);
+        }
+    }
+
+    @Override
+    public synchronized int getTransactionIsolation() throws SQLException {
+        return connection == null && transactionIsolation != null ? transactionIsolation : delegate().getTransactionIsolation();
+    }
+
+    @Override
+    public synchronized void setCatalog(final String catalog) throws SQLException {
+        if (connection == null) {
+            this.catalog = catalog;
+        } else {
+            connection.setCatalog(catalog);
+        }
+    }
+
+    @Override
+    public synchronized String getCatalog() throws SQLException {
+        return connection == null && catalog != null ? catalog : delegate().getCatalog();
+    }
+
+    @Override
+    public synchronized void setSchema(final String schema) throws SQLException {
+        if (connection == null) {
+            this.schema = schema;
+        } else {
+            connection.setSchema(schema);
+        }
+    }
+
+    @Override
+    public synchronized String getSchema() throws SQLException {
+        return connection == null && schema != null ? schema : delegate().getSchema();
+    }
+
+    @Override
+    public synchronized void setHoldability(final int holdability) throws SQLException {
+        if (connection == null) {
+            this.holdability = holdability;
+        } else {
+            connection.setHoldability(holdability);
+        }
+    }
+
+    @Override
+    public synchronized int getHoldability() throws SQLException {
+        return connection == null && holdability != null ? holdability : delegate().getHoldability();
+    }
+
+    @Override
+    public synchronized void setTypeMap(final Map<String, Class<?>> map) throws SQLException {
+        if (connection == null) {
+            this.typeMap = map;
+        } else {
+            connection.setTypeMap(map);
+        }
+    }
+
+    @Override
+    public synchronized void setClientInfo(final String name, final String value) throws SQLClientInfoException {
+        if (connection == null) {
+            if (clientInfo == null) {
+                clientInfo = new Properties();
+            }
+            if (value == null) {
+                clientInfo.remove(name);
+            } else {
+                clientInfo.setProperty(name, value);
+            }
+        } else {
+            connection.setClientInfo(name, value);
+        }
+    }
+
+    @Override
+    public synchronized void setClientInfo(final Properties properties) throws SQLClientInfoException {
+        if (connection == null) {
+            clientInfo = new Properties();
+            clientInfo.putAll(properties);
+        } else {
+            connection.setClientInfo(properties);
+        }
+    }
+
+    @Override
+    public synchronized void setNetworkTimeout(final Executor executor, final int milliseconds) throws SQLException {
+        if (connection == null) {
+            this.networkTimeoutExecutor = executor;
+            this.networkTimeout = milliseconds;
+        } else {
+            connection.setNetworkTimeout(executor, milliseconds);
+        }
+    }
+
+    @Override // nothing was executed
+    public void commit() throws SQLException {
+        if (connection != null) {
+            connection.commit();
+        }
+    }
+
+    @Override
+    public void rollback() throws SQLException {
+        if (connection != null) {
+            connection.rollback();
+        }
+    }
+
+    @Override
+    public SQLWarning getWarnings() throws SQLException {
+        return connection == null ? null : connection.getWarnings();
+    }
+
+    @Override
+    public void clearWarnings() throws SQLException {
+        if (connection != null) {
+            connection.clearWarnings();
+        }
+    }
+
+    @Override // nothing to validate until opened
+    public boolean isValid(final int timeout) throws SQLException {
+        final var current = connection;
+        return current == null ? !closed : current.isValid(timeout);
+    }
+
+    @Override
+    public synchronized boolean isClosed() throws SQLException {
+        return connection == null ? closed : connection.isClosed();
+    }
+
+    @Override
+    public synchronized void close() throws SQLException {
+        closed = true;
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
+    @Override
+    public synchronized void abort(final Executor executor) throws SQLException {
+        closed = true;
+        if (connection != null) {
+            connection.abort(executor);
+        }
+    }
+
+    @Override
+    public <T> T unwrap(final Class<T> iface) throws SQLException {
+        return iface == LazyConnection.class ? iface.cast(this) : super.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(final Class<?> iface) throws SQLException {
+        return iface == LazyConnection.class || super.isWrapperFor(iface);
+    }
+
+    private Connection open() throws SQLException {
+        final var opened = opener.open();
+        try {
+            if (autoCommit != null) {
+                opened.setAutoCommit(autoCommit);
+            }
+            if (readOnly != null) {
+                opened.setReadOnly(readOnly);
+            }
+            if (transactionIsolation != null) {
+                opened.setTransactionIsolation(transactionIsolation);
+            }
+            if (catalog != null) {
+                opened.setCatalog(catalog);
+            }
+            if (schema != null) {
+                opened.setSchema(schema);
+            }
+            if (holdability != null) {
+                opened.setHoldability(holdability);
+            }
+            if (typeMap != null) {
+                opened.setTypeMap(typeMap);
+            }
+            if (clientInfo != null) {
+                opened.setClientInfo(clientInfo);
+            }
+            if (networkTimeout != null) {
+                opened.setNetworkTimeout(networkTimeoutExecutor, networkTimeout);
+            }
+        } catch (final SQLException e) {
+            try {
+                opened.close();
+            } catch (final SQLException ce) {
+                e.addSuppressed(ce);
+            }
+            throw e;
+        }
+        return opened;
+    }
+
+    @FunctionalInterface
+    public interface Opener {
+        Connection open() throws SQLException;
+    }
+}
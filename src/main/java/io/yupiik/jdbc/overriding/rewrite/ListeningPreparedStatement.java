@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding.rewrite;
+
+import io.yupiik.jdbc.overriding.ExecutionListener;
+import io.yupiik.jdbc.overriding.delegation.DelegatingPreparedStatement;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+// notifies the listener of the executions of prepared statements not matching any rule (rule is null)
+class ListeningPreparedStatement extends DelegatingPreparedStatement {
+    private final ExecutionListener listener;
+    private final String sql;
+
+    ListeningPreparedStatement(final PreparedStatement preparedStatement, final ExecutionListener listener, final String sql) {
+        super(preparedStatement);
+        this.listener = listener;
+        this.sql = sql;
+    }
+
+    @Override
+    public ResultSet executeQuery() throws SQLException {
+        return listen(listener, sql, super::executeQuery);
+    }
+
+    @Override
+    public int executeUpdate() throws SQLException {
+        return listen(listener, sql, super::executeUpdate);
+    }
+
+    @Override
+    public long executeLargeUpdate() throws SQLException {
+        return listen(listener, sql, super::executeLargeUpdate);
+    }
+
+    @Override
+    public boolean execute() throws SQLException {
+        return listen(listener, sql, super::execute);
+    }
+
+    @Override
+    public int[] executeBatch() throws SQLException {
+        return listen(listener, sql, super::executeBatch);
+    }
+
+    @Override
+    public long[] executeLargeBatch() throws SQLException {
+        return listen(listener, sql, super::executeLargeBatch);
+    }
+
+    // not rewritten so the executed SQL is the original one
+    static <T> T listen(final ExecutionListener listener, final String sql,
+                        final RewritingPrepareStatement.SQLSupplier<T> execution) throws SQLException {
+        final var context = listener.beforeExecute(sql, sql, null);
+        Throwable error = null;
+        try {
+            return execution.get();
+        } catch (final Throwable t) {
+            error = t;
+            throw t;
+        } finally {
+            listener.afterExecute(context, error);
+        }
+    }
+}
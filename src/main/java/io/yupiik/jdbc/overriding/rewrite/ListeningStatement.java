@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding.rewrite;
+
+import io.yupiik.jdbc.overriding.ExecutionListener;
+import io.yupiik.jdbc.overriding.delegation.DelegatingStatement;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static io.yupiik.jdbc.overriding.rewrite.ListeningPreparedStatement.listen;
+
+// plain statements are never rewritten, batches don't have a single SQL so it is null for them
+class ListeningStatement extends DelegatingStatement {
+    private final ExecutionListener listener;
+
+    ListeningStatement(final Statement statement, final ExecutionListener listener) {
+        super(statement);
+        this.listener = listener;
+    }
+
+    @Override
+    public ResultSet executeQuery(final String sql) throws SQLException {
+        return listen(listener, sql, () -> super.executeQuery(sql));
+    }
+
+    @Override
+    public int executeUpdate(final String sql) throws SQLException {
+        return listen(listener, sql, () -> super.executeUpdate(sql));
+    }
+
+    @Override
+    public int executeUpdate(final String sql, final int autoGeneratedKeys) throws SQLException {
+        return listen(listener, sql, () -> super.executeUpdate(sql, autoGeneratedKeys));
+    }
+
+    @Override
+    public int executeUpdate(final String sql, final int[] columnIndexes) throws SQLException {
+        return listen(listener, sql, () -> super.executeUpdate(sql, columnIndexes));
+    }
+
+    @Override
+    public int executeUpdate(final String sql, final String[] columnNames) throws SQLException {
+        return listen(listener, sql, () -> super.executeUpdate(sql, columnNames));
+    }
+
+    @Override
+    public long executeLargeUpdate(final String sql) throws SQLException {
+        return listen(listener, sql, () -> super.executeLargeUpdate(sql));
+    }
+
+    @Override
+    public long executeLargeUpdate(final String sql, final int autoGeneratedKeys) throws SQLException {
+        return listen(listener, sql, () -> super.executeLargeUpdate(sql, autoGeneratedKeys));
+    }
+
+    @Override
+    public long executeLargeUpdate(final String sql, final int[] columnIndexes) throws SQLException {
+        return listen(listener, sql, () -> super.executeLargeUpdate(sql, columnIndexes));
+    }
+
+    @Override
+    public long executeLargeUpdate(final String sql, final String[] columnNames) throws SQLException {
+        return listen(listener, sql, () -> super.executeLargeUpdate(sql, columnNames));
+    }
+
+    @Override
+    public boolean execute(final String sql) throws SQLException {
+        return listen(listener, sql, () -> super.execute(sql));
+    }
+
+    @Override
+    public boolean execute(final String sql, final int autoGeneratedKeys) throws SQLException {
+        return listen(listener, sql, () -> super.execute(sql, autoGeneratedKeys));
+    }
+
+    @Override
+    public boolean execute(final String sql, final int[] columnIndexes) throws SQLException {
+        return listen(listener, sql, () -> super.execute(sql, columnIndexes));
+    }
+
+    @Override
+    public boolean execute(final String sql, final String[] columnNames) throws SQLException {
+        return listen(listener, sql, () -> super.execute(sql, columnNames));
+    }
+
+    @Override
+    public int[] executeBatch() throws SQLException {
+        return listen(listener, null, super::executeBatch);
+    }
+
+    @Override
+    public long[] executeLargeBatch() throws SQLException {
+        return listen(listener, null, super::executeLargeBatch);
+    }
+}
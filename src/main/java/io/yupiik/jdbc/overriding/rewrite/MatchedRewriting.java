@@ -16,14 +16,44 @@
 package io.yupiik.jdbc.overriding.rewrite;
 
 import io.yupiik.jdbc.overriding.RewriteConfiguration;
+import io.yupiik.jdbc.overriding.metrics.RuleMetrics;
+import io.yupiik.jdbc.overriding.metrics.StatementStatistics;
 
 public class MatchedRewriting {
+    private final String originalSql;
     private final String sql;
     private final RewriteConfiguration.RewriteStatement conf;
+    private final RuleMetrics metrics;
+    private final StatementStatistics.Tracker statistics;
 
     public MatchedRewriting(final String sql, final RewriteConfiguration.RewriteStatement conf) {
+        this(null, sql, conf);
+    }
+
+    public MatchedRewriting(final String originalSql, final String sql, final RewriteConfiguration.RewriteStatement conf) {
+        this(originalSql, sql, conf, null, null);
+    }
+
+    public MatchedRewriting(final String originalSql, final String sql, final RewriteConfiguration.RewriteStatement conf,
+                            final RuleMetrics metrics, final StatementStatistics.Tracker statistics) {
+        this.originalSql = originalSql;
         this.sql = sql;
         this.conf = conf;
+        this.metrics = metrics;
+        this.statistics = statistics;
+    }
+
+    public MatchedRewriting withMetrics(final RuleMetrics metrics) {
+        return new MatchedRewriting(originalSql, sql, conf, metrics, statistics);
+    }
+
+    public MatchedRewriting withStatistics(final StatementStatistics.Tracker statistics) {
+        return new MatchedRewriting(originalSql, sql, conf, metrics, statistics);
+    }
+
+    // the SQL as prepared by the application, null if unknown
+    public String originalSql() {
+        return originalSql;
     }
 
     public String sql() {
@@ -33,4 +63,19 @@ public class MatchedRewriting {
     public RewriteConfiguration.RewriteStatement configuration() {
         return conf;
     }
+
+    // rules created programmatically can be unnamed
+    public String ruleName() {
+        return conf.name() == null ? conf.replacement() : conf.name();
+    }
+
+    // null when metrics are disabled
+    public RuleMetrics metrics() {
+        return metrics;
+    }
+
+    // null when statistics are disabled
+    public StatementStatistics.Tracker statistics() {
+        return statistics;
+    }
 }
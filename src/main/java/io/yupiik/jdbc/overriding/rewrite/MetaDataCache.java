@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding.rewrite;
+
+import javax.sql.rowset.CachedRowSet;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+// materialized catalog results shared by the connections of a driver URL
+public class MetaDataCache {
+    private final long ttl;
+    private final int maxEntries;
+    private final Map<List<Object>, Entry> entries = new ConcurrentHashMap<>();
+
+    public MetaDataCache(final long ttl, final int maxEntries) {
+        this.ttl = MILLISECONDS.toNanos(ttl);
+        this.maxEntries = maxEntries;
+    }
+
+    public void invalidate() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    // concurrent misses can load the same entry twice, acceptable for metadata and avoids to lock on a slow query
+    ResultSet get(final List<Object> key, final Loader loader) throws SQLException {
+        final long now = System.nanoTime();
+        final var existing = entries.get(key);
+        if (existing != null && now - existing.expiresAt < 0) {
+            return RowSets.share(existing.rows);
+        }
+
+        final var rows = RowSets.materialize(loader.load());
+        if (entries.size() >= maxEntries) {
+            entries.values().removeIf(it -> now - it.expiresAt >= 0);
+        }
+        if (entries.size() < maxEntries) {
+            entries.put(key, new Entry(rows, now + ttl));
+        }
+        return RowSets.share(rows);
+    }
+
+    @FunctionalInterface
+    interface Loader {
+        ResultSet load() throws SQLException;
+    }
+
+    private static class Entry {
+        private final CachedRowSet rows;
+        private final long expiresAt;
+
+        private Entry(final CachedRowSet rows, final long expiresAt) {
+            this.rows = rows;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
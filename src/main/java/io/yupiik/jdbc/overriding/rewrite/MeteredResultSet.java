@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding.rewrite;
+
+import io.yupiik.jdbc.overriding.delegation.DelegatingResultSet;
+import io.yupiik.jdbc.overriding.jfr.ResultSetIterationEvent;
+import io.yupiik.jdbc.overriding.metrics.RuleMetrics;
+import io.yupiik.jdbc.overriding.metrics.StatementStatistics;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.function.LongConsumer;
+
+// only created when metrics, statistics, the slow statement log or the iteration event are enabled, counts the rows the application actually reads
+class MeteredResultSet extends DelegatingResultSet {
+    private final RuleMetrics metrics;
+    private final ResultSetIterationEvent event;
+    private final String rule;
+    private final StatementStatistics.Tracker statistics;
+    private final LongConsumer onClose;
+    private long rows;
+    private boolean closed;
+
+    MeteredResultSet(final ResultSet delegate, final RuleMetrics metrics,
+                     final ResultSetIterationEvent event, final String rule,
+                     final StatementStatistics.Tracker statistics, final LongConsumer onClose) {
+        super(delegate);
+        this.metrics = metrics;
+        this.event = event;
+        this.rule = rule;
+        this.statistics = statistics;
+        this.onClose = onClose;
+        if (event != null) {
+            event.begin();
+        }
+    }
+
+    @Override
+    public boolean next() throws SQLException {
+        if (metrics == null) {
+            final boolean next = super.next();
+            if (next) {
+                rows++;
+            }
+            return next;
+        }
+
+        final long start = System.nanoTime();
+        final boolean next = super.next();
+        metrics.onFetch(System.nanoTime() - start, next);
+        if (next) {
+            rows++;
+        }
+        return next;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        try {
+            super.close();
+        } finally {
+            if (!closed) {
+                closed = true;
+                if (statistics != null) {
+                    statistics.onRows(rows);
+                }
+                if (onClose != null) {
+                    onClose.accept(rows);
+                }
+                if (event != null) {
+                    event.end();
+                    if (event.shouldCommit()) {
+                        event.rule = rule;
+                        event.rows = rows;
+                        event.commit();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -76,7 +76,7 @@ public class RemappingResultSet implements ResultSet {
 
     @Override
     public String getString(final int columnIndex) throws SQLException {
-        return delegate.getString(index(index(columnIndex)));
+        return delegate.getString(index(columnIndex));
     }
 
     @Override
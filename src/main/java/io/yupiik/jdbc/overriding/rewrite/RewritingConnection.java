@@ -15,20 +15,129 @@
  */
 package io.yupiik.jdbc.overriding.rewrite;
 
+import io.yupiik.jdbc.overriding.AsyncConnection;
+import io.yupiik.jdbc.overriding.ExecutionListener;
 import io.yupiik.jdbc.overriding.RewriteConfiguration;
+import io.yupiik.jdbc.overriding.RewriteExplainer;
+import io.yupiik.jdbc.overriding.RewriteExplanation;
 import io.yupiik.jdbc.overriding.delegation.DelegatingConnection;
+import io.yupiik.jdbc.overriding.jfr.RuleMatchEvent;
+import io.yupiik.jdbc.overriding.metrics.MetricsRegistry;
+import io.yupiik.jdbc.overriding.metrics.SqlFingerprint;
+import io.yupiik.jdbc.overriding.metrics.StatementStatistics;
 
+import java.sql.CallableStatement;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.Locale;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 
-public class RewritingConnection extends DelegatingConnection {
-    private final RewriteConfiguration configuration;
+public class RewritingConnection extends DelegatingConnection implements AsyncConnection, RewriteExplainer {
+    private final Supplier<RewriteConfiguration> configuration;
+    private final DelegateConnectionFactory delegateConnectionFactory;
+    private final Executor asyncExecutor;
+    private final Map<String, Connection> delegateConnections = new HashMap<>();
+    private final MetaDataCache metaDataCache;
+    private final MetricsRegistry metrics; // null when disabled to keep the hot path free of any overhead
+    private final StatementStatistics statistics; // null when disabled
+    private final ExecutionListener listener; // null when no listener is registered
+    private final String user;
+    private final ConnectionContext context;
+    private final LazyConnection lazyConnection; // null when the physical connection is not lazy
+
+    // local copy of the connection state to avoid round trips, null when unknown
+    private volatile boolean stateCaching;
+    private volatile Boolean autoCommit;
+    private volatile Boolean readOnly;
+    private volatile Integer transactionIsolation;
+    private volatile String catalog;
+    private volatile String schema;
 
     public RewritingConnection(final Connection delegate, final RewriteConfiguration configuration) {
+        this(delegate, () -> configuration, name -> {
+            throw new SQLException("No delegate '" + name + "' available");
+        }, null, ConnectionContext.defaults());
+    }
+
+    // the supplier enables to swap the configuration (hot reload), it is read once per prepared statement,
+    // the delegate factory and the user are specific to this connection (credentials) while the context is shared
+    public RewritingConnection(final Connection delegate, final Supplier<RewriteConfiguration> configuration,
+                               final DelegateConnectionFactory delegateConnectionFactory, final String user,
+                               final ConnectionContext context) {
         super(delegate);
         this.configuration = configuration;
+        this.delegateConnectionFactory = delegateConnectionFactory;
+        this.user = user;
+        this.context = context.forConnection();
+        this.lazyConnection = delegate instanceof LazyConnection ? (LazyConnection) delegate : null;
+        this.asyncExecutor = this.context.asyncExecutor();
+        this.stateCaching = context.stateCaching();
+        this.metaDataCache = context.metaDataCache();
+        this.metrics = context.metrics();
+        this.statistics = context.statistics();
+        this.listener = context.listener();
+    }
+
+    @Override
+    public CompletableFuture<ResultSet> executeQueryAsync(final String sql, final Object... parameters) {
+        return AsyncExecutors.supplyAsync(asyncExecutor, () -> {
+            try (final var statement = prepareStatement(sql)) {
+                bind(statement, parameters);
+                if (statement instanceof RewritingPrepareStatement) { // ensure names remapping is kept
+                    return ((RewritingPrepareStatement) statement).executeMaterializedQuery();
+                }
+                return RowSets.materialize(statement.executeQuery());
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Integer> executeUpdateAsync(final String sql, final Object... parameters) {
+        return AsyncExecutors.supplyAsync(asyncExecutor, () -> {
+            try (final var statement = prepareStatement(sql)) {
+                bind(statement, parameters);
+                return statement.executeUpdate();
+            }
+        });
+    }
+
+    public RewriteConfiguration configuration() {
+        return configuration.get();
+    }
+
+    @Override // same trimming than prepareStatement
+    public RewriteExplanation explain(final String sql) {
+        return configuration.get().explain(sql == null ? "" : sql.strip());
+    }
+
+    // null when metrics are disabled
+    public MetricsRegistry metrics() {
+        return metrics;
+    }
+
+    // null when statistics are disabled
+    public StatementStatistics statistics() {
+        return statistics;
+    }
+
+    @Override
+    public <T> T unwrap(final Class<T> iface) throws SQLException {
+        return iface == RewritingConnection.class || iface == AsyncConnection.class || iface == RewriteExplainer.class ?
+                iface.cast(this) : super.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(final Class<?> iface) throws SQLException {
+        return iface == RewritingConnection.class || iface == AsyncConnection.class || iface == RewriteExplainer.class ||
+                super.isWrapperFor(iface);
     }
 
     @Override
@@ -37,33 +146,400 @@ public class RewritingConnection extends DelegatingConnection {
             return super.prepareStatement(null);
         }
 
+        if (listener != null) {
+            listener.onPrepare(sql);
+        }
+
         final var trimmedSql = sql.strip();
-        final var matched = findMatchingRewrite(trimmedSql);
-        if (matched == null) {
-            return super.prepareStatement(sql);
+        final var event = new RuleMatchEvent();
+        final var found = metrics == null && !event.isEnabled() ?
+                findMatchingRewrite(trimmedSql) :
+                findMatchingRewriteInstrumented(trimmedSql, event);
+        if (listener != null) {
+            listener.onMatch(trimmedSql, found == null ? null : found.sql(), found == null ? null : found.ruleName());
+        }
+        if (found == null) {
+            return instrument(super.prepareStatement(sql), sql);
+        }
+
+        // fingerprint of the application SQL to see what the rules cover
+        final var matched = statistics == null ? found : found.withStatistics(statistics.tracker(SqlFingerprint.of(trimmedSql)));
+
+        if (matched.configuration().sharding() != null) {
+            return new ShardingPrepareStatement(
+                    matched,
+                    shard -> delegateConnection(shard).prepareStatement(matched.sql()),
+                    context);
         }
 
-        return new RewritingPrepareStatement(super.prepareStatement(matched.sql()), matched.configuration());
+        final var delegate = matched.configuration().delegate();
+        if (delegate != null && !isInWriteTransaction()) {
+            return new RewritingPrepareStatement(delegateConnection(delegate).prepareStatement(matched.sql()), matched, context);
+        }
+        // the rewritten SQL is the executed one so it is the one which can change the session state
+        return new RewritingPrepareStatement(trackState(super.prepareStatement(matched.sql()), matched.sql()), matched, context);
     }
 
-    private MatchedRewriting findMatchingRewrite(final String sql) {
-        { // exact case
-            final var rewriteStatement = configuration.configurations()
-                    .get(new RewriteConfiguration.Sql(sql, false, sql.hashCode()));
-            if (rewriteStatement != null) {
-                return new MatchedRewriting(rewriteStatement.replacement(), rewriteStatement);
+    @Override
+    public PreparedStatement prepareStatement(final String sql, final int autoGeneratedKeys) throws SQLException {
+        return instrument(super.prepareStatement(sql, autoGeneratedKeys), sql);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(final String sql, final int resultSetType, final int resultSetConcurrency) throws SQLException {
+        return instrument(super.prepareStatement(sql, resultSetType, resultSetConcurrency), sql);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(final String sql, final int resultSetType, final int resultSetConcurrency,
+                                              final int resultSetHoldability) throws SQLException {
+        return instrument(super.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability), sql);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(final String sql, final int[] columnIndexes) throws SQLException {
+        return instrument(super.prepareStatement(sql, columnIndexes), sql);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(final String sql, final String[] columnNames) throws SQLException {
+        return instrument(super.prepareStatement(sql, columnNames), sql);
+    }
+
+    @Override
+    public Statement createStatement() throws SQLException {
+        return instrument(super.createStatement());
+    }
+
+    @Override
+    public Statement createStatement(final int resultSetType, final int resultSetConcurrency) throws SQLException {
+        return instrument(super.createStatement(resultSetType, resultSetConcurrency));
+    }
+
+    @Override
+    public Statement createStatement(final int resultSetType, final int resultSetConcurrency,
+                                     final int resultSetHoldability) throws SQLException {
+        return instrument(super.createStatement(resultSetType, resultSetConcurrency, resultSetHoldability));
+    }
+
+    @Override // procedures can change anything so stop caching
+    public CallableStatement prepareCall(final String sql) throws SQLException {
+        disableStateCaching();
+        return super.prepareCall(sql);
+    }
+
+    @Override
+    public CallableStatement prepareCall(final String sql, final int resultSetType, final int resultSetConcurrency) throws SQLException {
+        disableStateCaching();
+        return super.prepareCall(sql, resultSetType, resultSetConcurrency);
+    }
+
+    @Override
+    public CallableStatement prepareCall(final String sql, final int resultSetType, final int resultSetConcurrency,
+                                         final int resultSetHoldability) throws SQLException {
+        disableStateCaching();
+        return super.prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+    }
+
+    @Override
+    public DatabaseMetaData getMetaData() throws SQLException {
+        final var metaData = super.getMetaData();
+        return metaDataCache == null ? metaData : new CachingDatabaseMetaData(metaData, this, metaDataCache, user);
+    }
+
+    @Override // delegates (shards, replicas) follow the transaction of the application
+    public void setAutoCommit(final boolean autoCommit) throws SQLException {
+        if (!stateCaching || !Boolean.valueOf(autoCommit).equals(this.autoCommit)) {
+            super.setAutoCommit(autoCommit);
+            this.autoCommit = stateCaching ? autoCommit : null;
+        }
+        forEachDelegate(connection -> connection.setAutoCommit(autoCommit));
+    }
+
+    @Override // no two phase commit: delegates are committed after the main connection
+    public void commit() throws SQLException {
+        super.commit();
+        forEachDelegate(Connection::commit);
+    }
+
+    @Override
+    public void rollback() throws SQLException {
+        try {
+            super.rollback();
+        } finally {
+            forEachDelegate(Connection::rollback);
+        }
+    }
+
+    @Override
+    public boolean getAutoCommit() throws SQLException {
+        if (!stateCaching) {
+            return super.getAutoCommit();
+        }
+        var current = autoCommit;
+        if (current == null) {
+            current = super.getAutoCommit();
+            autoCommit = current;
+        }
+        return current;
+    }
+
+    @Override
+    public void setReadOnly(final boolean readOnly) throws SQLException {
+        if (!stateCaching || !Boolean.valueOf(readOnly).equals(this.readOnly)) {
+            super.setReadOnly(readOnly);
+            this.readOnly = stateCaching ? readOnly : null;
+        }
+    }
+
+    @Override
+    public boolean isReadOnly() throws SQLException {
+        if (!stateCaching) {
+            return super.isReadOnly();
+        }
+        var current = readOnly;
+        if (current == null) {
+            current = super.isReadOnly();
+            readOnly = current;
+        }
+        return current;
+    }
+
+    @Override
+    public void setTransactionIsolation(final int level) throws SQLException {
+        if (!stateCaching || !Integer.valueOf(level).equals(transactionIsolation)) {
+            super.setTransactionIsolation(level);
+            this.transactionIsolation = stateCaching ? level : null;
+        }
+    }
+
+    @Override
+    public int getTransactionIsolation() throws SQLException {
+        if (!stateCaching) {
+            return super.getTransactionIsolation();
+        }
+        var current = transactionIsolation;
+        if (current == null) {
+            current = super.getTransactionIsolation();
+            transactionIsolation = current;
+        }
+        return current;
+    }
+
+    @Override
+    public void setCatalog(final String catalog) throws SQLException {
+        if (!stateCaching || catalog == null || !catalog.equals(this.catalog)) {
+            super.setCatalog(catalog);
+            this.catalog = stateCaching ? catalog : null;
+        }
+    }
+
+    @Override
+    public String getCatalog() throws SQLException {
+        if (!stateCaching) {
+            return super.getCatalog();
+        }
+        var current = catalog;
+        if (current == null) {
+            current = super.getCatalog();
+            catalog = current;
+        }
+        return current;
+    }
+
+    @Override
+    public void setSchema(final String schema) throws SQLException {
+        if (!stateCaching || schema == null || !schema.equals(this.schema)) {
+            super.setSchema(schema);
+            this.schema = stateCaching ? schema : null;
+        }
+    }
+
+    @Override
+    public String getSchema() throws SQLException {
+        if (!stateCaching) {
+            return super.getSchema();
+        }
+        var current = schema;
+        if (current == null) {
+            current = super.getSchema();
+            schema = current;
+        }
+        return current;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        final var errors = new ArrayList<SQLException>();
+        synchronized (delegateConnections) {
+            for (final var connection : delegateConnections.values()) {
+                try {
+                    connection.close();
+                } catch (final SQLException e) {
+                    errors.add(e);
+                }
+            }
+            delegateConnections.clear();
+        }
+        try {
+            super.close();
+        } catch (final SQLException e) {
+            errors.forEach(e::addSuppressed);
+            throw e;
+        } finally {
+            if (listener != null) {
+                listener.onClose(this);
+            }
+        }
+        if (!errors.isEmpty()) {
+            final var error = errors.get(0);
+            errors.stream().skip(1).forEach(error::addSuppressed);
+            throw error;
+        }
+    }
+
+    private void bind(final PreparedStatement statement, final Object[] parameters) throws SQLException {
+        if (parameters == null) {
+            return;
+        }
+        for (int i = 0; i < parameters.length; i++) {
+            statement.setObject(i + 1, parameters[i]);
+        }
+    }
+
+    private PreparedStatement instrument(final PreparedStatement statement, final String sql) {
+        final var tracked = trackState(statement, sql);
+        if (sql == null) {
+            return tracked;
+        }
+        final var trimmedSql = sql.strip();
+        final var measured = statistics == null ? tracked : new StatisticsPreparedStatement(tracked, statistics.tracker(SqlFingerprint.of(trimmedSql)));
+        return listener == null ? measured : new ListeningPreparedStatement(measured, listener, trimmedSql);
+    }
+
+    private Statement instrument(final Statement statement) {
+        final var tracked = trackState(statement);
+        final var measured = statistics == null ? tracked : new StatisticsStatement(tracked, statistics);
+        return listener == null ? measured : new ListeningStatement(measured, listener);
+    }
+
+    private PreparedStatement trackState(final PreparedStatement statement, final String sql) {
+        return stateCaching && StateTrackingStatement.isStateChange(sql) ?
+                new StateChangingPreparedStatement(statement, this::invalidateState) :
+                statement;
+    }
+
+    private Statement trackState(final Statement statement) {
+        return stateCaching ? new StateTrackingStatement(statement, this::invalidateState) : statement;
+    }
+
+    private void disableStateCaching() {
+        stateCaching = false;
+        invalidateState();
+    }
+
+    private void invalidateState() {
+        autoCommit = null;
+        readOnly = null;
+        transactionIsolation = null;
+        catalog = null;
+        schema = null;
+    }
+
+    // a transaction only reading data can safely be routed to a replica, others must stay on the primary
+    private boolean isInWriteTransaction() throws SQLException {
+        return isInTransaction() && !isReadOnly();
+    }
+
+    // nothing was executed on a lazy connection not yet opened so only an explicit setAutoCommit(false) starts a transaction,
+    // it avoids to open it to route statements to the delegates
+    private boolean isInTransaction() throws SQLException {
+        if (lazyConnection != null) {
+            final var recorded = lazyConnection.recordedAutoCommit();
+            if (recorded != null || !lazyConnection.isOpened()) {
+                return recorded != null && !recorded;
             }
         }
+        return !getAutoCommit();
+    }
+
+    private Connection delegateConnection(final String name) throws SQLException {
+        synchronized (delegateConnections) {
+            final var existing = delegateConnections.get(name);
+            if (existing != null && !existing.isClosed()) {
+                return existing;
+            }
 
-        { // case insensitive
-            final var rewriteStatement = configuration.configurations()
-                    .get(new RewriteConfiguration.Sql(sql, true, sql.toLowerCase(Locale.ROOT).hashCode()));
-            if (rewriteStatement != null) {
-                return new MatchedRewriting(rewriteStatement.replacement(), rewriteStatement);
+            final var connection = delegateConnectionFactory.connect(name);
+            try {
+                if (isInTransaction()) { // join the current transaction
+                    connection.setAutoCommit(false);
+                }
+            } catch (final SQLException e) {
+                try {
+                    connection.close();
+                } catch (final SQLException ce) {
+                    e.addSuppressed(ce);
+                }
+                throw e;
             }
+            delegateConnections.put(name, connection);
+            return connection;
         }
+    }
+
+    private void forEachDelegate(final DelegateAction action) throws SQLException {
+        SQLException error = null;
+        synchronized (delegateConnections) {
+            for (final var connection : delegateConnections.values()) {
+                try {
+                    action.apply(connection);
+                } catch (final SQLException e) {
+                    if (error == null) {
+                        error = e;
+                    } else {
+                        error.addSuppressed(e);
+                    }
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private MatchedRewriting findMatchingRewriteInstrumented(final String sql, final RuleMatchEvent event) {
+        event.begin();
+        final long start = System.nanoTime();
+        final var matched = findMatchingRewrite(sql);
+        final long duration = System.nanoTime() - start;
+        event.end();
+        if (event.shouldCommit()) {
+            event.sql = sql;
+            event.rule = matched == null ? null : matched.ruleName();
+            event.outcome = matched == null ? "MISS" : String.valueOf(matched.configuration().type());
+            event.commit();
+        }
+
+        if (metrics == null) {
+            return matched;
+        }
+        if (matched == null) {
+            metrics.onMiss(duration);
+            return null;
+        }
+
+        final var rule = metrics.rule(matched.ruleName());
+        rule.onMatch(duration);
+        return matched.withMetrics(rule);
+    }
+
+    private MatchedRewriting findMatchingRewrite(final String sql) {
+        return configuration.get().match(sql);
+    }
 
-        // regex (slower so last)
-        return configuration.tryRewriteUsingRegexes(sql);
+    @FunctionalInterface
+    private interface DelegateAction {
+        void apply(Connection connection) throws SQLException;
     }
 }
@@ -15,8 +15,17 @@
  */
 package io.yupiik.jdbc.overriding.rewrite;
 
+import io.yupiik.jdbc.overriding.AsyncPreparedStatement;
+import io.yupiik.jdbc.overriding.Deadline;
+import io.yupiik.jdbc.overriding.ExecutionListener;
 import io.yupiik.jdbc.overriding.RewriteConfiguration;
 import io.yupiik.jdbc.overriding.delegation.DelegatingPreparedStatement;
+import io.yupiik.jdbc.overriding.jfr.BindReplayEvent;
+import io.yupiik.jdbc.overriding.jfr.ExecuteEvent;
+import io.yupiik.jdbc.overriding.jfr.ResultSetIterationEvent;
+import io.yupiik.jdbc.overriding.metrics.RuleMetrics;
+import io.yupiik.jdbc.overriding.metrics.SlowStatementLog;
+import io.yupiik.jdbc.overriding.metrics.StatementStatistics;
 
 import java.io.InputStream;
 import java.io.Reader;
@@ -32,6 +41,7 @@ import java.sql.Ref;
 import java.sql.ResultSet;
 import java.sql.RowId;
 import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
 import java.sql.SQLType;
 import java.sql.SQLXML;
 import java.sql.Time;
@@ -39,66 +49,390 @@ import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
-
-public class RewritingPrepareStatement extends DelegatingPreparedStatement {
-    private final RewriteConfiguration.RewriteStatement configuration;
-
-    private final List<SQLRunnable> bindings = new ArrayList<>();
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+public class RewritingPrepareStatement extends DelegatingPreparedStatement implements AsyncPreparedStatement {
+    protected final RewriteConfiguration.RewriteStatement configuration;
+    protected final String sql;
+    private final String originalSql;
+    private final Executor asyncExecutor;
+    private final RuleMetrics metrics; // null when disabled
+    private final StatementStatistics.Tracker statistics; // null when disabled
+    private final SlowStatementLog slowLog; // null when disabled
+    private final ExecutionListener listener; // null when no listener is registered
+
+    final List<Binding> bindings = new ArrayList<>();
+    final Map<Integer, Binding> parameters; // all current bindings by application index, only tracked when needed
+
+    private int queryTimeout; // as set by the application
+    private int appliedQueryTimeout;
+    private int batchSize; // only tracked with metrics or listeners
+    private Object[] lastValues; // last replayed bindings, only tracked for the slow statement log
+    private int[] lastParameterIndices;
+    private SlowStatementLog.Record pendingSlow; // waiting for the result set to be closed to know the rows
 
     public RewritingPrepareStatement(final PreparedStatement preparedStatement,
                                      final RewriteConfiguration.RewriteStatement configuration) {
+        this(preparedStatement, new MatchedRewriting(configuration.replacement(), configuration), ConnectionContext.defaults());
+    }
+
+    public RewritingPrepareStatement(final PreparedStatement preparedStatement,
+                                     final MatchedRewriting matched,
+                                     final ConnectionContext context) {
         super(preparedStatement);
-        this.configuration = configuration;
+        this.configuration = matched.configuration();
+        this.sql = matched.sql();
+        this.asyncExecutor = context.asyncExecutor();
+        this.metrics = matched.metrics();
+        this.statistics = matched.statistics();
+        this.slowLog = context.slowLog();
+        this.listener = context.listener();
+        this.originalSql = matched.originalSql();
+        this.parameters = configuration.sharding() != null || configuration.singleFlight() != null || configuration.keyLoader() != null ?
+                new TreeMap<>() : null;
+    }
+
+    @Override
+    public CompletableFuture<ResultSet> executeQueryAsync() {
+        return AsyncExecutors.supplyAsync(asyncExecutor, this::executeMaterializedQuery);
+    }
+
+    ResultSet executeMaterializedQuery() throws SQLException {
+        // materialize the raw rows, the remapping is applied once on top of them
+        return wrapResultSet(RowSets.materialize(rawQuery()));
+    }
+
+    @Override
+    public CompletableFuture<Integer> executeUpdateAsync() {
+        return AsyncExecutors.supplyAsync(asyncExecutor, this::executeUpdate);
+    }
+
+    @Override
+    public <T> T unwrap(final Class<T> iface) throws SQLException {
+        return iface == AsyncPreparedStatement.class || iface == RewritingPrepareStatement.class ? iface.cast(this) : super.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(final Class<?> iface) throws SQLException {
+        return iface == AsyncPreparedStatement.class || iface == RewritingPrepareStatement.class || super.isWrapperFor(iface);
     }
 
-    private void onAllBound() throws SQLException {
+    protected void bind(final int parameterIndex, final Object value, final SQLBinder binder) {
+        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
+        if (index > 0) {
+            final var binding = new Binding(parameterIndex, index, value, binder);
+            bindings.add(binding);
+            if (parameters != null) {
+                parameters.put(parameterIndex, binding);
+            }
+        }
+    }
+
+    protected void onAllBound() throws SQLException {
+        final var event = new BindReplayEvent();
+        event.begin();
+        final var target = delegate();
         for (final var it : bindings) {
-            it.run();
+            it.apply(target);
+        }
+        if (event.shouldCommit()) {
+            event.rule = ruleName();
+            event.bindings = bindings.size();
+            event.commit();
+        }
+        if (slowLog != null) {
+            captureBindings();
         }
         bindings.clear();
     }
 
+    protected ResultSet wrapResultSet(final ResultSet resultSet) {
+        final var event = new ResultSetIterationEvent();
+        final var metered = metrics == null && statistics == null && slowLog == null && !event.isEnabled() ?
+                resultSet :
+                new MeteredResultSet(
+                        resultSet, metrics, event.isEnabled() ? event : null, ruleName(), statistics,
+                        slowLog == null ? null : this::onResultSetClosed);
+        if (configuration.resultSetIndexOverride() != null || configuration.resultSetNameOverride() != null) {
+            return new RemappingResultSet(metered, configuration.resultSetIndexOverride(), configuration.resultSetNameOverride());
+        }
+        return metered;
+    }
+
+    @Override
+    public void setQueryTimeout(final int seconds) throws SQLException {
+        queryTimeout = seconds;
+        applyQueryTimeout(seconds);
+    }
+
     @Override
     public void clearParameters() throws SQLException {
         try {
             super.clearParameters();
         } finally {
             bindings.clear();
+            if (parameters != null) {
+                parameters.clear();
+            }
         }
     }
 
     @Override
-    public boolean execute() throws SQLException {
+    public void addBatch() throws SQLException {
         onAllBound();
-        return super.execute();
+        super.addBatch();
+        if (metrics != null || listener != null) {
+            batchSize++;
+        }
     }
 
     @Override
-    public void addBatch() throws SQLException {
-        onAllBound();
-        super.addBatch();
+    public boolean execute() throws SQLException {
+        return execute(this::doExecute);
     }
 
     @Override
     public int executeUpdate() throws SQLException {
-        onAllBound();
-        return super.executeUpdate();
+        return execute(this::doExecuteUpdate);
     }
 
     @Override
     public long executeLargeUpdate() throws SQLException {
-        onAllBound();
-        return super.executeLargeUpdate();
+        return execute(this::doExecuteLargeUpdate);
     }
 
     @Override
     public ResultSet executeQuery() throws SQLException {
+        return wrapResultSet(rawQuery());
+    }
+
+    // the delegate result set(s), without any remapping nor metering, wrapResultSet is applied once by the caller
+    private ResultSet rawQuery() throws SQLException {
+        final var keyLoader = configuration.keyLoader();
+        if (keyLoader != null) {
+            final var key = parameters.get(keyLoader.keyBinding());
+            if (key != null && key.value() != null) {
+                onAllBound(); // avoid to accumulate bindings when the execution is shared
+                return keyLoader.load(key.value(), delegate().getConnection(), statement -> {
+                    try (statement) {
+                        return execute(() -> RowSets.materialize(statement.executeQuery()));
+                    }
+                });
+            }
+        }
+
+        final var singleFlight = configuration.singleFlight();
+        if (singleFlight != null) {
+            final var key = SingleFlight.key(sql, parameters.values());
+            if (key != null) {
+                onAllBound(); // avoid to accumulate bindings when the execution is shared
+                return singleFlight.execute(key, () -> RowSets.materialize(execute(this::doExecuteQuery)));
+            }
+        }
+        return execute(this::doExecuteQuery);
+    }
+
+    @Override
+    public int[] executeBatch() throws SQLException {
+        onBatch();
+        return execute(this::doExecuteBatch);
+    }
+
+    @Override
+    public long[] executeLargeBatch() throws SQLException {
+        onBatch();
+        return execute(this::doExecuteLargeBatch);
+    }
+
+    @Override
+    public void clearBatch() throws SQLException {
+        super.clearBatch();
+        batchSize = 0;
+    }
+
+    protected boolean doExecute() throws SQLException {
         onAllBound();
-        final var resultSet = super.executeQuery();
-        if (configuration.resultSetIndexOverride() != null || configuration.resultSetNameOverride() != null) {
-            return new RemappingResultSet(resultSet, configuration.resultSetIndexOverride(), configuration.resultSetNameOverride());
+        return super.execute();
+    }
+
+    protected int doExecuteUpdate() throws SQLException {
+        onAllBound();
+        return super.executeUpdate();
+    }
+
+    protected long doExecuteLargeUpdate() throws SQLException {
+        onAllBound();
+        return super.executeLargeUpdate();
+    }
+
+    protected ResultSet doExecuteQuery() throws SQLException {
+        onAllBound();
+        return super.executeQuery();
+    }
+
+    protected int[] doExecuteBatch() throws SQLException {
+        return super.executeBatch();
+    }
+
+    protected long[] doExecuteLargeBatch() throws SQLException {
+        return super.executeLargeBatch();
+    }
+
+    // all executions go through this method to apply the rule execution constraints
+    private <T> T execute(final SQLSupplier<T> execution) throws SQLException {
+        final var deadline = Deadline.current();
+        if (deadline != null && deadline.isExpired()) {
+            throw new SQLTimeoutException("Deadline exceeded, skipping execution of '" + ruleName() + "'");
+        }
+
+        final var bulkhead = configuration.bulkhead();
+        if (bulkhead == null) {
+            applyQueryTimeout(queryTimeout(deadline));
+            return timed(execution);
+        }
+
+        bulkhead.acquire();
+        try {
+            applyQueryTimeout(queryTimeout(deadline));
+            return timed(execution);
+        } finally {
+            bulkhead.release();
+        }
+    }
+
+    private <T> T timed(final SQLSupplier<T> execution) throws SQLException {
+        final var event = new ExecuteEvent();
+        if (metrics == null && statistics == null && slowLog == null && listener == null && !event.isEnabled()) {
+            return execution.get();
         }
-        return resultSet;
+
+        final var context = listener == null ? null : listener.beforeExecute(originalSql, sql, ruleName());
+        event.begin();
+        final long start = System.nanoTime();
+        T result = null;
+        Throwable error = null;
+        boolean success = false;
+        try {
+            result = execution.get();
+            success = true;
+            return result;
+        } catch (final Throwable t) {
+            error = t;
+            throw t;
+        } finally {
+            final long duration = System.nanoTime() - start;
+            if (listener != null) {
+                listener.afterExecute(context, error);
+            }
+            if (statistics != null) {
+                statistics.record(duration, StatisticsPreparedStatement.rows(result), success);
+            }
+            if (slowLog != null && slowLog.isSlow(duration)) {
+                onSlowExecution(duration, result, success);
+            }
+            if (metrics != null) {
+                metrics.onExecute(duration);
+                if (!success) {
+                    metrics.onError();
+                }
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.rule = ruleName();
+                event.sql = sql;
+                event.success = success;
+                event.commit();
+            }
+        }
+    }
+
+    private void captureBindings() {
+        int max = 0;
+        for (final var it : bindings) {
+            max = Math.max(max, it.index());
+        }
+        final var values = new Object[max];
+        final var parameterIndices = new int[max];
+        for (final var it : bindings) {
+            values[it.index() - 1] = it.value();
+            parameterIndices[it.index() - 1] = it.parameterIndex();
+        }
+        lastValues = values;
+        lastParameterIndices = parameterIndices;
+    }
+
+    private void onSlowExecution(final long duration, final Object result, final boolean success) {
+        flushPendingSlow(-1);
+        final var record = new SlowStatementLog.Record(
+                originalSql, ruleName(), sql, lastValues, lastParameterIndices,
+                duration, StatisticsPreparedStatement.rows(result), success);
+        if (success && result instanceof ResultSet) {
+            pendingSlow = record;
+        } else {
+            slowLog.offer(record);
+        }
+    }
+
+    private void onResultSetClosed(final long rows) {
+        flushPendingSlow(rows);
+    }
+
+    private void flushPendingSlow(final long rows) {
+        final var pending = pendingSlow;
+        if (pending != null) {
+            pendingSlow = null;
+            pending.rows(rows);
+            slowLog.offer(pending);
+        }
+    }
+
+    protected String ruleName() {
+        return configuration.name() == null ? configuration.replacement() : configuration.name();
+    }
+
+    private void onBatch() {
+        if (metrics != null) {
+            metrics.onBatch(batchSize);
+        }
+        if (listener != null) {
+            listener.onBatch(originalSql, sql, ruleName(), batchSize);
+        }
+        batchSize = 0;
+    }
+
+    // application timeout bounded by the deadline and the rule one
+    private int queryTimeout(final Deadline deadline) throws SQLException {
+        int timeout = queryTimeout;
+        if (deadline != null) {
+            final long remaining = deadline.remainingNanos();
+            if (remaining <= 0) {
+                throw new SQLTimeoutException("Deadline exceeded, skipping execution of '" + ruleName() + "'");
+            }
+            timeout = min(timeout, (int) Math.min(Integer.MAX_VALUE, (remaining + 999_999_999L) / 1_000_000_000L));
+        }
+        return min(timeout, configuration.maxTimeout());
+    }
+
+    // called before each execution, sharding overrides it to apply the timeout on the routed statement(s) only
+    protected void applyQueryTimeout(final int seconds) throws SQLException {
+        if (seconds != appliedQueryTimeout) {
+            super.setQueryTimeout(seconds);
+            appliedQueryTimeout = seconds;
+        }
+    }
+
+    // 0 means no timeout in JDBC
+    private static int min(final int timeout1, final int timeout2) {
+        if (timeout1 <= 0) {
+            return timeout2;
+        }
+        if (timeout2 <= 0) {
+            return timeout1;
+        }
+        return Math.min(timeout1, timeout2);
     }
 
     @Override
@@ -107,411 +441,300 @@ public class RewritingPrepareStatement extends DelegatingPreparedStatement {
             super.close();
         } finally {
             bindings.clear();
+            if (slowLog != null) { // result set not closed by the application
+                flushPendingSlow(-1);
+            }
         }
     }
 
     @Override
     public void setNull(final int parameterIndex, final int sqlType) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setNull(index, sqlType));
-        }
+        bind(parameterIndex, null, (s, i, v) -> s.setNull(i, sqlType));
     }
 
     @Override
     public void setBoolean(final int parameterIndex, final boolean x) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setBoolean(index, x));
-        }
+        bind(parameterIndex, x, (s, i, v) -> s.setBoolean(i, (Boolean) v));
     }
 
     @Override
     public void setByte(final int parameterIndex, final byte x) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setByte(index, x));
-        }
+        bind(parameterIndex, x, (s, i, v) -> s.setByte(i, (Byte) v));
     }
 
     @Override
     public void setShort(final int parameterIndex, final short x) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setShort(index, x));
-        }
+        bind(parameterIndex, x, (s, i, v) -> s.setShort(i, (Short) v));
     }
 
     @Override
     public void setInt(final int parameterIndex, final int x) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setInt(index, x));
-        }
+        bind(parameterIndex, x, (s, i, v) -> s.setInt(i, (Integer) v));
     }
 
     @Override
     public void setLong(final int parameterIndex, final long x) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setLong(index, x));
-        }
+        bind(parameterIndex, x, (s, i, v) -> s.setLong(i, (Long) v));
     }
 
     @Override
     public void setFloat(final int parameterIndex, final float x) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setFloat(index, x));
-        }
+        bind(parameterIndex, x, (s, i, v) -> s.setFloat(i, (Float) v));
     }
 
     @Override
     public void setDouble(final int parameterIndex, final double x) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setDouble(index, x));
-        }
+        bind(parameterIndex, x, (s, i, v) -> s.setDouble(i, (Double) v));
     }
 
     @Override
     public void setBigDecimal(final int parameterIndex, final BigDecimal x) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setBigDecimal(index, x));
-        }
+        bind(parameterIndex, x, (s, i, v) -> s.setBigDecimal(i, (BigDecimal) v));
     }
 
     @Override
     public void setString(final int parameterIndex, final String x) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setString(index, x));
-        }
+        bind(parameterIndex, x, (s, i, v) -> s.setString(i, (String) v));
     }
 
     @Override
     public void setBytes(final int parameterIndex, final byte[] x) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setBytes(index, x));
-        }
+        bind(parameterIndex, x, (s, i, v) -> s.setBytes(i, (byte[]) v));
     }
 
     @Override
     public void setDate(final int parameterIndex, final Date x) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setDate(index, x));
-        }
+        bind(parameterIndex, x, (s, i, v) -> s.setDate(i, (Date) v));
     }
 
     @Override
     public void setTime(final int parameterIndex, final Time x) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setTime(index, x));
-        }
+        bind(parameterIndex, x, (s, i, v) -> s.setTime(i, (Time) v));
     }
 
     @Override
     public void setTimestamp(final int parameterIndex, final Timestamp x) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setTimestamp(index, x));
-        }
+        bind(parameterIndex, x, (s, i, v) -> s.setTimestamp(i, (Timestamp) v));
     }
 
     @Override
     public void setAsciiStream(final int parameterIndex, final InputStream x, final int length) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setAsciiStream(index, x));
-        }
+        bind(parameterIndex, x, (s, i, v) -> s.setAsciiStream(i, (InputStream) v, length));
     }
 
     @Override
+    @SuppressWarnings("deprecation")
     public void setUnicodeStream(final int parameterIndex, final InputStream x, final int length) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setUnicodeStream(index, x, length));
-        }
+        bind(parameterIndex, x, (s, i, v) -> s.setUnicodeStream(i, (InputStream) v, length));
     }
 
     @Override
     public void setBinaryStream(final int parameterIndex, final InputStream x, final int length) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setBinaryStream(index, x, length));
-        }
+        bind(parameterIndex, x, (s, i, v) -> s.setBinaryStream(i, (InputStream) v, length));
     }
 
     @Override
     public void setObject(final int parameterIndex, final Object x, final int targetSqlType) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setObject(index, x, targetSqlType));
-        }
+        bind(parameterIndex, x, (s, i, v) -> s.setObject(i, v, targetSqlType));
     }
 
     @Override
     public void setObject(final int parameterIndex, final Object x) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setObject(index, x));
-        }
+        bind(parameterIndex, x, (s, i, v) -> s.setObject(i, v));
     }
 
     @Override
     public void setCharacterStream(final int parameterIndex, final Reader reader, final int length) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setCharacterStream(index, reader, length));
-        }
+        bind(parameterIndex, reader, (s, i, v) -> s.setCharacterStream(i, (Reader) v, length));
     }
 
     @Override
     public void setRef(final int parameterIndex, final Ref x) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setRef(index, x));
-        }
+        bind(parameterIndex, x, (s, i, v) -> s.setRef(i, (Ref) v));
     }
 
     @Override
     public void setBlob(final int parameterIndex, final Blob x) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setBlob(index, x));
-        }
+        bind(parameterIndex, x, (s, i, v) -> s.setBlob(i, (Blob) v));
     }
 
     @Override
     public void setClob(final int parameterIndex, final Clob x) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setClob(index, x));
-        }
+        bind(parameterIndex, x, (s, i, v) -> s.setClob(i, (Clob) v));
     }
 
     @Override
     public void setArray(final int parameterIndex, final Array x) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setArray(index, x));
-        }
+        bind(parameterIndex, x, (s, i, v) -> s.setArray(i, (Array) v));
     }
 
     @Override
     public void setDate(final int parameterIndex, final Date x, final Calendar cal) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setDate(index, x, cal));
-        }
+        bind(parameterIndex, x, (s, i, v) -> s.setDate(i, (Date) v, cal));
     }
 
     @Override
     public void setTime(final int parameterIndex, final Time x, final Calendar cal) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setTime(index, x, cal));
-        }
+        bind(parameterIndex, x, (s, i, v) -> s.setTime(i, (Time) v, cal));
     }
 
     @Override
     public void setTimestamp(final int parameterIndex, final Timestamp x, final Calendar cal) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setTimestamp(index, x, cal));
-        }
+        bind(parameterIndex, x, (s, i, v) -> s.setTimestamp(i, (Timestamp) v, cal));
     }
 
     @Override
     public void setNull(final int parameterIndex, final int sqlType, final String typeName) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setNull(index, sqlType, typeName));
-        }
+        bind(parameterIndex, null, (s, i, v) -> s.setNull(i, sqlType, typeName));
     }
 
     @Override
     public void setURL(final int parameterIndex, final URL x) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setURL(index, x));
-        }
+        bind(parameterIndex, x, (s, i, v) -> s.setURL(i, (URL) v));
     }
 
     @Override
     public void setRowId(final int parameterIndex, final RowId x) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setRowId(index, x));
-        }
+        bind(parameterIndex, x, (s, i, v) -> s.setRowId(i, (RowId) v));
     }
 
     @Override
     public void setNString(final int parameterIndex, final String value) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setNString(index, value));
-        }
+        bind(parameterIndex, value, (s, i, v) -> s.setNString(i, (String) v));
     }
 
     @Override
     public void setNCharacterStream(final int parameterIndex, final Reader value, final long length) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setNCharacterStream(index, Reader.nullReader(), length));
-        }
+        bind(parameterIndex, value, (s, i, v) -> s.setNCharacterStream(i, (Reader) v, length));
     }
 
     @Override
     public void setNClob(final int parameterIndex, final NClob value) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setNClob(index, value));
-        }
+        bind(parameterIndex, value, (s, i, v) -> s.setNClob(i, (NClob) v));
     }
 
     @Override
     public void setClob(final int parameterIndex, final Reader reader, final long length) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setClob(index, reader, length));
-        }
+        bind(parameterIndex, reader, (s, i, v) -> s.setClob(i, (Reader) v, length));
     }
 
     @Override
     public void setBlob(final int parameterIndex, final InputStream inputStream, final long length) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setBlob(index, inputStream, length));
-        }
+        bind(parameterIndex, inputStream, (s, i, v) -> s.setBlob(i, (InputStream) v, length));
     }
 
     @Override
     public void setNClob(final int parameterIndex, final Reader reader, final long length) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setNClob(index, reader, length));
-        }
+        bind(parameterIndex, reader, (s, i, v) -> s.setNClob(i, (Reader) v, length));
     }
 
     @Override
     public void setSQLXML(final int parameterIndex, final SQLXML xmlObject) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setSQLXML(index, xmlObject));
-        }
+        bind(parameterIndex, xmlObject, (s, i, v) -> s.setSQLXML(i, (SQLXML) v));
     }
 
     @Override
     public void setObject(final int parameterIndex, final Object x, final int targetSqlType, final int scaleOrLength) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setObject(index, x, targetSqlType, scaleOrLength));
-        }
+        bind(parameterIndex, x, (s, i, v) -> s.setObject(i, v, targetSqlType, scaleOrLength));
     }
 
     @Override
     public void setAsciiStream(final int parameterIndex, final InputStream x, final long length) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setAsciiStream(index, x, length));
-        }
+        bind(parameterIndex, x, (s, i, v) -> s.setAsciiStream(i, (InputStream) v, length));
     }
 
     @Override
     public void setBinaryStream(final int parameterIndex, final InputStream x, final long length) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setBinaryStream(index, x, length));
-        }
+        bind(parameterIndex, x, (s, i, v) -> s.setBinaryStream(i, (InputStream) v, length));
     }
 
     @Override
     public void setCharacterStream(final int parameterIndex, final Reader reader, final long length) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setCharacterStream(index, reader, length));
-        }
+        bind(parameterIndex, reader, (s, i, v) -> s.setCharacterStream(i, (Reader) v, length));
     }
 
     @Override
     public void setAsciiStream(final int parameterIndex, final InputStream x) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setAsciiStream(index, x));
-        }
+        bind(parameterIndex, x, (s, i, v) -> s.setAsciiStream(i, (InputStream) v));
     }
 
     @Override
     public void setBinaryStream(final int parameterIndex, final InputStream x) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setBinaryStream(index, x));
-        }
+        bind(parameterIndex, x, (s, i, v) -> s.setBinaryStream(i, (InputStream) v));
     }
 
     @Override
     public void setCharacterStream(final int parameterIndex, final Reader reader) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setCharacterStream(index, reader));
-        }
+        bind(parameterIndex, reader, (s, i, v) -> s.setCharacterStream(i, (Reader) v));
     }
 
     @Override
     public void setNCharacterStream(final int parameterIndex, final Reader value) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setNCharacterStream(index, value));
-        }
+        bind(parameterIndex, value, (s, i, v) -> s.setNCharacterStream(i, (Reader) v));
     }
 
     @Override
     public void setClob(final int parameterIndex, final Reader reader) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setClob(index, reader));
-        }
+        bind(parameterIndex, reader, (s, i, v) -> s.setClob(i, (Reader) v));
     }
 
     @Override
     public void setBlob(final int parameterIndex, final InputStream inputStream) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setBlob(index, inputStream));
-        }
+        bind(parameterIndex, inputStream, (s, i, v) -> s.setBlob(i, (InputStream) v));
     }
 
     @Override
     public void setNClob(final int parameterIndex, final Reader reader) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setNClob(index, reader));
-        }
+        bind(parameterIndex, reader, (s, i, v) -> s.setNClob(i, (Reader) v));
     }
 
     @Override
     public void setObject(final int parameterIndex, final Object x, final SQLType targetSqlType, final int scaleOrLength) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setObject(index, x, targetSqlType, scaleOrLength));
-        }
+        bind(parameterIndex, x, (s, i, v) -> s.setObject(i, v, targetSqlType, scaleOrLength));
     }
 
     @Override
     public void setObject(final int parameterIndex, final Object x, final SQLType targetSqlType) {
-        final var index = configuration.bindingIndices().getOrDefault(parameterIndex, parameterIndex);
-        if (index > 0) {
-            bindings.add(() -> super.setObject(index, x, targetSqlType));
-        }
+        bind(parameterIndex, x, (s, i, v) -> s.setObject(i, v, targetSqlType));
+    }
+
+    @FunctionalInterface
+    interface SQLSupplier<T> {
+        T get() throws SQLException;
     }
 
     @FunctionalInterface
-    private interface SQLRunnable {
-        void run() throws SQLException;
+    protected interface SQLBinder {
+        void bind(PreparedStatement statement, int index, Object value) throws SQLException;
+    }
+
+    static class Binding {
+        private final int parameterIndex; // as bound by the application
+        private final int index; // as bound on the rewritten statement
+        private final Object value;
+        private final SQLBinder binder;
+
+        private Binding(final int parameterIndex, final int index, final Object value, final SQLBinder binder) {
+            this.parameterIndex = parameterIndex;
+            this.index = index;
+            this.value = value;
+            this.binder = binder;
+        }
+
+        int parameterIndex() {
+            return parameterIndex;
+        }
+
+        int index() {
+            return index;
+        }
+
+        Object value() {
+            return value;
+        }
+
+        void apply(final PreparedStatement statement) throws SQLException {
+            binder.bind(statement, index, value);
+        }
     }
 }
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding.rewrite;
+
+import io.yupiik.jdbc.overriding.delegation.DelegatingResultSet;
+
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetFactory;
+import javax.sql.rowset.RowSetProvider;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+final class RowSets {
+    private static final RowSetFactory FACTORY;
+
+    static {
+        try {
+            FACTORY = RowSetProvider.newFactory();
+        } catch (final SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private RowSets() {
+        // no-op
+    }
+
+    // loads all the rows in memory and closes the result set
+    static CachedRowSet materialize(final ResultSet resultSet) throws SQLException {
+        try (resultSet) {
+            final var rowSet = FACTORY.createCachedRowSet();
+            rowSet.populate(resultSet);
+            return rowSet;
+        }
+    }
+
+    // new cursor on shared rows, closing it does not release the rows (a closed CachedRowSet clears its shared data)
+    static ResultSet share(final CachedRowSet rowSet) throws SQLException {
+        return new SharedRowSet(rowSet.createShared());
+    }
+
+    // cursor on a subset of shared rows (row numbers are 1-based)
+    static ResultSet share(final CachedRowSet rowSet, final int[] rows) throws SQLException {
+        return new SharedRowSet(rowSet.createShared()) {
+            private int current = -1;
+
+            @Override
+            public boolean next() throws SQLException {
+                if (isClosed()) {
+                    throw new SQLException("ResultSet closed");
+                }
+                if (current + 1 >= rows.length) {
+                    current = rows.length;
+                    delegate().afterLast();
+                    return false;
+                }
+                return delegate().absolute(rows[++current]);
+            }
+
+            @Override
+            public int getRow() {
+                return current < 0 || current >= rows.length ? 0 : current + 1;
+            }
+        };
+    }
+
+    private static class SharedRowSet extends DelegatingResultSet {
+        private boolean closed;
+
+        private SharedRowSet(final ResultSet delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public boolean next() throws SQLException {
+            if (closed) {
+                throw new SQLException("ResultSet closed");
+            }
+            return super.next();
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+    }
+}
@@ -0,0 +1,380 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding.rewrite;
+
+import io.yupiik.jdbc.overriding.RewriteConfiguration;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Arrays.stream;
+
+public class ShardingPrepareStatement extends RewritingPrepareStatement {
+    private final RewriteConfiguration.Sharding sharding;
+    private final StatementFactory statementFactory;
+    private final Executor fanOutExecutor;
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+    private final List<String> batch = new ArrayList<>();
+    private String currentShard;
+    private PreparedStatement current; // null until the first routed execution
+    private final Map<String, Integer> queryTimeouts = new HashMap<>(); // applied on each shard statement
+    private int queryTimeout; // of the next execution, applied when a shard statement is used
+    private Object key;
+    private boolean closed;
+
+    public ShardingPrepareStatement(final RewriteConfiguration.RewriteStatement configuration,
+                                    final StatementFactory statementFactory) {
+        this(new MatchedRewriting(configuration.replacement(), configuration), statementFactory, ConnectionContext.defaults());
+    }
+
+    // shard statements are prepared on their first use since the routing key is only known at execution time
+    public ShardingPrepareStatement(final MatchedRewriting matched,
+                                    final StatementFactory statementFactory,
+                                    final ConnectionContext context) {
+        super(null, matched, context);
+        this.sharding = matched.configuration().sharding();
+        this.statementFactory = statementFactory;
+        this.fanOutExecutor = context.fanOutExecutor();
+    }
+
+    @Override // settings applied before the first execution go to the first shard
+    protected PreparedStatement delegate() throws SQLException {
+        if (current == null) {
+            use(sharding.delegates().get(0));
+        }
+        return current;
+    }
+
+    @Override // don't prepare a shard only to set the timeout, it is applied to the routed statement(s)
+    protected void applyQueryTimeout(final int seconds) {
+        queryTimeout = seconds;
+    }
+
+    @Override
+    public int getQueryTimeout() throws SQLException {
+        return current == null ? queryTimeout : current.getQueryTimeout();
+    }
+
+    @Override
+    public boolean isClosed() throws SQLException {
+        return closed || (current != null && current.isClosed());
+    }
+
+    @Override
+    protected void bind(final int parameterIndex, final Object value, final SQLBinder binder) {
+        // the key can be a binding dropped from the rewritten statement so capture it there
+        if (parameterIndex == sharding.binding()) {
+            key = value;
+        }
+        super.bind(parameterIndex, value, binder);
+    }
+
+    @Override
+    protected boolean doExecute() throws SQLException {
+        final var shard = route();
+        if (shard == null) {
+            throw new SQLFeatureNotSupportedException("Fan-out is only supported for executeQuery/executeUpdate, bind the sharding key (index=" + sharding.binding() + ")");
+        }
+        use(shard);
+        return super.doExecute();
+    }
+
+    @Override
+    protected ResultSet doExecuteQuery() throws SQLException {
+        final var shard = route();
+        if (shard != null) {
+            use(shard);
+            return super.doExecuteQuery();
+        }
+
+        return new ConcatenatingResultSet(fanOut(PreparedStatement::executeQuery));
+    }
+
+    @Override
+    protected int doExecuteUpdate() throws SQLException {
+        final var shard = route();
+        if (shard != null) {
+            use(shard);
+            return super.doExecuteUpdate();
+        }
+
+        int total = 0;
+        for (final int count : fanOut(PreparedStatement::executeUpdate)) {
+            total += count;
+        }
+        return total;
+    }
+
+    @Override
+    protected long doExecuteLargeUpdate() throws SQLException {
+        final var shard = route();
+        if (shard != null) {
+            use(shard);
+            return super.doExecuteLargeUpdate();
+        }
+
+        long total = 0;
+        for (final long count : fanOut(PreparedStatement::executeLargeUpdate)) {
+            total += count;
+        }
+        return total;
+    }
+
+    @Override
+    public void addBatch() throws SQLException {
+        final var shard = route();
+        if (shard == null) {
+            throw new SQLFeatureNotSupportedException("Batches can't be fanned-out, bind the sharding key (index=" + sharding.binding() + ")");
+        }
+        use(shard);
+        super.addBatch();
+        batch.add(shard);
+    }
+
+    @Override
+    protected int[] doExecuteBatch() throws SQLException {
+        if (batch.isEmpty()) {
+            return new int[0];
+        }
+
+        try {
+            final var results = new HashMap<String, int[]>();
+            for (final var shard : new LinkedHashSet<>(batch)) {
+                results.put(shard, withQueryTimeout(shard, statements.get(shard)).executeBatch());
+            }
+
+            // restore the order the application added the batch entries
+            final var counts = new int[batch.size()];
+            final var positions = new HashMap<String, Integer>();
+            for (int i = 0; i < counts.length; i++) {
+                final var shard = batch.get(i);
+                counts[i] = results.get(shard)[positions.merge(shard, 1, Integer::sum) - 1];
+            }
+            return counts;
+        } finally {
+            batch.clear();
+        }
+    }
+
+    @Override
+    protected long[] doExecuteLargeBatch() throws SQLException {
+        return stream(doExecuteBatch()).asLongStream().toArray();
+    }
+
+    @Override
+    public void clearBatch() throws SQLException {
+        for (final var statement : statements.values()) {
+            statement.clearBatch();
+        }
+        batch.clear();
+    }
+
+    @Override
+    public void clearParameters() throws SQLException {
+        try {
+            if (current == null) { // nothing prepared yet
+                bindings.clear();
+                parameters.clear();
+            } else {
+                super.clearParameters();
+            }
+        } finally {
+            key = null;
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        SQLException error = null;
+        for (final var statement : statements.values()) {
+            if (statement == current) { // closed by super.close() which also flushes the observers
+                continue;
+            }
+            try {
+                statement.close();
+            } catch (final SQLException e) {
+                error = merge(error, e);
+            }
+        }
+        statements.clear();
+        parameters.clear();
+        if (current != null) {
+            try {
+                super.close();
+            } catch (final SQLException e) {
+                error = merge(error, e);
+            }
+        } else {
+            bindings.clear();
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private String route() throws SQLException {
+        if (key != null) {
+            if (!sharding.isValidKey(key)) {
+                throw new SQLException("Invalid sharding key '" + key + "' for rule '" + ruleName() + "', " + sharding.strategy() + " sharding needs a numeric key");
+            }
+            return sharding.select(key);
+        }
+        if (!sharding.fanOut()) {
+            throw new SQLException("No sharding key bound at index " + sharding.binding() + " and fan-out is disabled");
+        }
+        return null;
+    }
+
+    private void use(final String shard) throws SQLException {
+        if (!shard.equals(currentShard)) { // else pending bindings will be applied as usual
+            // first statement: nothing was applied yet so pending bindings are enough
+            current = current == null ? statement(shard) : replayAll(statement(shard));
+            currentShard = shard;
+        }
+        withQueryTimeout(shard, current);
+    }
+
+    // executes on every shard, at most sharding.parallelism() at a time, the calling thread takes part in the work
+    // so a saturated executor (or an execution from an executor thread) can't block the fan-out
+    private <T> List<T> fanOut(final ShardExecution<T> execution) throws SQLException {
+        // preparation and binding stay on the calling thread, each shard has its own connection so executions can be concurrent
+        final var targets = new ArrayList<PreparedStatement>(sharding.delegates().size());
+        for (final var delegate : sharding.delegates()) {
+            targets.add(fanOutStatement(delegate));
+        }
+
+        final var results = new ArrayList<CompletableFuture<T>>(targets.size());
+        for (int i = 0; i < targets.size(); i++) {
+            results.add(new CompletableFuture<>());
+        }
+        final var next = new AtomicInteger();
+        final Runnable worker = () -> {
+            for (int i = next.getAndIncrement(); i < targets.size(); i = next.getAndIncrement()) {
+                try {
+                    results.get(i).complete(execution.execute(targets.get(i)));
+                } catch (final SQLException | RuntimeException e) {
+                    results.get(i).completeExceptionally(e);
+                }
+            }
+        };
+        final int workers = Math.min(sharding.parallelism(), targets.size());
+        for (int i = 1; i < workers; i++) {
+            try {
+                fanOutExecutor.execute(worker);
+            } catch (final RejectedExecutionException ree) { // the calling thread will do the work
+                break;
+            }
+        }
+        worker.run();
+
+        final var values = new ArrayList<T>(targets.size());
+        SQLException error = null;
+        for (final var result : results) {
+            try {
+                values.add(SingleFlight.await(result, ruleName()));
+            } catch (final SQLException e) {
+                error = merge(error, e);
+            }
+        }
+        if (error != null) {
+            for (final var value : values) {
+                if (value instanceof AutoCloseable) {
+                    try {
+                        ((AutoCloseable) value).close();
+                    } catch (final Exception e) {
+                        error.addSuppressed(e);
+                    }
+                }
+            }
+            throw error;
+        }
+        return values;
+    }
+
+    private PreparedStatement fanOutStatement(final String shard) throws SQLException {
+        final var statement = withQueryTimeout(shard, replayAll(statement(shard)));
+        if (!shard.equals(currentShard)) {
+            current = statement;
+            currentShard = shard;
+        }
+        return statement;
+    }
+
+    private PreparedStatement withQueryTimeout(final String shard, final PreparedStatement statement) throws SQLException {
+        final var applied = queryTimeouts.get(shard);
+        if (applied == null ? queryTimeout != 0 : applied != queryTimeout) {
+            statement.setQueryTimeout(queryTimeout);
+            queryTimeouts.put(shard, queryTimeout);
+        }
+        return statement;
+    }
+
+    private PreparedStatement replayAll(final PreparedStatement statement) throws SQLException {
+        statement.clearParameters();
+        for (final var binding : parameters.values()) {
+            binding.apply(statement);
+        }
+        bindings.clear();
+        return statement;
+    }
+
+    private PreparedStatement statement(final String shard) throws SQLException {
+        if (closed) {
+            throw new SQLException("Statement closed");
+        }
+        final var existing = statements.get(shard);
+        if (existing != null) {
+            return existing;
+        }
+        final var statement = statementFactory.prepare(shard);
+        statements.put(shard, statement);
+        return statement;
+    }
+
+    private static SQLException merge(final SQLException error, final SQLException e) {
+        if (error == null) {
+            return e;
+        }
+        error.addSuppressed(e);
+        return error;
+    }
+
+    @FunctionalInterface
+    public interface StatementFactory {
+        PreparedStatement prepare(String delegate) throws SQLException;
+    }
+
+    @FunctionalInterface
+    private interface ShardExecution<T> {
+        T execute(PreparedStatement statement) throws SQLException;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding.rewrite;
+
+import io.yupiik.jdbc.overriding.Deadline;
+
+import javax.sql.rowset.CachedRowSet;
+import java.io.InputStream;
+import java.io.Reader;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLXML;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+// shares a single in-flight execution between concurrent callers executing the same query with the same bindings
+public class SingleFlight {
+    private final String name;
+    private final Map<Key, CompletableFuture<CachedRowSet>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder executions = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    public SingleFlight(final String name) {
+        this.name = name;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public int inFlight() {
+        return inFlight.size();
+    }
+
+    public long executions() {
+        return executions.sum();
+    }
+
+    public long coalesced() {
+        return coalesced.sum();
+    }
+
+    public ResultSet execute(final Key key, final Loader loader) throws SQLException {
+        final var promise = new CompletableFuture<CachedRowSet>();
+        final var existing = inFlight.putIfAbsent(key, promise);
+        if (existing != null) {
+            coalesced.increment();
+            return RowSets.share(await(existing, name));
+        }
+
+        executions.increment();
+        try {
+            final var rows = loader.load();
+            promise.complete(rows);
+            return RowSets.share(rows);
+        } catch (final SQLException | RuntimeException e) {
+            promise.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, promise);
+        }
+    }
+
+    // waits for a shared execution respecting the current deadline
+    static <T> T await(final CompletableFuture<T> existing, final String name) throws SQLException {
+        try {
+            final var deadline = Deadline.current();
+            return deadline == null ? existing.get() : existing.get(Math.max(0, deadline.remainingNanos()), NANOSECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for '" + name + "'", e);
+        } catch (final TimeoutException e) {
+            throw new SQLTimeoutException("Deadline exceeded while waiting for '" + name + "'", e);
+        } catch (final ExecutionException e) {
+            final var cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw new SQLException(cause.getMessage(), ((SQLException) cause).getSQLState(), ((SQLException) cause).getErrorCode(), cause);
+            }
+            throw new SQLException(cause);
+        }
+    }
+
+    // null if a binding can't be compared (streams, lobs, ...), in such a case the execution is not shared
+    public static Key key(final String sql, final Collection<RewritingPrepareStatement.Binding> bindings) {
+        final var values = new Object[bindings.size() * 2];
+        int i = 0;
+        for (final var binding : bindings) {
+            final var value = binding.value();
+            if (value instanceof InputStream || value instanceof Reader ||
+                    value instanceof Blob || value instanceof Clob || value instanceof Array || value instanceof SQLXML) {
+                return null;
+            }
+            values[i++] = binding.index();
+            values[i++] = value;
+        }
+        return new Key(sql, values);
+    }
+
+    @FunctionalInterface
+    public interface Loader {
+        CachedRowSet load() throws SQLException;
+    }
+
+    public static class Key {
+        private final String sql;
+        private final Object[] values;
+        private final int hash;
+
+        private Key(final String sql, final Object[] values) {
+            this.sql = sql;
+            this.values = values;
+            this.hash = 31 * sql.hashCode() + Arrays.deepHashCode(values);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final var key = (Key) obj;
+            return hash == key.hash && sql.equals(key.sql) && Arrays.deepEquals(values, key.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding.rewrite;
+
+import io.yupiik.jdbc.overriding.delegation.DelegatingStatement;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.regex.Pattern;
+
+import static java.util.regex.Pattern.CASE_INSENSITIVE;
+
+// notifies the connection when a SQL statement can change the session state (SET, USE, ...)
+public class StateTrackingStatement extends DelegatingStatement {
+    private static final Pattern STATE_CHANGE = Pattern.compile(
+            "^\\s*(set|use|reset|alter\\s+session|begin|start\\s+transaction|commit|rollback)\\b", CASE_INSENSITIVE);
+
+    private final Runnable onStateChange;
+    private boolean pendingStateChange;
+
+    public StateTrackingStatement(final Statement statement, final Runnable onStateChange) {
+        super(statement);
+        this.onStateChange = onStateChange;
+    }
+
+    public static boolean isStateChange(final String sql) {
+        return sql != null && STATE_CHANGE.matcher(sql).find();
+    }
+
+    @Override
+    public ResultSet executeQuery(final String sql) throws SQLException {
+        try {
+            return super.executeQuery(sql);
+        } finally {
+            track(sql);
+        }
+    }
+
+    @Override
+    public int executeUpdate(final String sql) throws SQLException {
+        try {
+            return super.executeUpdate(sql);
+        } finally {
+            track(sql);
+        }
+    }
+
+    @Override
+    public int executeUpdate(final String sql, final int autoGeneratedKeys) throws SQLException {
+        try {
+            return super.executeUpdate(sql, autoGeneratedKeys);
+        } finally {
+            track(sql);
+        }
+    }
+
+    @Override
+    public int executeUpdate(final String sql, final int[] columnIndexes) throws SQLException {
+        try {
+            return super.executeUpdate(sql, columnIndexes);
+        } finally {
+            track(sql);
+        }
+    }
+
+    @Override
+    public int executeUpdate(final String sql, final String[] columnNames) throws SQLException {
+        try {
+            return super.executeUpdate(sql, columnNames);
+        } finally {
+            track(sql);
+        }
+    }
+
+    @Override
+    public long executeLargeUpdate(final String sql) throws SQLException {
+        try {
+            return super.executeLargeUpdate(sql);
+        } finally {
+            track(sql);
+        }
+    }
+
+    @Override
+    public long executeLargeUpdate(final String sql, final int autoGeneratedKeys) throws SQLException {
+        try {
+            return super.executeLargeUpdate(sql, autoGeneratedKeys);
+        } finally {
+            track(sql);
+        }
+    }
+
+    @Override
+    public long executeLargeUpdate(final String sql, final int[] columnIndexes) throws SQLException {
+        try {
+            return super.executeLargeUpdate(sql, columnIndexes);
+        } finally {
+            track(sql);
+        }
+    }
+
+    @Override
+    public long executeLargeUpdate(final String sql, final String[] columnNames) throws SQLException {
+        try {
+            return super.executeLargeUpdate(sql, columnNames);
+        } finally {
+            track(sql);
+        }
+    }
+
+    @Override
+    public boolean execute(final String sql) throws SQLException {
+        try {
+            return super.execute(sql);
+        } finally {
+            track(sql);
+        }
+    }
+
+    @Override
+    public boolean execute(final String sql, final int autoGeneratedKeys) throws SQLException {
+        try {
+            return super.execute(sql, autoGeneratedKeys);
+        } finally {
+            track(sql);
+        }
+    }
+
+    @Override
+    public boolean execute(final String sql, final int[] columnIndexes) throws SQLException {
+        try {
+            return super.execute(sql, columnIndexes);
+        } finally {
+            track(sql);
+        }
+    }
+
+    @Override
+    public boolean execute(final String sql, final String[] columnNames) throws SQLException {
+        try {
+            return super.execute(sql, columnNames);
+        } finally {
+            track(sql);
+        }
+    }
+
+    @Override
+    public void addBatch(final String sql) throws SQLException {
+        super.addBatch(sql);
+        pendingStateChange |= isStateChange(sql);
+    }
+
+    @Override
+    public void clearBatch() throws SQLException {
+        super.clearBatch();
+        pendingStateChange = false;
+    }
+
+    @Override
+    public int[] executeBatch() throws SQLException {
+        try {
+            return super.executeBatch();
+        } finally {
+            flushBatch();
+        }
+    }
+
+    @Override
+    public long[] executeLargeBatch() throws SQLException {
+        try {
+            return super.executeLargeBatch();
+        } finally {
+            flushBatch();
+        }
+    }
+
+    private void flushBatch() {
+        if (pendingStateChange) {
+            pendingStateChange = false;
+            onStateChange.run();
+        }
+    }
+
+    // even on failure since the statement can have been partially applied
+    private void track(final String sql) {
+        if (isStateChange(sql)) {
+            onStateChange.run();
+        }
+    }
+}
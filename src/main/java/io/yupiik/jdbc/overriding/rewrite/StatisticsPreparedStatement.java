@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding.rewrite;
+
+import io.yupiik.jdbc.overriding.delegation.DelegatingPreparedStatement;
+import io.yupiik.jdbc.overriding.metrics.StatementStatistics;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+// feeds the statement statistics for prepared statements not matching any rule
+class StatisticsPreparedStatement extends DelegatingPreparedStatement {
+    private final StatementStatistics.Tracker tracker;
+
+    StatisticsPreparedStatement(final PreparedStatement preparedStatement, final StatementStatistics.Tracker tracker) {
+        super(preparedStatement);
+        this.tracker = tracker;
+    }
+
+    @Override
+    public ResultSet executeQuery() throws SQLException {
+        return new MeteredResultSet(measure(tracker, super::executeQuery), null, null, null, tracker, null);
+    }
+
+    @Override
+    public int executeUpdate() throws SQLException {
+        return measure(tracker, super::executeUpdate);
+    }
+
+    @Override
+    public long executeLargeUpdate() throws SQLException {
+        return measure(tracker, super::executeLargeUpdate);
+    }
+
+    @Override
+    public boolean execute() throws SQLException {
+        return measure(tracker, super::execute);
+    }
+
+    @Override
+    public int[] executeBatch() throws SQLException {
+        return measure(tracker, super::executeBatch);
+    }
+
+    @Override
+    public long[] executeLargeBatch() throws SQLException {
+        return measure(tracker, super::executeLargeBatch);
+    }
+
+    static <T> T measure(final StatementStatistics.Tracker tracker,
+                         final RewritingPrepareStatement.SQLSupplier<T> execution) throws SQLException {
+        final long start = System.nanoTime();
+        T result = null;
+        boolean success = false;
+        try {
+            result = execution.get();
+            success = true;
+            return result;
+        } finally {
+            tracker.record(System.nanoTime() - start, rows(result), success);
+        }
+    }
+
+    // result set rows are only known when iterated, see MeteredResultSet
+    static long rows(final Object result) {
+        if (result instanceof Integer) {
+            return (Integer) result;
+        }
+        if (result instanceof Long) {
+            return (Long) result;
+        }
+        if (result instanceof int[]) {
+            long total = 0;
+            for (final int it : (int[]) result) {
+                total += Math.max(0, it);
+            }
+            return total;
+        }
+        if (result instanceof long[]) {
+            long total = 0;
+            for (final long it : (long[]) result) {
+                total += Math.max(0, it);
+            }
+            return total;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.StreamSupport;
+
+import static java.util.stream.Collectors.toMap;
+
+// shared test fixtures
+final class Databases {
+    private Databases() {
+        // no-op
+    }
+
+    static Map<String, String> asMap(final ResultSet set) {
+        return StreamSupport.stream(
+                        Spliterators.spliteratorUnknownSize(
+                                new Iterator<String[]>() {
+                                    @Override
+                                    public boolean hasNext() {
+                                        try {
+                                            return set.next();
+                                        } catch (final SQLException e) {
+                                            throw new IllegalStateException(e);
+                                        }
+                                    }
+
+                                    @Override
+                                    public String[] next() {
+                                        try {
+                                            return new String[]{set.getString(1), set.getString(2)};
+                                        } catch (final SQLException e) {
+                                            throw new IllegalStateException(e);
+                                        }
+                                    }
+                                },
+                                Spliterator.IMMUTABLE),
+                        false)
+                .collect(toMap(i -> i[0], i -> i[1]));
+    }
+
+    static int countTables(final Connection connection) throws SQLException {
+        try (final var tables = connection.getMetaData().getTables(null, "PUBLIC", "%", new String[]{"TABLE"})) {
+            int count = 0;
+            while (tables.next()) {
+                count++;
+            }
+            return count;
+        }
+    }
+
+    static void seedUsers(final Connection h2) throws SQLException {
+        try (final var stmt = h2.createStatement()) {
+            stmt.execute("create table some_users(id varchar(16), name varchar(255))");
+            stmt.execute("insert into some_users(id, name) values('0001', 'user 1')");
+            stmt.execute("insert into some_users(id, name) values('0002', 'user 2')");
+        }
+    }
+}
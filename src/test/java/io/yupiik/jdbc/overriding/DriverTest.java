@@ -15,21 +15,68 @@
  */
 package io.yupiik.jdbc.overriding;
 
+import io.yupiik.jdbc.overriding.metrics.SlowStatementLog;
+import io.yupiik.jdbc.overriding.metrics.SqlFingerprint;
+import io.yupiik.jdbc.overriding.metrics.StatementStatistics;
+import io.yupiik.jdbc.overriding.rewrite.CachingDatabaseMetaData;
+import io.yupiik.jdbc.overriding.rewrite.LazyConnection;
+import io.yupiik.jdbc.overriding.rewrite.RewritingConnection;
 import org.h2.Driver;
+import org.h2.jdbc.JdbcConnection;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordingFile;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.Iterator;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Spliterator;
-import java.util.Spliterators;
-import java.util.stream.StreamSupport;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
+import static io.yupiik.jdbc.overriding.Databases.asMap;
+import static io.yupiik.jdbc.overriding.Databases.countTables;
+import static io.yupiik.jdbc.overriding.Databases.seedUsers;
+import static java.util.Objects.requireNonNull;
+import static java.util.function.Function.identity;
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toMap;
+import static java.util.concurrent.TimeUnit.MINUTES;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class DriverTest {
     @Test
@@ -178,6 +225,1151 @@ class DriverTest {
         }
     }
 
+    @Test
+    void routeReadsToReplica() throws SQLException {
+        try (final var primary = DriverManager.getConnection("jdbc:h2:mem:routeReadsToReplica", "sa", "");
+             final var replica = DriverManager.getConnection("jdbc:h2:mem:routeReadsToReplica_replica", "sa", "")) {
+            // seed the dbs with different data to see where the query went
+            try (final var stmt = primary.createStatement()) {
+                stmt.execute("create table report_users(id varchar(16), name varchar(255))");
+                stmt.execute("insert into report_users(id, name) values('0001', 'primary')");
+            }
+            try (final var stmt = replica.createStatement()) {
+                stmt.execute("create table report_users(id varchar(16), name varchar(255))");
+                stmt.execute("insert into report_users(id, name) values('0001', 'replica')");
+            }
+
+            try (final var wrapper = DriverManager.getConnection(
+                    "jdbc:yupiik:statement-overriding-jdbc-driver:driver=" + Driver.class.getName() + ";" +
+                            "url=jdbc:h2:mem:routeReadsToReplica;" +
+                            "delegate.replica.url=jdbc:h2:mem:routeReadsToReplica_replica;" +
+                            "configuration=DriverTest.properties", "sa", "")) {
+                try (final var stmt = wrapper.prepareStatement("select id, name from report_users");
+                     final var set = stmt.executeQuery()) {
+                    assertEquals(Map.of("0001", "replica"), asMap(set));
+                }
+
+                // in a write transaction we stay on the primary
+                wrapper.setAutoCommit(false);
+                try (final var stmt = wrapper.prepareStatement("select id, name from report_users");
+                     final var set = stmt.executeQuery()) {
+                    assertEquals(Map.of("0001", "primary"), asMap(set));
+                }
+                wrapper.rollback();
+            }
+        }
+    }
+
+    @Test
+    void bulkhead() throws SQLException {
+        try (final var h2 = DriverManager.getConnection("jdbc:h2:mem:bulkhead", "sa", "")) {
+            seedUsers(h2);
+
+            try (final var wrapper = DriverManager.getConnection(
+                    "jdbc:yupiik:statement-overriding-jdbc-driver:driver=" + Driver.class.getName() + ";url=jdbc:h2:mem:bulkhead;configuration=DriverTest.properties", "sa", "");
+                 final var stmt = wrapper.prepareStatement("select id, name from some_users where name = ?")) {
+                stmt.setString(1, "user 1");
+
+                final var bulkhead = wrapper.unwrap(RewritingConnection.class).configuration().bulkheads().get("findLimitedUsers");
+                bulkhead.acquire(); // simulate a concurrent execution
+                try {
+                    assertEquals(1, bulkhead.inFlight());
+                    assertThrows(SQLTransientException.class, stmt::executeQuery);
+                    assertEquals(1, bulkhead.rejected());
+                } finally {
+                    bulkhead.release();
+                }
+
+                try (final var set = stmt.executeQuery()) {
+                    assertEquals(Map.of("0001", "user 1"), asMap(set));
+                }
+                assertEquals(0, bulkhead.inFlight());
+            }
+        }
+    }
+
+    @Test
+    void deadline() throws SQLException {
+        try (final var h2 = DriverManager.getConnection("jdbc:h2:mem:deadline", "sa", "")) {
+            seedUsers(h2);
+
+            try (final var wrapper = DriverManager.getConnection(
+                    "jdbc:yupiik:statement-overriding-jdbc-driver:driver=" + Driver.class.getName() + ";url=jdbc:h2:mem:deadline;configuration=DriverTest.properties", "sa", "");
+                 final var stmt = wrapper.prepareStatement("select id, name from some_users")) {
+                // rule max timeout
+                try (final var set = stmt.executeQuery()) {
+                    assertEquals(Map.of("0002", "user 2"), asMap(set));
+                }
+                assertEquals(30, stmt.getQueryTimeout());
+
+                // deadline is shorter
+                try (final var deadline = Deadline.in(Duration.ofSeconds(5));
+                     final var set = stmt.executeQuery()) {
+                    assertEquals(Map.of("0002", "user 2"), asMap(set));
+                    assertEquals(5, stmt.getQueryTimeout());
+                }
+
+                // deadline already exceeded
+                try (final var deadline = Deadline.in(Duration.ZERO)) {
+                    final var error = assertThrows(SQLTimeoutException.class, stmt::executeQuery);
+                    assertEquals("Deadline exceeded, skipping execution of 'findUsers'", error.getMessage());
+                }
+                assertNull(Deadline.current());
+            }
+        }
+    }
+
+    @Test
+    void async() throws Exception {
+        try (final var h2 = DriverManager.getConnection("jdbc:h2:mem:async", "sa", "")) {
+            seedUsers(h2);
+
+            try (final var wrapper = DriverManager.getConnection(
+                    "jdbc:yupiik:statement-overriding-jdbc-driver:driver=" + Driver.class.getName() + ";url=jdbc:h2:mem:async;configuration=DriverTest.properties;asyncThreads=2", "sa", "")) {
+                final var async = wrapper.unwrap(AsyncConnection.class);
+                final var rewritten = async.executeQueryAsync("select id, name from some_users");
+                final var update = async.executeUpdateAsync("insert into some_users(id, name) values(?, ?)", "0003", "user 3");
+                try (final var set = rewritten.get(1, MINUTES)) {
+                    assertEquals(Map.of("0002", "user 2"), asMap(set));
+                }
+                assertEquals(1, update.get(1, MINUTES));
+
+                try (final var stmt = wrapper.prepareStatement("select id, name from some_users");
+                     final var set = stmt.unwrap(AsyncPreparedStatement.class).executeQueryAsync().get(1, MINUTES)) {
+                    assertEquals(Map.of("0002", "user 2", "0003", "user 3"), asMap(set));
+                }
+            }
+        }
+    }
+
+    @Test
+    void asyncRemapsColumnsOnce() throws Exception {
+        try (final var h2 = DriverManager.getConnection("jdbc:h2:mem:asyncRemapsColumnsOnce", "sa", "")) {
+            seedUsers(h2);
+
+            try (final var wrapper = DriverManager.getConnection(
+                    "jdbc:yupiik:statement-overriding-jdbc-driver:driver=" + Driver.class.getName() + ";url=jdbc:h2:mem:asyncRemapsColumnsOnce;configuration=DriverTest.properties", "sa", "")) {
+                try (final var stmt = wrapper.prepareStatement("select id, name from some_users where id like ?")) {
+                    stmt.setString(1, "0002");
+                    try (final var set = stmt.executeQuery()) {
+                        assertSwapped(set);
+                    }
+                    try (final var set = stmt.unwrap(AsyncPreparedStatement.class).executeQueryAsync().get(1, MINUTES)) {
+                        assertSwapped(set);
+                    }
+                }
+                try (final var set = wrapper.unwrap(AsyncConnection.class)
+                        .executeQueryAsync("select id, name from some_users where id like ?", "0002")
+                        .get(1, MINUTES)) {
+                    assertSwapped(set);
+                }
+            }
+        }
+    }
+
+    @Test
+    void asyncExecutionsOfAConnectionAreSerialized() throws Exception {
+        try (final var h2 = DriverManager.getConnection("jdbc:h2:mem:asyncSerialized", "sa", "")) {
+            seedUsers(h2);
+
+            try (final var wrapper = DriverManager.getConnection(
+                    "jdbc:yupiik:statement-overriding-jdbc-driver:driver=" + Driver.class.getName() + ";url=jdbc:h2:mem:asyncSerialized;configuration=DriverTest.properties;asyncThreads=4", "sa", "")) {
+                final var async = wrapper.unwrap(AsyncConnection.class);
+                final var updates = new ArrayList<CompletableFuture<Integer>>();
+                for (int i = 3; i < 23; i++) {
+                    updates.add(async.executeUpdateAsync("insert into some_users(id, name) values(?, ?)", String.format("%04d", i), "user " + i));
+                }
+                // submitted after the inserts so it sees all of them
+                try (final var set = async.executeQueryAsync("select count(*), count(*) from some_users").get(1, MINUTES)) {
+                    assertEquals(Map.of("22", "22"), asMap(set));
+                }
+                for (final var update : updates) {
+                    assertTrue(update.isDone());
+                    assertEquals(1, update.get());
+                }
+            }
+        }
+    }
+
+    private void assertSwapped(final ResultSet set) throws SQLException {
+        assertTrue(set.next());
+        assertEquals("user 2", set.getString(1));
+        assertEquals("0002", set.getString(2));
+        assertEquals("user 2", set.getString("ID"));
+        assertEquals("0002", set.getString("NAME"));
+        assertFalse(set.next());
+    }
+
+    @Test
+    void singleFlight() throws Exception {
+        try (final var h2 = DriverManager.getConnection("jdbc:h2:mem:singleFlight", "sa", "")) {
+            seedUsers(h2);
+            try (final var stmt = h2.createStatement()) {
+                stmt.execute("create alias sleep for 'java.lang.Thread.sleep(long)'");
+            }
+
+            // a single wrapper connection to share the same configuration, each caller uses its own statement
+            try (final var wrapper = DriverManager.getConnection(
+                    "jdbc:yupiik:statement-overriding-jdbc-driver:driver=" + Driver.class.getName() + ";url=jdbc:h2:mem:singleFlight;configuration=DriverTest.properties", "sa", "")) {
+                final int callers = 4;
+                final var start = new CountDownLatch(1);
+                final var threads = Executors.newFixedThreadPool(callers);
+                try {
+                    final var results = new ArrayList<Future<Map<String, String>>>();
+                    for (int i = 0; i < callers; i++) {
+                        final var stmt = wrapper.prepareStatement("select id, name from some_users where name like ?");
+                        stmt.setString(1, "user 2");
+                        results.add(threads.submit(() -> {
+                            try (stmt) {
+                                start.await();
+                                try (final var set = stmt.executeQuery()) {
+                                    return asMap(set);
+                                }
+                            }
+                        }));
+                    }
+                    start.countDown();
+                    for (final var result : results) {
+                        assertEquals(Map.of("0002", "user 2"), result.get(1, MINUTES));
+                    }
+                } finally {
+                    threads.shutdownNow();
+                }
+
+                final var singleFlight = wrapper.unwrap(RewritingConnection.class).configuration().configurations().values().stream()
+                        .filter(it -> "findSlowUsers".equals(it.name()))
+                        .map(RewriteConfiguration.RewriteStatement::singleFlight)
+                        .findFirst()
+                        .orElseThrow();
+                assertEquals(callers, singleFlight.executions() + singleFlight.coalesced());
+                assertTrue(singleFlight.coalesced() > 0, () -> "executions=" + singleFlight.executions());
+            }
+        }
+    }
+
+    @Test
+    void singleFlightRemapsColumnsOnce() throws Exception {
+        try (final var h2 = DriverManager.getConnection("jdbc:h2:mem:singleFlightRemapsColumnsOnce", "sa", "")) {
+            seedUsers(h2);
+
+            try (final var wrapper = DriverManager.getConnection(
+                    "jdbc:yupiik:statement-overriding-jdbc-driver:driver=" + Driver.class.getName() + ";url=jdbc:h2:mem:singleFlightRemapsColumnsOnce;configuration=DriverTest.properties", "sa", "");
+                 final var stmt = wrapper.prepareStatement("select id, name from some_users where name like ? and id like ?")) {
+                stmt.setString(1, "user 2");
+                stmt.setString(2, "0002");
+                try (final var set = stmt.executeQuery()) {
+                    assertSwapped(set);
+                }
+                try (final var set = stmt.unwrap(AsyncPreparedStatement.class).executeQueryAsync().get(1, MINUTES)) {
+                    assertSwapped(set);
+                }
+
+                final var singleFlight = wrapper.unwrap(RewritingConnection.class).configuration().configurations().values().stream()
+                        .filter(it -> "findSharedSwappedUsers".equals(it.name()))
+                        .map(RewriteConfiguration.RewriteStatement::singleFlight)
+                        .findFirst()
+                        .orElseThrow();
+                assertEquals(2, singleFlight.executions());
+            }
+        }
+    }
+
+    @Test
+    void keyLoaderKeyBinding() throws Exception {
+        try (final var h2 = DriverManager.getConnection("jdbc:h2:mem:keyLoaderKeyBinding", "sa", "")) {
+            seedUsers(h2);
+
+            try (final var wrapper = DriverManager.getConnection(
+                    "jdbc:yupiik:statement-overriding-jdbc-driver:driver=" + Driver.class.getName() + ";url=jdbc:h2:mem:keyLoaderKeyBinding;configuration=DriverTest.properties", "sa", "");
+                 final var stmt = wrapper.prepareStatement("select id, name from some_users where name like ? and id = ?")) {
+                stmt.setString(1, "%");
+                stmt.setString(2, "0002");
+                try (final var set = stmt.executeQuery()) {
+                    assertEquals(Map.of("0002", "user 2"), asMap(set));
+                }
+
+                final var keyLoader = wrapper.unwrap(RewritingConnection.class).configuration().configurations().values().stream()
+                        .filter(it -> "findUserByNameAndId".equals(it.name()))
+                        .map(RewriteConfiguration.RewriteStatement::keyLoader)
+                        .findFirst()
+                        .orElseThrow();
+                assertEquals(1, keyLoader.lookups());
+                assertEquals(1, keyLoader.loads());
+            }
+        }
+    }
+
+    @Test
+    void keyLoader() throws Exception {
+        try (final var h2 = DriverManager.getConnection("jdbc:h2:mem:keyLoader", "sa", "")) {
+            seedUsers(h2);
+
+            try (final var wrapper = DriverManager.getConnection(
+                    "jdbc:yupiik:statement-overriding-jdbc-driver:driver=" + Driver.class.getName() + ";url=jdbc:h2:mem:keyLoader;configuration=DriverTest.properties", "sa", "")) {
+                final var start = new CountDownLatch(1);
+                final var threads = Executors.newFixedThreadPool(2);
+                try {
+                    final var results = new HashMap<String, Future<Map<String, String>>>();
+                    for (final var id : List.of("0001", "0002")) {
+                        final var stmt = wrapper.prepareStatement("select id, name from some_users where id = ?");
+                        stmt.setString(1, id);
+                        results.put(id, threads.submit(() -> {
+                            try (stmt) {
+                                start.await();
+                                try (final var set = stmt.executeQuery()) {
+                                    return asMap(set);
+                                }
+                            }
+                        }));
+                    }
+                    start.countDown();
+                    assertEquals(Map.of("0001", "user 1"), results.get("0001").get(1, MINUTES));
+                    assertEquals(Map.of("0002", "user 2"), results.get("0002").get(1, MINUTES));
+                } finally {
+                    threads.shutdownNow();
+                }
+
+                final var keyLoader = wrapper.unwrap(RewritingConnection.class).configuration().configurations().values().stream()
+                        .filter(it -> "findUserById".equals(it.name()))
+                        .map(RewriteConfiguration.RewriteStatement::keyLoader)
+                        .findFirst()
+                        .orElseThrow();
+                assertEquals(2, keyLoader.lookups());
+                assertEquals(1, keyLoader.loads());
+            }
+        }
+    }
+
+    @Test
+    void sharedConfiguration() throws SQLException {
+        final var url = "jdbc:yupiik:statement-overriding-jdbc-driver:driver=" + Driver.class.getName() + ";url=jdbc:h2:mem:sharedConfiguration;configuration=DriverTest.properties";
+        try (final var first = DriverManager.getConnection(url, "sa", "");
+             final var second = DriverManager.getConnection(url, "sa", "")) {
+            final var configuration = first.unwrap(RewritingConnection.class).configuration();
+            assertSame(configuration, second.unwrap(RewritingConnection.class).configuration());
+
+            assertTrue(io.yupiik.jdbc.overriding.Driver.invalidate(url));
+            try (final var third = DriverManager.getConnection(url, "sa", "")) {
+                assertNotSame(configuration, third.unwrap(RewritingConnection.class).configuration());
+            }
+        }
+    }
+
+    @Test
+    void hotReload(@TempDir final Path work) throws Exception {
+        final var configuration = work.resolve("hotReload.properties");
+        Files.writeString(configuration, "" +
+                "findUsers.sql.matching = select id, name from some_users\n" +
+                "findUsers.sql.replacing = select id, name from some_users where id = '0001'\n");
+        try (final var h2 = DriverManager.getConnection("jdbc:h2:mem:hotReload", "sa", "")) {
+            seedUsers(h2);
+
+            try (final var wrapper = DriverManager.getConnection(
+                    "jdbc:yupiik:statement-overriding-jdbc-driver:driver=" + Driver.class.getName() + ";url=jdbc:h2:mem:hotReload;" +
+                            "configuration=" + configuration + ";configurationReloadInterval=50", "sa", "")) {
+                try (final var stmt = wrapper.prepareStatement("select id, name from some_users");
+                     final var set = stmt.executeQuery()) {
+                    assertEquals(Map.of("0001", "user 1"), asMap(set));
+                }
+
+                final var initial = wrapper.unwrap(RewritingConnection.class).configuration();
+                Files.writeString(configuration, "" +
+                        "findUsers.sql.matching = select id, name from some_users\n" +
+                        "findUsers.sql.replacing = select id, name from some_users where id = '0002'\n");
+                Files.setLastModifiedTime(configuration, FileTime.fromMillis(System.currentTimeMillis() + 60_000));
+                final var end = System.nanoTime() + MINUTES.toNanos(1);
+                while (initial == wrapper.unwrap(RewritingConnection.class).configuration() && System.nanoTime() < end) {
+                    Thread.sleep(20);
+                }
+
+                try (final var stmt = wrapper.prepareStatement("select id, name from some_users");
+                     final var set = stmt.executeQuery()) {
+                    assertEquals(Map.of("0002", "user 2"), asMap(set));
+                }
+            }
+        }
+    }
+
+    @Test
+    void loadManyRules() {
+        final var properties = new Properties();
+        IntStream.range(0, 20_000).forEach(i -> {
+            properties.setProperty("rules.r" + i + ".sql.matching", "select " + i);
+            properties.setProperty("rules.r" + i + ".sql.replacing", "select " + (i + 1));
+            properties.setProperty("rules.r" + i + ".bindings.1", "2");
+        });
+        properties.setProperty("rules.r1", "false");
+
+        final var statements = new RewriteConfigurationLoader(true).load(properties);
+        assertEquals(20_000, statements.size());
+
+        final var statement = statements.get(new RewriteConfiguration.Sql("select 1", false, "select 1".hashCode()));
+        assertEquals("rules.r1", statement.name());
+        assertEquals("select 2", statement.replacement());
+        assertEquals(Map.of(1, 2), statement.bindingIndices());
+    }
+
+    @Test
+    void snapshot(@TempDir final Path work) throws Exception {
+        final var snapshot = work.resolve("DriverTest.rules");
+        RewriteSnapshot.main(
+                Path.of(requireNonNull(Thread.currentThread().getContextClassLoader().getResource("DriverTest.properties")).toURI()).toString(),
+                snapshot.toString());
+        try (final var h2 = DriverManager.getConnection("jdbc:h2:mem:snapshot", "sa", "")) {
+            seedUsers(h2);
+
+            try (final var wrapper = DriverManager.getConnection(
+                    "jdbc:yupiik:statement-overriding-jdbc-driver:driver=" + Driver.class.getName() + ";url=jdbc:h2:mem:snapshot;configuration=" + snapshot, "sa", "")) {
+                try (final var stmt = wrapper.prepareStatement("SELECT id, name FROM some_users");
+                     final var set = stmt.executeQuery()) {
+                    assertEquals(Map.of("0002", "user 2"), asMap(set));
+                }
+
+                final var configuration = wrapper.unwrap(RewritingConnection.class).configuration();
+                assertEquals(1, configuration.regexes().size());
+                assertEquals(Set.of("findLimitedUsers"), configuration.bulkheads().keySet());
+            }
+        }
+    }
+
+    @Test
+    void lazyRegexes() throws InterruptedException {
+        final var properties = new Properties();
+        properties.setProperty("any.sql.matching", "select (.+) from users");
+        properties.setProperty("any.sql.replacing", "select $1 from all_users");
+        properties.setProperty("any.type", "REGEX");
+        properties.setProperty("names.sql.matching", "select name from (.+)");
+        properties.setProperty("names.sql.replacing", "select name from $1_v2");
+        properties.setProperty("names.type", "REGEX");
+        properties.setProperty("names.priority", "10");
+
+        final var statements = new RewriteConfigurationLoader(false).load(properties);
+        final var configuration = new RewriteConfiguration(statements, statements, false, true);
+        assertEquals(List.of("names", "any"), configuration.regexes().stream().map(it -> it.statement().name()).collect(toList()));
+        assertEquals("select name from users_v2", configuration.tryRewriteUsingRegexes("select name from users").sql());
+
+        final var end = System.nanoTime() + MINUTES.toNanos(1);
+        while (!configuration.regexes().stream().allMatch(RewriteConfiguration.Regex::isCompiled) && System.nanoTime() < end) {
+            Thread.sleep(10);
+        }
+        assertTrue(configuration.regexes().stream().allMatch(RewriteConfiguration.Regex::isCompiled));
+    }
+
+    @Test
+    void multipleSources(@TempDir final Path work) throws Exception {
+        final var rules = Files.createDirectories(work.resolve("rules"));
+        Files.writeString(rules.resolve("users.properties"), "" +
+                "findUsers.sql.matching = select id, name from some_users\n" +
+                "findUsers.sql.replacing = select id, name from some_users where id = '0001'\n");
+        Files.writeString(rules.resolve("names.properties"), "" +
+                "findNames.sql.matching = select name from some_users\n" +
+                "findNames.sql.replacing = select name from some_users where id = '0002'\n");
+
+        final var sources = new RewriteConfigurationSources(getClass().getClassLoader(), rules.toString(), false, false);
+        final var initial = sources.load();
+        assertEquals(2, initial.configurations().size());
+        assertNull(sources.reload());
+
+        Files.writeString(rules.resolve("names.properties"), "" +
+                "findNames.sql.matching = select name from some_users\n" +
+                "findNames.sql.replacing = select name from some_users where id = '0001'\n");
+        Files.setLastModifiedTime(rules.resolve("names.properties"), FileTime.fromMillis(System.currentTimeMillis() + 60_000));
+        final var reloaded = sources.reload();
+        final var users = new RewriteConfiguration.Sql("select id, name from some_users", true, "select id, name from some_users".hashCode());
+        assertSame(initial.configurations().get(users), reloaded.configurations().get(users)); // not recompiled
+
+        Files.writeString(work.resolve("more.properties"), "" +
+                "findUsers.sql.matching = select id from some_users\n");
+        final var duplicated = new RewriteConfigurationSources(
+                getClass().getClassLoader(), rules + "/*.properties, " + work.resolve("more.properties"), false, false);
+        assertThrows(IllegalArgumentException.class, duplicated::load);
+    }
+
+    @Test
+    void missingFileKeepsItsRules(@TempDir final Path work) throws Exception {
+        final var users = work.resolve("users.properties");
+        final var names = work.resolve("names.properties");
+        Files.writeString(users, "" +
+                "findUsers.sql.matching = select id, name from some_users\n" +
+                "findUsers.sql.replacing = select id, name from some_users where id = '0001'\n");
+        Files.writeString(names, "" +
+                "findNames.sql.matching = select name from some_users\n");
+
+        final var logger = Logger.getLogger(RewriteConfigurationSources.class.getName());
+        final var warnings = new CopyOnWriteArrayList<String>();
+        final var handler = new Handler() {
+            @Override
+            public void publish(final LogRecord record) {
+                if (record.getLevel() == Level.WARNING) {
+                    warnings.add(record.getMessage());
+                }
+            }
+
+            @Override
+            public void flush() {
+                // no-op
+            }
+
+            @Override
+            public void close() {
+                flush();
+            }
+        };
+        logger.addHandler(handler);
+        try {
+            final var sources = new RewriteConfigurationSources(getClass().getClassLoader(), users + "," + names, false, false);
+            assertEquals(2, sources.load().configurations().size());
+
+            // being replaced (or deleted by mistake): the rules are kept and not looked up in the classpath
+            Files.delete(users);
+            assertNull(sources.reload());
+            assertNull(sources.reload());
+            assertEquals(List.of("Configuration file '" + users + "' is missing, keeping its previous rules"), warnings);
+
+            Files.writeString(names, "" +
+                    "findNames.sql.matching = select name from some_users\n" +
+                    "findNames.sql.replacing = select name from some_users where id = '0001'\n");
+            Files.setLastModifiedTime(names, FileTime.fromMillis(System.currentTimeMillis() + 60_000));
+            final var reloaded = sources.reload();
+            assertEquals(2, reloaded.configurations().size());
+            assertEquals("select id, name from some_users where id = '0001'", reloaded.match("select id, name from some_users").sql());
+
+            Files.writeString(users, "" +
+                    "findUsers.sql.matching = select id, name from some_users\n" +
+                    "findUsers.sql.replacing = select id, name from some_users where id = '0002'\n");
+            Files.setLastModifiedTime(users, FileTime.fromMillis(System.currentTimeMillis() + 120_000));
+            assertEquals("select id, name from some_users where id = '0002'", sources.reload().match("select id, name from some_users").sql());
+        } finally {
+            logger.removeHandler(handler);
+        }
+    }
+
+    @Test
+    void dataSource() throws SQLException {
+        try (final var h2 = DriverManager.getConnection("jdbc:h2:mem:dataSource", "sa", "");
+             final var dataSource = new RewritingDataSource()) {
+            seedUsers(h2);
+
+            dataSource.setUrl("jdbc:yupiik:statement-overriding-jdbc-driver:driver=" + Driver.class.getName() + ";url=jdbc:h2:mem:dataSource;configuration=DriverTest.properties");
+            dataSource.setUsername("sa");
+            dataSource.setPassword("");
+            dataSource.setMaxSize(1);
+            dataSource.setConnectionTimeout(100);
+            for (int i = 0; i < 2; i++) {
+                try (final var connection = dataSource.getConnection();
+                     final var stmt = connection.prepareStatement("select id, name from some_users");
+                     final var set = stmt.executeQuery()) {
+                    assertEquals(Map.of("0002", "user 2"), asMap(set));
+                    assertEquals(1, dataSource.getActiveConnections());
+                    assertThrows(SQLTransientException.class, dataSource::getConnection);
+                }
+            }
+            assertEquals(0, dataSource.getActiveConnections());
+            assertEquals(1, dataSource.getIdleConnections());
+            assertEquals(2, dataSource.getBorrowedCount());
+            assertEquals(1, dataSource.getCreatedCount());
+            assertEquals(2, dataSource.getTimeoutCount());
+        }
+    }
+
+    @Test
+    void lazyConnection() throws SQLException {
+        try (final var h2 = DriverManager.getConnection("jdbc:h2:mem:lazyConnection", "sa", "")) {
+            seedUsers(h2);
+
+            try (final var wrapper = DriverManager.getConnection(
+                    "jdbc:yupiik:statement-overriding-jdbc-driver:driver=" + Driver.class.getName() + ";url=jdbc:h2:mem:lazyConnection;" +
+                            "configuration=DriverTest.properties;lazyConnection=true", "sa", "")) {
+                final var lazy = wrapper.unwrap(LazyConnection.class);
+                wrapper.setAutoCommit(false);
+                assertFalse(wrapper.getAutoCommit());
+                wrapper.commit();
+                assertFalse(lazy.isOpened());
+
+                try (final var stmt = wrapper.prepareStatement("select id, name from some_users");
+                     final var set = stmt.executeQuery()) {
+                    assertEquals(Map.of("0002", "user 2"), asMap(set));
+                }
+                assertTrue(lazy.isOpened());
+                assertFalse(wrapper.unwrap(JdbcConnection.class).getAutoCommit());
+            }
+        }
+    }
+
+    @Test
+    void lazyConnectionDoesNotGuessTheState() throws SQLException {
+        try (final var h2 = DriverManager.getConnection("jdbc:h2:mem:lazyConnectionState", "sa", "")) {
+            // the driver defaults are not the JDBC ones so they must be read from the physical connection
+            try (final var wrapper = DriverManager.getConnection(
+                    "jdbc:yupiik:statement-overriding-jdbc-driver:driver=" + Driver.class.getName() + ";" +
+                            "url=jdbc:h2:mem:lazyConnectionState$semicolonAUTOCOMMIT=FALSE;lazyConnection=true", "sa", "")) {
+                final var lazy = wrapper.unwrap(LazyConnection.class);
+                assertTrue(wrapper.isValid(1));
+                assertFalse(lazy.isOpened());
+
+                assertFalse(wrapper.getAutoCommit());
+                assertTrue(lazy.isOpened());
+                assertTrue(wrapper.isValid(1));
+            }
+
+            // recorded values don't need the physical connection
+            try (final var wrapper = DriverManager.getConnection(
+                    "jdbc:yupiik:statement-overriding-jdbc-driver:driver=" + Driver.class.getName() + ";" +
+                            "url=jdbc:h2:mem:lazyConnectionState;lazyConnection=true", "sa", "")) {
+                final var lazy = wrapper.unwrap(LazyConnection.class);
+                wrapper.setAutoCommit(false);
+                wrapper.setReadOnly(true);
+                assertFalse(wrapper.getAutoCommit());
+                assertTrue(wrapper.isReadOnly());
+                assertFalse(lazy.isOpened());
+
+                wrapper.close();
+                assertFalse(wrapper.isValid(1));
+            }
+        }
+    }
+
+    @Test
+    void lazyConnectionRoutedToReplica() throws SQLException {
+        try (final var primary = DriverManager.getConnection("jdbc:h2:mem:lazyReplica", "sa", "");
+             final var replica = DriverManager.getConnection("jdbc:h2:mem:lazyReplica_replica", "sa", "")) {
+            try (final var stmt = replica.createStatement()) {
+                stmt.execute("create table report_users(id varchar(16), name varchar(255))");
+                stmt.execute("insert into report_users(id, name) values('0001', 'replica')");
+            }
+
+            try (final var wrapper = DriverManager.getConnection(
+                    "jdbc:yupiik:statement-overriding-jdbc-driver:driver=" + Driver.class.getName() + ";" +
+                            "url=jdbc:h2:mem:lazyReplica;delegate.replica.url=jdbc:h2:mem:lazyReplica_replica;" +
+                            "configuration=DriverTest.properties;lazyConnection=true", "sa", "");
+                 final var stmt = wrapper.prepareStatement("select id, name from report_users");
+                 final var set = stmt.executeQuery()) {
+                assertEquals(Map.of("0001", "replica"), asMap(set));
+                assertFalse(wrapper.unwrap(LazyConnection.class).isOpened()); // no transaction can be pending on the primary
+            }
+        }
+    }
+
+    @Test
+    void connectionStateCaching() throws SQLException {
+        try (final var h2 = DriverManager.getConnection("jdbc:h2:mem:connectionStateCaching", "sa", "")) {
+            try (final var stmt = h2.createStatement()) {
+                stmt.execute("create schema other");
+            }
+
+            try (final var wrapper = DriverManager.getConnection(
+                    "jdbc:yupiik:statement-overriding-jdbc-driver:driver=" + Driver.class.getName() + ";url=jdbc:h2:mem:connectionStateCaching;" +
+                            "configuration=DriverTest.properties;connectionStateCaching=true", "sa", "")) {
+                assertEquals("PUBLIC", wrapper.getSchema());
+                wrapper.unwrap(JdbcConnection.class).setSchema("OTHER"); // bypasses the wrapper so not seen
+                assertEquals("PUBLIC", wrapper.getSchema());
+
+                try (final var stmt = wrapper.createStatement()) {
+                    stmt.execute("SET SCHEMA PUBLIC");
+                }
+                assertEquals("PUBLIC", wrapper.unwrap(JdbcConnection.class).getSchema());
+                try (final var stmt = wrapper.prepareStatement("set schema other")) {
+                    stmt.execute();
+                }
+                assertEquals("OTHER", wrapper.getSchema());
+
+                // a matched statement rewritten to a state change
+                try (final var stmt = wrapper.prepareStatement("use reporting schema")) {
+                    stmt.execute();
+                }
+                assertEquals("PUBLIC", wrapper.getSchema());
+            }
+
+            // disabled by default
+            try (final var wrapper = DriverManager.getConnection(
+                    "jdbc:yupiik:statement-overriding-jdbc-driver:driver=" + Driver.class.getName() + ";url=jdbc:h2:mem:connectionStateCaching", "sa", "")) {
+                assertEquals("PUBLIC", wrapper.getSchema());
+                wrapper.unwrap(JdbcConnection.class).setSchema("OTHER");
+                assertEquals("OTHER", wrapper.getSchema());
+            }
+        }
+    }
+
+    @Test
+    void metaDataCache() throws SQLException {
+        try (final var h2 = DriverManager.getConnection("jdbc:h2:mem:metaDataCache", "sa", "")) {
+            seedUsers(h2);
+
+            final var url = "jdbc:yupiik:statement-overriding-jdbc-driver:driver=" + Driver.class.getName() + ";url=jdbc:h2:mem:metaDataCache;metaDataCacheTtl=60000";
+            try (final var first = DriverManager.getConnection(url, "sa", "");
+                 final var second = DriverManager.getConnection(url, "sa", "")) {
+                assertEquals(1, countTables(first));
+
+                try (final var stmt = h2.createStatement()) {
+                    stmt.execute("create table other_users(id varchar(16))");
+                }
+                assertEquals(1, countTables(second)); // shared cache
+
+                second.getMetaData().unwrap(CachingDatabaseMetaData.class).invalidate();
+                assertEquals(2, countTables(first));
+            }
+        }
+    }
+
+    @Test
+    void metrics() throws Exception {
+        try (final var h2 = DriverManager.getConnection("jdbc:h2:mem:metrics", "sa", "")) {
+            seedUsers(h2);
+            try (final var stmt = h2.createStatement()) {
+                stmt.execute("alter table some_users add column type varchar(16)");
+            }
+
+            final var url = "jdbc:yupiik:statement-overriding-jdbc-driver:driver=" + Driver.class.getName() + ";url=jdbc:h2:mem:metrics;configuration=DriverTest.properties;metrics=true;metricsName=test";
+            try (final var wrapper = DriverManager.getConnection(url, "sa", "")) {
+                try (final var stmt = wrapper.prepareStatement("select id, name from some_users");
+                     final var set = stmt.executeQuery()) {
+                    assertEquals(Map.of("0002", "user 2"), asMap(set));
+                }
+                try (final var stmt = wrapper.prepareStatement("insert into some_users(id, name, type) values(?, ?, ?)")) {
+                    for (int i = 3; i < 5; i++) {
+                        stmt.setString(1, "000" + i);
+                        stmt.setString(2, "user " + i);
+                        stmt.setString(3, "batch");
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+                }
+                try (final var stmt = wrapper.prepareStatement("select count(*) from some_users")) { // not rewritten
+                    stmt.executeQuery().close();
+                }
+
+                final var server = ManagementFactory.getPlatformMBeanServer();
+                final var findUsers = new ObjectName("io.yupiik.jdbc:type=Rule,registry=\"test\",name=\"findUsers\"");
+                assertEquals(1L, server.getAttribute(findUsers, "Matches"));
+                assertTrue((Double) server.getAttribute(findUsers, "MatchMeanNanos") > 0);
+                assertTrue((Long) server.getAttribute(findUsers, "MatchP99Nanos") > 0);
+                assertEquals(1L, server.getAttribute(findUsers, "Executions"));
+                assertEquals(1L, server.getAttribute(findUsers, "RowsRead"));
+                assertEquals(0L, server.getAttribute(findUsers, "Errors"));
+
+                final var insert = new ObjectName("io.yupiik.jdbc:type=Rule,registry=\"test\",name=\"insertUserWithTYpe\"");
+                assertEquals(1L, server.getAttribute(insert, "Batches"));
+                assertEquals(2L, server.getAttribute(insert, "BatchedRows"));
+
+                final var registry = new ObjectName("io.yupiik.jdbc:type=Registry,registry=\"test\"");
+                assertEquals(1L, server.getAttribute(registry, "Misses"));
+                assertEquals(Set.of("findUsers", "insertUserWithTYpe"), server.getAttribute(registry, "Rules"));
+
+                assertTrue(io.yupiik.jdbc.overriding.Driver.invalidate(url));
+                assertFalse(server.isRegistered(registry));
+                assertFalse(server.isRegistered(findUsers));
+            }
+        }
+    }
+
+    @Test
+    void flightRecorderEvents(@TempDir final Path work) throws Exception {
+        try (final var h2 = DriverManager.getConnection("jdbc:h2:mem:flightRecorderEvents", "sa", "")) {
+            seedUsers(h2);
+
+            final var dump = work.resolve("events.jfr");
+            try (final var recording = new Recording()) {
+                Stream.of("ConfigurationLoad", "RuleMatch", "BindReplay", "Execute", "ResultSetIteration")
+                        .forEach(it -> recording.enable("io.yupiik.jdbc." + it).withThreshold(Duration.ZERO));
+                recording.start();
+                try (final var wrapper = DriverManager.getConnection(
+                        "jdbc:yupiik:statement-overriding-jdbc-driver:driver=" + Driver.class.getName() + ";url=jdbc:h2:mem:flightRecorderEvents;configuration=DriverTest.properties", "sa", "");
+                     final var stmt = wrapper.prepareStatement("select id, name from some_users");
+                     final var set = stmt.executeQuery()) {
+                    assertEquals(Map.of("0002", "user 2"), asMap(set));
+                }
+                recording.stop();
+                recording.dump(dump);
+            }
+
+            final var events = RecordingFile.readAllEvents(dump).stream()
+                    .collect(groupingBy(it -> it.getEventType().getName().substring("io.yupiik.jdbc.".length())));
+            assertEquals(Set.of("ConfigurationLoad", "RuleMatch", "BindReplay", "Execute", "ResultSetIteration"), events.keySet());
+
+            final var match = events.get("RuleMatch").get(0);
+            assertEquals("findUsers", match.getString("rule"));
+            assertEquals("PLAIN", match.getString("outcome"));
+            assertTrue(events.get("Execute").get(0).getBoolean("success"));
+            assertEquals(1L, events.get("ResultSetIteration").get(0).getLong("rows"));
+        }
+    }
+
+    @Test
+    void statistics(@TempDir final Path work) throws Exception {
+        assertEquals(
+                "select * from t where a = ? and b in (?, ...) and \"C\" = ?",
+                SqlFingerprint.of("SELECT *  FROM t -- comment\n WHERE a = 'it''s' AND b IN (1, 2, 3) and \"C\" = 1.5"));
+
+        try (final var h2 = DriverManager.getConnection("jdbc:h2:mem:statistics", "sa", "")) {
+            seedUsers(h2);
+
+            final var dump = work.resolve("statistics.tsv");
+            try (final var wrapper = DriverManager.getConnection(
+                    "jdbc:yupiik:statement-overriding-jdbc-driver:driver=" + Driver.class.getName() + ";url=jdbc:h2:mem:statistics;configuration=DriverTest.properties;" +
+                            "statistics=true;statisticsMaxEntries=3;statisticsDump=" + dump + ";statisticsDumpInterval=50", "sa", "")) {
+                for (int i = 0; i < 3; i++) {
+                    try (final var stmt = wrapper.prepareStatement("select id, name from some_users");
+                         final var set = stmt.executeQuery()) {
+                        assertEquals(Map.of("0002", "user 2"), asMap(set));
+                    }
+                }
+                try (final var stmt = wrapper.createStatement()) {
+                    for (final var id : List.of("0001", "0002")) {
+                        try (final var set = stmt.executeQuery("select name from some_users where id = '" + id + "'")) {
+                            assertTrue(set.next());
+                        }
+                    }
+                    assertEquals(1, stmt.executeUpdate("update some_users set name = 'user 1' where id = '0001'"));
+                    assertThrows(SQLException.class, () -> stmt.executeQuery("select missing from some_users"));
+                }
+
+                final var statistics = wrapper.unwrap(RewritingConnection.class).statistics();
+                final var snapshot = statistics.snapshot().stream()
+                        .collect(toMap(StatementStatistics.Snapshot::getFingerprint, identity()));
+                // 4 fingerprints for 3 entries: the least called one was replaced by the last one
+                assertEquals(Set.of(
+                        "select id, name from some_users",
+                        "select name from some_users where id = ?",
+                        "select missing from some_users"), snapshot.keySet());
+
+                final var rewritten = snapshot.get("select id, name from some_users");
+                assertEquals(3, rewritten.getCalls());
+                assertEquals(3, rewritten.getRows());
+                assertEquals(2, snapshot.get("select name from some_users where id = ?").getCalls());
+
+                final var failing = snapshot.get("select missing from some_users");
+                assertEquals(2, failing.getCalls()); // inherited the count of the evicted update
+                assertEquals(1, failing.getCallsOverestimation());
+                assertEquals(1, failing.getErrors());
+
+                for (int i = 0; i < 100 && !Files.exists(dump); i++) {
+                    Thread.sleep(50);
+                }
+                final var lines = Files.readAllLines(dump);
+                assertEquals(4, lines.size());
+                assertTrue(lines.get(0).startsWith("calls\t"), lines::toString);
+
+                statistics.reset();
+                assertTrue(statistics.snapshot().isEmpty());
+            }
+        }
+    }
+
+    @Test
+    void slowStatementLog() throws Exception {
+        final var records = new ArrayList<String>();
+        final var logged = new CountDownLatch(1);
+        final var handler = new Handler() {
+            @Override
+            public void publish(final LogRecord record) {
+                synchronized (records) {
+                    records.add(record.getMessage());
+                }
+                logged.countDown();
+            }
+
+            @Override
+            public void flush() {
+                // no-op
+            }
+
+            @Override
+            public void close() {
+                flush();
+            }
+        };
+        final var logger = Logger.getLogger(SlowStatementLog.LOGGER_NAME);
+        logger.addHandler(handler);
+        try (final var h2 = DriverManager.getConnection("jdbc:h2:mem:slowStatementLog", "sa", "")) {
+            seedUsers(h2);
+            try (final var stmt = h2.createStatement()) {
+                stmt.execute("alter table some_users add column type varchar(16)");
+                stmt.execute("update some_users set type = 'secret' where id = '0002'");
+            }
+
+            try (final var wrapper = DriverManager.getConnection(
+                    "jdbc:yupiik:statement-overriding-jdbc-driver:driver=" + Driver.class.getName() + ";url=jdbc:h2:mem:slowStatementLog;configuration=DriverTest.properties;" +
+                            "slowStatementThreshold=0;slowStatementMask=2;slowStatementMaxValueLength=2", "sa", "");
+                 final var stmt = wrapper.prepareStatement("select id, name from some_users where id like ? and type = ?")) {
+                stmt.setString(1, "000%");
+                stmt.setString(2, "secret");
+                try (final var set = stmt.executeQuery()) {
+                    assertEquals(Map.of("0002", "user 2"), asMap(set));
+                }
+            }
+
+            assertTrue(logged.await(1, MINUTES));
+            synchronized (records) {
+                assertEquals(1, records.size(), records::toString);
+                assertTrue(records.get(0).matches("Slow statement \\(\\d+ms, 1 rows\\) rule='findUsersByType', " +
+                        "sql='select id, name from some_users where id like \\? and type = \\?', " +
+                        "rewritten='select id, name from some_users where type = \\? and id like \\?', " +
+                        "bindings=\\[1=\\*\\*\\*, 2='00\\.\\.\\.'\\]"), records::toString);
+            }
+        } finally {
+            logger.removeHandler(handler);
+        }
+    }
+
+    @Test
+    void invalidatedUrlStaysUsableByOpenConnections() throws Exception {
+        final var logged = new CountDownLatch(1);
+        final var handler = new Handler() {
+            @Override
+            public void publish(final LogRecord record) {
+                logged.countDown();
+            }
+
+            @Override
+            public void flush() {
+                // no-op
+            }
+
+            @Override
+            public void close() {
+                flush();
+            }
+        };
+        final var logger = Logger.getLogger(SlowStatementLog.LOGGER_NAME);
+        try (final var h2 = DriverManager.getConnection("jdbc:h2:mem:invalidatedUrl", "sa", "")) {
+            seedUsers(h2);
+
+            final var url = "jdbc:yupiik:statement-overriding-jdbc-driver:driver=" + Driver.class.getName() + ";url=jdbc:h2:mem:invalidatedUrl;configuration=DriverTest.properties;" +
+                    "slowStatementThreshold=0;metrics=true;metricsName=invalidatedUrl";
+            try (final var wrapper = DriverManager.getConnection(url, "sa", "")) {
+                assertTrue(io.yupiik.jdbc.overriding.Driver.invalidate(url));
+
+                // the slow log of the connection is still running
+                logger.addHandler(handler);
+                try (final var stmt = wrapper.prepareStatement("select id, name from some_users");
+                     final var set = stmt.executeQuery()) {
+                    assertEquals(Map.of("0002", "user 2"), asMap(set));
+                }
+                assertTrue(logged.await(1, MINUTES));
+                assertEquals(1, wrapper.unwrap(RewritingConnection.class).metrics().rules().get("findUsers").getExecutions());
+
+                // JMX names are released for the next connections of the URL
+                try (final var next = DriverManager.getConnection(url, "sa", "")) {
+                    assertNotSame(wrapper.unwrap(RewritingConnection.class).metrics(), next.unwrap(RewritingConnection.class).metrics());
+                    assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(
+                            new ObjectName("io.yupiik.jdbc:type=Registry,registry=\"invalidatedUrl\"")));
+                }
+            } finally {
+                logger.removeHandler(handler);
+                io.yupiik.jdbc.overriding.Driver.invalidate(url);
+            }
+        }
+    }
+
+    @Test
+    void executionListener(@TempDir final Path work) throws Exception {
+        final var services = Files.createDirectories(work.resolve("META-INF/services"));
+        Files.writeString(services.resolve(ExecutionListener.class.getName()), RecordingListener.class.getName());
+
+        RecordingListener.EVENTS.clear();
+        final var thread = Thread.currentThread();
+        final var contextLoader = thread.getContextClassLoader();
+        try (final var h2 = DriverManager.getConnection("jdbc:h2:mem:executionListener", "sa", "");
+             final var loader = new URLClassLoader(new URL[]{work.toUri().toURL()}, DriverTest.class.getClassLoader())) {
+            seedUsers(h2);
+
+            thread.setContextClassLoader(loader); // listeners are loaded with the context loader
+            try (final var wrapper = DriverManager.getConnection(
+                    "jdbc:yupiik:statement-overriding-jdbc-driver:driver=" + Driver.class.getName() + ";url=jdbc:h2:mem:executionListener;configuration=DriverTest.properties", "sa", "")) {
+                thread.setContextClassLoader(contextLoader);
+                try (final var stmt = wrapper.prepareStatement("select id, name from some_users");
+                     final var set = stmt.executeQuery()) {
+                    assertEquals(Map.of("0002", "user 2"), asMap(set));
+                }
+                try (final var stmt = wrapper.prepareStatement("select count(*) from some_users")) {
+                    stmt.executeQuery().close();
+                }
+                try (final var stmt = wrapper.createStatement()) {
+                    stmt.executeQuery("select 1").close();
+                    assertThrows(SQLException.class, () -> stmt.execute("select * from missing_table"));
+                }
+            }
+        } finally {
+            thread.setContextClassLoader(contextLoader);
+        }
+
+        assertEquals(List.of(
+                "connect",
+                "prepare(select id, name from some_users)",
+                "match(select id, name from some_users, select id, name from some_users where id <> '0001', findUsers)",
+                "before(select id, name from some_users where id <> '0001', findUsers)",
+                "after(context, null)",
+                "prepare(select count(*) from some_users)",
+                "match(select count(*) from some_users, null, null)",
+                "before(select count(*) from some_users, null)",
+                "after(context, null)",
+                "before(select 1, null)",
+                "after(context, null)",
+                "before(select * from missing_table, null)",
+                "after(context, JdbcSQLSyntaxErrorException)",
+                "close"), RecordingListener.EVENTS);
+    }
+
+    @Test
+    void failingExecutionListener(@TempDir final Path work) throws Exception {
+        final var services = Files.createDirectories(work.resolve("META-INF/services"));
+        Files.writeString(services.resolve(ExecutionListener.class.getName()), FailingListener.class.getName());
+
+        final var logger = Logger.getLogger("io.yupiik.jdbc.overriding.ExecutionListeners");
+        final var records = new CopyOnWriteArrayList<LogRecord>();
+        final var handler = new Handler() {
+            @Override
+            public void publish(final LogRecord record) {
+                records.add(record);
+            }
+
+            @Override
+            public void flush() {
+                // no-op
+            }
+
+            @Override
+            public void close() {
+                flush();
+            }
+        };
+        logger.addHandler(handler);
+
+        final var thread = Thread.currentThread();
+        final var contextLoader = thread.getContextClassLoader();
+        try (final var h2 = DriverManager.getConnection("jdbc:h2:mem:failingExecutionListener", "sa", "");
+             final var loader = new URLClassLoader(new URL[]{work.toUri().toURL()}, DriverTest.class.getClassLoader())) {
+            seedUsers(h2);
+
+            thread.setContextClassLoader(loader);
+            try (final var wrapper = DriverManager.getConnection(
+                    "jdbc:yupiik:statement-overriding-jdbc-driver:driver=" + Driver.class.getName() + ";url=jdbc:h2:mem:failingExecutionListener;configuration=DriverTest.properties", "sa", "")) {
+                thread.setContextClassLoader(contextLoader);
+                try (final var stmt = wrapper.prepareStatement("select id, name from some_users");
+                     final var set = stmt.executeQuery()) {
+                    assertEquals(Map.of("0002", "user 2"), asMap(set));
+                }
+                try (final var stmt = wrapper.createStatement()) {
+                    // the original error is propagated, not the listener one
+                    final var error = assertThrows(SQLException.class, () -> stmt.execute("select * from missing_table"));
+                    assertTrue(error.getMessage().contains("MISSING_TABLE"), error::getMessage);
+                }
+            }
+        } finally {
+            thread.setContextClassLoader(contextLoader);
+            logger.removeHandler(handler);
+        }
+
+        assertEquals(
+                List.of("onConnect", "onPrepare", "onMatch", "beforeExecute", "afterExecute", "beforeExecute", "afterExecute", "onClose"),
+                records.stream()
+                        .filter(it -> it.getLevel() == Level.WARNING)
+                        .map(it -> it.getMessage().substring(it.getMessage().indexOf(" failed in ") + " failed in ".length(), it.getMessage().indexOf(':')))
+                        .collect(toList()));
+    }
+
+    public static class FailingListener implements ExecutionListener {
+        @Override
+        public void onConnect(final Connection connection) {
+            throw new IllegalStateException("connect");
+        }
+
+        @Override
+        public void onPrepare(final String sql) {
+            throw new IllegalStateException("prepare");
+        }
+
+        @Override
+        public void onMatch(final String originalSql, final String rewrittenSql, final String rule) {
+            throw new IllegalStateException("match");
+        }
+
+        @Override
+        public Object beforeExecute(final String originalSql, final String rewrittenSql, final String rule) {
+            throw new IllegalStateException("before");
+        }
+
+        @Override
+        public void afterExecute(final Object context, final Throwable error) {
+            throw new IllegalStateException("after");
+        }
+
+        @Override
+        public void onClose(final Connection connection) {
+            throw new IllegalStateException("close");
+        }
+    }
+
+    public static class RecordingListener implements ExecutionListener {
+        private static final List<String> EVENTS = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onConnect(final Connection connection) {
+            EVENTS.add("connect");
+        }
+
+        @Override
+        public void onPrepare(final String sql) {
+            EVENTS.add("prepare(" + sql + ")");
+        }
+
+        @Override
+        public void onMatch(final String originalSql, final String rewrittenSql, final String rule) {
+            EVENTS.add("match(" + originalSql + ", " + rewrittenSql + ", " + rule + ")");
+        }
+
+        @Override
+        public Object beforeExecute(final String originalSql, final String rewrittenSql, final String rule) {
+            EVENTS.add("before(" + rewrittenSql + ", " + rule + ")");
+            return "context";
+        }
+
+        @Override
+        public void afterExecute(final Object context, final Throwable error) {
+            EVENTS.add("after(" + context + ", " + (error == null ? null : error.getClass().getSimpleName()) + ")");
+        }
+
+        @Override
+        public void onClose(final Connection connection) {
+            EVENTS.add("close");
+        }
+    }
+
+    @Test
+    void explain() throws Exception {
+        final var url = "jdbc:yupiik:statement-overriding-jdbc-driver:driver=" + Driver.class.getName() + ";url=jdbc:h2:mem:explain;configuration=DriverTest.properties;explainJmx=true;metricsName=explain";
+        try (final var wrapper = DriverManager.getConnection(url, "sa", "")) {
+            final var explainer = wrapper.unwrap(RewriteExplainer.class);
+
+            final var plain = explainer.explain(" select id, name from some_users where id like ? and type = ?");
+            assertTrue(plain.isMatched());
+            assertEquals("findUsersByType", plain.rule().name());
+            assertEquals("select id, name from some_users where type = ? and id like ?", plain.rewrittenSql());
+            // rules are case insensitive by default
+            assertEquals(List.of(RewriteExplanation.Phase.EXACT, RewriteExplanation.Phase.CASE_INSENSITIVE), plain.steps().stream().map(RewriteExplanation.Step::phase).collect(toList()));
+            assertEquals(Map.of(1, 2, 2, 1), plain.rule().bindingIndices());
+
+            final var regex = explainer.explain("select foo as id, bar as name from some_users where id = ? and type = ?");
+            assertEquals("findUsersByType2", regex.rule().name());
+            assertEquals(
+                    List.of(RewriteExplanation.Phase.EXACT, RewriteExplanation.Phase.CASE_INSENSITIVE, RewriteExplanation.Phase.REGEX),
+                    regex.steps().stream().map(RewriteExplanation.Step::phase).collect(toList()));
+            assertTrue(regex.steps().get(2).matched());
+
+            final var miss = explainer.explain("select 1");
+            assertFalse(miss.isMatched());
+            assertNull(miss.rewrittenSql());
+
+            final var report = (String) ManagementFactory.getPlatformMBeanServer().invoke(
+                    new ObjectName("io.yupiik.jdbc:type=Explain,registry=\"explain\""), "explain",
+                    new Object[]{"select id, name from some_users"}, new String[]{String.class.getName()});
+            assertTrue(report.contains("Rule: findUsers (PLAIN, "), report);
+            assertTrue(report.contains("Rewritten SQL: select id, name from some_users where id <> '0001'"), report);
+        } finally {
+            io.yupiik.jdbc.overriding.Driver.invalidate(url);
+        }
+    }
+
     @Test
     void noopStatement() throws SQLException {
         try (final var h2 = DriverManager.getConnection("jdbc:h2:mem:rewriteStatement", "sa", "")) {
@@ -194,39 +1386,4 @@ class DriverTest {
             }
         }
     }
-
-    private Map<String, String> asMap(final ResultSet set) {
-        return StreamSupport.stream(
-                        Spliterators.spliteratorUnknownSize(
-                                new Iterator<String[]>() {
-                                    @Override
-                                    public boolean hasNext() {
-                                        try {
-                                            return set.next();
-                                        } catch (final SQLException e) {
-                                            throw new IllegalStateException(e);
-                                        }
-                                    }
-
-                                    @Override
-                                    public String[] next() {
-                                        try {
-                                            return new String[]{set.getString(1), set.getString(2)};
-                                        } catch (final SQLException e) {
-                                            throw new IllegalStateException(e);
-                                        }
-                                    }
-                                },
-                                Spliterator.IMMUTABLE),
-                        false)
-                .collect(toMap(i -> i[0], i -> i[1]));
-    }
-
-    private void seedUsers(final Connection h2) throws SQLException {
-        try (final var stmt = h2.createStatement()) {
-            stmt.execute("create table some_users(id varchar(16), name varchar(255))");
-            stmt.execute("insert into some_users(id, name) values('0001', 'user 1')");
-            stmt.execute("insert into some_users(id, name) values('0002', 'user 2')");
-        }
-    }
 }
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding;
+
+import io.yupiik.jdbc.overriding.rewrite.CachingDatabaseMetaData;
+import io.yupiik.jdbc.overriding.rewrite.MetaDataCache;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import static io.yupiik.jdbc.overriding.Databases.seedUsers;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MetaDataCacheTest {
+    @Test
+    void expires() throws Exception {
+        try (final var h2 = DriverManager.getConnection("jdbc:h2:mem:metaDataCacheExpires", "sa", "")) {
+            seedUsers(h2);
+
+            final var cache = new MetaDataCache(200, 16);
+            final var metaData = metaData(h2, cache, "sa");
+            assertEquals(1, countTables(metaData));
+
+            createTable(h2, "expired_users");
+            assertEquals(1, countTables(metaData));
+            assertEquals(1, cache.size());
+
+            Thread.sleep(300);
+            assertEquals(2, countTables(metaData));
+        }
+    }
+
+    @Test
+    void boundedEntries() throws SQLException {
+        try (final var h2 = DriverManager.getConnection("jdbc:h2:mem:metaDataCacheBounded", "sa", "")) {
+            seedUsers(h2);
+
+            final var cache = new MetaDataCache(60_000, 2);
+            final var metaData = metaData(h2, cache, "sa");
+            assertEquals(1, count(metaData.getTables(null, "PUBLIC", "SOME_USERS", null)));
+            assertEquals(2, count(metaData.getColumns(null, "PUBLIC", "SOME_USERS", null)));
+            assertEquals(2, cache.size());
+
+            // full and nothing expired so loaded but not cached
+            createTable(h2, "uncached_users");
+            assertEquals(1, count(metaData.getTables(null, "PUBLIC", "UNCACHED_USERS", null)));
+            assertEquals(2, cache.size());
+            createTable(h2, "uncached_users_2");
+            assertEquals(1, count(metaData.getTables(null, "PUBLIC", "UNCACHED_USERS_2", null)));
+        }
+    }
+
+    @Test
+    void keyedByUser() throws SQLException {
+        try (final var h2 = DriverManager.getConnection("jdbc:h2:mem:metaDataCacheUser", "sa", "")) {
+            seedUsers(h2);
+
+            final var cache = new MetaDataCache(60_000, 16);
+            assertEquals(1, countTables(metaData(h2, cache, "first")));
+
+            createTable(h2, "other_users");
+            assertEquals(1, countTables(metaData(h2, cache, "first")));
+            assertEquals(2, countTables(metaData(h2, cache, "second")));
+            assertEquals(2, cache.size());
+        }
+    }
+
+    @Test
+    void sharedResultsAreIndependentCursors() throws SQLException {
+        try (final var h2 = DriverManager.getConnection("jdbc:h2:mem:metaDataCacheCursors", "sa", "")) {
+            seedUsers(h2);
+
+            final var metaData = metaData(h2, new MetaDataCache(60_000, 16), "sa");
+            try (final var first = metaData.getColumns(null, "PUBLIC", "SOME_USERS", null)) {
+                assertEquals(2, count(metaData.getColumns(null, "PUBLIC", "SOME_USERS", null))); // closed by count
+                assertEquals(2, count(first)); // not impacted by the other cursor
+            }
+            assertEquals(2, count(metaData.getColumns(null, "PUBLIC", "SOME_USERS", null)));
+        }
+    }
+
+    @Test
+    void invalidate() throws SQLException {
+        try (final var h2 = DriverManager.getConnection("jdbc:h2:mem:metaDataCacheInvalidate", "sa", "")) {
+            seedUsers(h2);
+
+            final var cache = new MetaDataCache(60_000, 16);
+            final var metaData = metaData(h2, cache, "sa");
+            assertEquals(1, countTables(metaData));
+
+            createTable(h2, "migrated_users");
+            metaData.invalidate();
+            assertEquals(0, cache.size());
+            assertEquals(2, countTables(metaData));
+        }
+    }
+
+    private CachingDatabaseMetaData metaData(final Connection connection, final MetaDataCache cache, final String user) throws SQLException {
+        return new CachingDatabaseMetaData(connection.getMetaData(), connection, cache, user);
+    }
+
+    private int countTables(final DatabaseMetaData metaData) throws SQLException {
+        return count(metaData.getTables(null, "PUBLIC", "%", new String[]{"TABLE"}));
+    }
+
+    private int count(final ResultSet resultSet) throws SQLException {
+        try (resultSet) {
+            int count = 0;
+            while (resultSet.next()) {
+                count++;
+            }
+            return count;
+        }
+    }
+
+    private void createTable(final Connection connection, final String name) throws SQLException {
+        try (final var stmt = connection.createStatement()) {
+            stmt.execute("create table " + name + "(id varchar(16))");
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RewriteSnapshotTest {
+    @Test
+    void roundTrip(@TempDir final Path work) throws IOException {
+        final var target = work.resolve("rules.snapshot");
+        RewriteSnapshot.write(Map.of(
+                "swap", Map.of(
+                        "sql.matching", "select a, b from t where a = ? and b = ?",
+                        "sql.replacing", "select b, a from t where b = ? and a = ?",
+                        "bindings.1", "2",
+                        "bindings.2", "1",
+                        "resultset.index.1", "2",
+                        "resultset.index.2", "1",
+                        "resultset.name.A", "B",
+                        "timeout.max", "30",
+                        "priority", "5",
+                        "delegate", "replica"),
+                "sharded", Map.of(
+                        "sql.matching", "select * from items where tenant = ?",
+                        "sharding.delegates", "s1, s2",
+                        "sharding.binding", "1",
+                        "sharding.fanOut", "true",
+                        "singleFlight", "true"),
+                "limited", Map.of(
+                        "sql.matching", "select * from reports",
+                        "concurrency.max", "2",
+                        "loader.sql", "select * from reports where id in ({keys})",
+                        "loader.keyBinding", "1"),
+                "regex", Map.of(
+                        "sql.matching", "select (.+) from users",
+                        "sql.replacing", "select $1 from all_users",
+                        "type", "REGEX")), target);
+        assertTrue(RewriteSnapshot.isSnapshot(target));
+
+        final var snapshot = RewriteSnapshot.open(target);
+        assertEquals(4, snapshot.size());
+
+        final var swap = snapshot.get(sql("SELECT a, b FROM t WHERE a = ? AND b = ?"));
+        assertNotNull(swap);
+        assertEquals("swap", swap.name());
+        assertEquals("select b, a from t where b = ? and a = ?", swap.replacement());
+        assertEquals(RewriteConfiguration.RewriteType.PLAIN, swap.type());
+        assertEquals(Map.of(1, 2, 2, 1), swap.bindingIndices());
+        assertEquals(Map.of(1, 2, 2, 1), swap.resultSetIndexOverride());
+        assertEquals(Map.of("A", "B"), swap.resultSetNameOverride());
+        assertEquals(30, swap.maxTimeout());
+        assertEquals(5, swap.priority());
+        assertEquals("replica", swap.delegate());
+        assertNull(swap.sharding());
+        assertNull(swap.bulkhead());
+        assertNull(swap.singleFlight());
+        assertSame(swap, snapshot.get(sql("select a, b from t where a = ? and b = ?"))); // decoded once
+
+        final var sharded = snapshot.get(sql("select * from items where tenant = ?"));
+        assertEquals(List.of("s1", "s2"), sharded.sharding().delegates());
+        assertTrue(sharded.sharding().fanOut());
+        assertNotNull(sharded.singleFlight());
+        assertEquals(Map.of(), sharded.bindingIndices());
+
+        final var limited = snapshot.get(sql("select * from reports"));
+        assertEquals(2, limited.bulkhead().maxConcurrency());
+        assertEquals(1, limited.keyLoader().keyBinding());
+
+        assertNull(snapshot.get(sql("select * from unknown")));
+
+        // regexes and bulkheads are needed upfront
+        final var eager = snapshot.eagerRules();
+        assertEquals(2, eager.size());
+        assertEquals(Set.of("limited", "regex"), eager.values().stream().map(RewriteConfiguration.RewriteStatement::name).collect(toSet()));
+
+        final var configuration = new RewriteConfiguration(snapshot, eager, false);
+        assertEquals("select id from all_users", configuration.match("select id from users").sql());
+        assertEquals("swap", configuration.match("select a, b from t where a = ? and b = ?").configuration().name());
+    }
+
+    @Test
+    void rewriteWhileOpened(@TempDir final Path work) throws IOException {
+        final var target = work.resolve("rules.snapshot");
+        RewriteSnapshot.write(Map.of(
+                "first", Map.of("sql.matching", "select * from first", "sql.replacing", "select * from first_v2"),
+                "second", Map.of("sql.matching", "select * from second", "sql.replacing", "select * from second_v2")), target);
+        final var opened = RewriteSnapshot.open(target);
+
+        // smaller file, an in place rewrite would truncate the opened mapping
+        RewriteSnapshot.write(Map.of("other", Map.of("sql.matching", "select * from other")), target);
+
+        assertEquals(2, opened.size());
+        assertEquals("select * from second_v2", opened.get(sql("select * from second")).replacement());
+
+        final var reopened = RewriteSnapshot.open(target);
+        assertEquals(1, reopened.size());
+        assertNotNull(reopened.get(sql("select * from other")));
+        try (final var files = Files.list(work)) { // no leftover temporary file
+            assertEquals(List.of("rules.snapshot"), files.map(it -> it.getFileName().toString()).collect(toList()));
+        }
+    }
+
+    @Test
+    void rejectDuplicatedMatchingSql(@TempDir final Path work) {
+        final var rules = new HashMap<String, Map<String, String>>();
+        rules.put("first", Map.of("sql.matching", "select * from t"));
+        rules.put("second", Map.of("sql.matching", "SELECT * FROM T")); // case insensitive by default
+        final var error = assertThrows(IllegalArgumentException.class, () -> RewriteSnapshot.write(rules, work.resolve("rules.snapshot")));
+        assertTrue(error.getMessage().startsWith("Duplicated matching sql"), error::getMessage);
+        assertFalse(Files.exists(work.resolve("rules.snapshot")));
+    }
+
+    @Test
+    void rejectInvalidRule(@TempDir final Path work) {
+        assertThrows(IllegalArgumentException.class, () -> RewriteSnapshot.write(
+                Map.of("invalid", Map.of("sql.matching", "select * from t", "type", "UNKNOWN")),
+                work.resolve("rules.snapshot")));
+    }
+
+    @Test
+    void rejectOtherVersions(@TempDir final Path work) throws IOException {
+        final var target = work.resolve("old.snapshot");
+        Files.write(target, ByteBuffer.allocate(3 * Integer.BYTES).putInt(0x594A5253).putInt(1).putInt(0).array());
+        assertTrue(RewriteSnapshot.isSnapshot(target));
+        final var error = assertThrows(IllegalArgumentException.class, () -> RewriteSnapshot.open(target));
+        assertEquals("Unsupported snapshot version: 1", error.getMessage());
+    }
+
+    private static RewriteConfiguration.Sql sql(final String sql) {
+        return new RewriteConfiguration.Sql(sql, true, sql.toLowerCase(Locale.ROOT).hashCode());
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding;
+
+import org.h2.Driver;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Map;
+
+import static io.yupiik.jdbc.overriding.Databases.asMap;
+import static io.yupiik.jdbc.overriding.Databases.seedUsers;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RewritingDataSourceTest {
+    @Test
+    void staleHandle() throws SQLException {
+        try (final var h2 = DriverManager.getConnection("jdbc:h2:mem:poolStaleHandle", "sa", "");
+             final var dataSource = newDataSource("poolStaleHandle")) {
+            seedUsers(h2);
+
+            final var connection = dataSource.getConnection();
+            connection.close();
+            connection.close(); // idempotent
+            assertTrue(connection.isClosed());
+            assertFalse(connection.isValid(1));
+            for (final var call : new ConnectionCall[]{
+                    c -> c.prepareStatement("select id, name from some_users"), // rewritten
+                    c -> c.prepareStatement("select 1"),
+                    Connection::createStatement,
+                    Connection::getMetaData,
+                    c -> c.nativeSQL("select 1")}) {
+                final var error = assertThrows(SQLException.class, () -> call.apply(connection));
+                assertEquals("Connection closed", error.getMessage());
+            }
+
+            // the physical connection is still usable by the next borrower
+            try (final var next = dataSource.getConnection();
+                 final var stmt = next.prepareStatement("select id, name from some_users");
+                 final var set = stmt.executeQuery()) {
+                assertEquals(Map.of("0002", "user 2"), asMap(set));
+            }
+            assertEquals(1, dataSource.getCreatedCount());
+        }
+    }
+
+    @Test
+    void stateIsResetBetweenBorrowers() throws SQLException {
+        try (final var h2 = DriverManager.getConnection("jdbc:h2:mem:poolStateReset", "sa", "");
+             final var dataSource = newDataSource("poolStateReset")) {
+            seedUsers(h2);
+            try (final var stmt = h2.createStatement()) {
+                stmt.execute("create schema other");
+            }
+
+            final int isolation;
+            final String schema;
+            try (final var connection = dataSource.getConnection()) {
+                isolation = connection.getTransactionIsolation();
+                schema = connection.getSchema();
+                assertTrue(connection.getAutoCommit());
+
+                connection.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+                connection.setSchema("OTHER");
+                connection.setAutoCommit(false);
+                try (final var stmt = connection.createStatement()) {
+                    stmt.execute("insert into public.some_users(id, name) values('0003', 'user 3')");
+                }
+            }
+            assertEquals(0, dataSource.getActiveConnections());
+            assertEquals(1, dataSource.getIdleConnections());
+
+            try (final var connection = dataSource.getConnection()) {
+                assertTrue(connection.getAutoCommit());
+                assertEquals(isolation, connection.getTransactionIsolation());
+                assertEquals(schema, connection.getSchema());
+                try (final var stmt = connection.createStatement();
+                     final var set = stmt.executeQuery("select count(*), count(*) from some_users")) {
+                    assertEquals(Map.of("2", "2"), asMap(set)); // pending insert rolled back
+                }
+            }
+            assertEquals(1, dataSource.getCreatedCount());
+            assertEquals(0, dataSource.getDestroyedCount());
+        }
+    }
+
+    @Test
+    void openStatementsAreClosed() throws SQLException {
+        try (final var h2 = DriverManager.getConnection("jdbc:h2:mem:poolStatements", "sa", "");
+             final var dataSource = newDataSource("poolStatements")) {
+            seedUsers(h2);
+
+            final var connection = dataSource.getConnection();
+            final var rewritten = connection.prepareStatement("select id, name from some_users");
+            final var plain = connection.createStatement();
+            final var set = plain.executeQuery("select id from some_users");
+            connection.close();
+
+            assertTrue(rewritten.isClosed());
+            assertTrue(plain.isClosed());
+            assertTrue(set.isClosed());
+        }
+    }
+
+    @Test
+    void abortReleasesThePermit() throws SQLException {
+        try (final var h2 = DriverManager.getConnection("jdbc:h2:mem:poolAbort", "sa", "");
+             final var dataSource = newDataSource("poolAbort")) {
+            seedUsers(h2);
+
+            final var connection = dataSource.getConnection();
+            assertEquals(1, dataSource.getActiveConnections());
+            connection.abort(Runnable::run);
+            assertTrue(connection.isClosed());
+            assertEquals(0, dataSource.getActiveConnections());
+            assertEquals(0, dataSource.getIdleConnections());
+            assertEquals(1, dataSource.getDestroyedCount());
+            connection.close(); // no double release
+
+            try (final var next = dataSource.getConnection()) { // maxSize=1 so it would time out if the permit leaked
+                assertTrue(next.isValid(1));
+            }
+            assertEquals(2, dataSource.getCreatedCount());
+            assertEquals(0, dataSource.getActiveConnections());
+        }
+    }
+
+    private RewritingDataSource newDataSource(final String name) {
+        final var dataSource = new RewritingDataSource();
+        dataSource.setUrl("jdbc:yupiik:statement-overriding-jdbc-driver:driver=" + Driver.class.getName() + ";url=jdbc:h2:mem:" + name + ";configuration=DriverTest.properties");
+        dataSource.setUsername("sa");
+        dataSource.setPassword("");
+        dataSource.setMaxSize(1);
+        dataSource.setConnectionTimeout(100);
+        return dataSource;
+    }
+
+    @FunctionalInterface
+    private interface ConnectionCall {
+        Object apply(Connection connection) throws SQLException;
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding;
+
+import org.h2.Driver;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import static io.yupiik.jdbc.overriding.Databases.asMap;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardingTest {
+    @Test
+    void shardByBinding() throws SQLException {
+        try (final var primary = DriverManager.getConnection("jdbc:h2:mem:shardByBinding", "sa", "");
+             final var shard1 = DriverManager.getConnection("jdbc:h2:mem:shardByBinding_1", "sa", "");
+             final var shard2 = DriverManager.getConnection("jdbc:h2:mem:shardByBinding_2", "sa", "")) {
+            createTable(shard1, shard2);
+
+            try (final var wrapper = connect("shardByBinding")) {
+                try (final var stmt = wrapper.prepareStatement("insert into tenant_items(id, tenant) values(?, ?)")) {
+                    for (final int tenant : new int[]{10, 200, 20}) {
+                        stmt.setString(1, "item" + tenant);
+                        stmt.setInt(2, tenant);
+                        stmt.addBatch();
+                    }
+                    assertEquals(3, IntStream.of(stmt.executeBatch()).sum());
+                }
+
+                // routed by key
+                try (final var stmt = wrapper.prepareStatement("select id, tenant from tenant_items where tenant = ?")) {
+                    stmt.setInt(1, 200);
+                    try (final var set = stmt.executeQuery()) {
+                        assertEquals(Map.of("item200", "200"), asMap(set));
+                    }
+                    stmt.setInt(1, 10);
+                    try (final var set = stmt.executeQuery()) {
+                        assertEquals(Map.of("item10", "10"), asMap(set));
+                    }
+                }
+
+                // no key so fan-out
+                try (final var stmt = wrapper.prepareStatement("select id, tenant from tenant_items");
+                     final var set = stmt.executeQuery()) {
+                    assertEquals(Map.of("item10", "10", "item20", "20", "item200", "200"), asMap(set));
+                }
+            }
+
+            // ensure data are physically split
+            try (final var stmt = shard2.createStatement();
+                 final var set = stmt.executeQuery("select id, tenant from tenant_items")) {
+                assertEquals(Map.of("item200", "200"), asMap(set));
+            }
+        }
+    }
+
+    @Test
+    void hashIgnoresTheBindingType() {
+        final var sharding = new RewriteConfiguration.Sharding(
+                List.of("a", "b", "c"), 1, RewriteConfiguration.ShardingStrategy.HASH, null, false);
+        for (final long key : new long[]{0, 1, 12, 1001, -42, 123456789012L}) {
+            final var expected = sharding.select(key);
+            assertEquals(expected, sharding.select((int) key), () -> "int " + key);
+            assertEquals(expected, sharding.select(BigInteger.valueOf(key)), () -> "BigInteger " + key);
+            assertEquals(expected, sharding.select(Long.toString(key)), () -> "String " + key);
+            assertEquals(expected, sharding.select(" " + key + " "), () -> "padded String " + key);
+        }
+        // not numeric keys still use the string hash
+        assertEquals(sharding.select("tenant-1"), sharding.select("tenant-1"));
+    }
+
+    @Test
+    void rangeRejectsNotNumericKeys() throws SQLException {
+        try (final var primary = DriverManager.getConnection("jdbc:h2:mem:shardInvalidKey", "sa", "");
+             final var shard1 = DriverManager.getConnection("jdbc:h2:mem:shardInvalidKey_1", "sa", "");
+             final var shard2 = DriverManager.getConnection("jdbc:h2:mem:shardInvalidKey_2", "sa", "")) {
+            createTable(shard1, shard2);
+
+            try (final var wrapper = connect("shardInvalidKey");
+                 final var stmt = wrapper.prepareStatement("select id, tenant from tenant_items where tenant = ?")) {
+                stmt.setString(1, "tenant-1");
+                final var error = assertThrows(SQLException.class, stmt::executeQuery);
+                assertEquals("Invalid sharding key 'tenant-1' for rule 'findTenantItems', RANGE sharding needs a numeric key", error.getMessage());
+
+                stmt.setString(1, " 200 "); // numeric strings are fine
+                try (final var set = stmt.executeQuery()) {
+                    assertEquals(Map.of(), asMap(set));
+                }
+            }
+        }
+    }
+
+    @Test
+    void statementIsOnlyPreparedOnTheRoutedShard() throws SQLException {
+        try (final var primary = DriverManager.getConnection("jdbc:h2:mem:preparedOnRoutedShard", "sa", "");
+             final var shard1 = DriverManager.getConnection("jdbc:h2:mem:preparedOnRoutedShard_1", "sa", "");
+             final var shard2 = DriverManager.getConnection("jdbc:h2:mem:preparedOnRoutedShard_2", "sa", "")) {
+            createTable(shard2); // preparing the statement on the first shard would fail
+            try (final var stmt = shard2.createStatement()) {
+                stmt.execute("insert into tenant_items(id, tenant) values('item200', 200)");
+            }
+
+            try (final var wrapper = connect("preparedOnRoutedShard");
+                 final var stmt = wrapper.prepareStatement("select id, tenant from tenant_items where tenant = ?")) {
+                stmt.setInt(1, 200);
+                try (final var set = stmt.executeQuery()) {
+                    assertEquals(Map.of("item200", "200"), asMap(set));
+                }
+
+                stmt.setInt(1, 10);
+                assertThrows(SQLException.class, stmt::executeQuery);
+            }
+        }
+    }
+
+    @Test
+    void transactionIsPropagatedToShards() throws SQLException {
+        try (final var primary = DriverManager.getConnection("jdbc:h2:mem:shardTransaction", "sa", "");
+             final var shard1 = DriverManager.getConnection("jdbc:h2:mem:shardTransaction_1", "sa", "");
+             final var shard2 = DriverManager.getConnection("jdbc:h2:mem:shardTransaction_2", "sa", "")) {
+            createTable(shard1, shard2);
+
+            try (final var wrapper = connect("shardTransaction")) {
+                wrapper.setAutoCommit(false);
+                insert(wrapper, "rolledBack", 200);
+                assertEquals(0, count(shard2)); // not yet committed
+                wrapper.rollback();
+                assertEquals(0, count(shard2));
+
+                insert(wrapper, "committed", 200);
+                insert(wrapper, "committed", 10); // shard opened inside the transaction
+                assertEquals(0, count(shard1));
+                assertEquals(0, count(shard2));
+                wrapper.commit();
+                assertEquals(1, count(shard1));
+                assertEquals(1, count(shard2));
+
+                wrapper.setAutoCommit(true);
+                insert(wrapper, "autoCommit", 200);
+                assertEquals(2, count(shard2));
+            }
+        }
+    }
+
+    @Test
+    void fanOut() throws SQLException {
+        try (final var primary = DriverManager.getConnection("jdbc:h2:mem:shardFanOut", "sa", "");
+             final var shard1 = DriverManager.getConnection("jdbc:h2:mem:shardFanOut_1", "sa", "");
+             final var shard2 = DriverManager.getConnection("jdbc:h2:mem:shardFanOut_2", "sa", "")) {
+            createTable(shard1, shard2);
+
+            try (final var wrapper = connect("shardFanOut")) {
+                for (final int tenant : new int[]{1, 2, 150}) {
+                    insert(wrapper, "item" + tenant, tenant);
+                }
+
+                // parallel (one execution per shard)
+                final var stmt = wrapper.prepareStatement("select id, tenant from tenant_items");
+                try (stmt; final var set = stmt.executeQuery()) {
+                    assertEquals(Map.of("item1", "1", "item2", "2", "item150", "150"), asMap(set));
+                }
+                assertTrue(stmt.isClosed());
+                assertThrows(SQLException.class, stmt::executeQuery);
+
+                // sequential (parallelism=1), counts are summed
+                try (final var update = wrapper.prepareStatement("update tenant_items set id = id")) {
+                    assertEquals(3, update.executeUpdate());
+                }
+            }
+        }
+    }
+
+    @Test
+    void deadlineIsAppliedOnTheRoutedShard() throws SQLException {
+        try (final var primary = DriverManager.getConnection("jdbc:h2:mem:shardDeadline", "sa", "");
+             final var shard1 = DriverManager.getConnection("jdbc:h2:mem:shardDeadline_1", "sa", "");
+             final var shard2 = DriverManager.getConnection("jdbc:h2:mem:shardDeadline_2", "sa", "")) {
+            createTable(shard2); // applying the timeout on the first shard would fail to prepare the statement
+            try (final var stmt = shard2.createStatement()) {
+                stmt.execute("insert into tenant_items(id, tenant) values('item200', 200)");
+            }
+
+            try (final var wrapper = connect("shardDeadline");
+                 final var stmt = wrapper.prepareStatement("select id, tenant from tenant_items where tenant = ?");
+                 final var deadline = Deadline.in(Duration.ofSeconds(30))) {
+                stmt.setInt(1, 200);
+                try (final var set = stmt.executeQuery()) {
+                    assertEquals(Map.of("item200", "200"), asMap(set));
+                }
+                assertTimeout(stmt.getQueryTimeout());
+            }
+        }
+    }
+
+    @Test
+    void deadlineFollowsTheShards() throws SQLException {
+        try (final var primary = DriverManager.getConnection("jdbc:h2:mem:shardDeadlineSwitch", "sa", "");
+             final var shard1 = DriverManager.getConnection("jdbc:h2:mem:shardDeadlineSwitch_1", "sa", "");
+             final var shard2 = DriverManager.getConnection("jdbc:h2:mem:shardDeadlineSwitch_2", "sa", "")) {
+            createTable(shard1, shard2);
+
+            try (final var wrapper = connect("shardDeadlineSwitch");
+                 final var deadline = Deadline.in(Duration.ofSeconds(30))) {
+                try (final var stmt = wrapper.prepareStatement("select id, tenant from tenant_items where tenant = ?")) {
+                    for (final int tenant : new int[]{10, 200, 10}) { // shard1, shard2 then shard1 again
+                        stmt.setInt(1, tenant);
+                        stmt.executeQuery().close();
+                        assertTimeout(stmt.getQueryTimeout());
+                    }
+                }
+
+                // each fanned-out statement gets the timeout, sequential so the last shard is the current one
+                try (final var stmt = wrapper.prepareStatement("update tenant_items set id = id")) {
+                    assertEquals(0, stmt.executeUpdate());
+                    assertTimeout(stmt.getQueryTimeout());
+                }
+            }
+        }
+    }
+
+    private void assertTimeout(final int timeout) {
+        assertTrue(timeout > 0 && timeout <= 30, () -> "timeout=" + timeout);
+    }
+
+    private void insert(final Connection connection, final String id, final int tenant) throws SQLException {
+        try (final var stmt = connection.prepareStatement("insert into tenant_items(id, tenant) values(?, ?)")) {
+            stmt.setString(1, id);
+            stmt.setInt(2, tenant);
+            assertEquals(1, stmt.executeUpdate());
+        }
+    }
+
+    private int count(final Connection connection) throws SQLException {
+        try (final var stmt = connection.createStatement();
+             final var set = stmt.executeQuery("select count(*) from tenant_items")) {
+            assertTrue(set.next());
+            return set.getInt(1);
+        }
+    }
+
+    private void createTable(final Connection... shards) throws SQLException {
+        for (final var shard : shards) {
+            try (final var stmt = shard.createStatement()) {
+                stmt.execute("create table tenant_items(id varchar(16), tenant int)");
+            }
+        }
+    }
+
+    private Connection connect(final String name) throws SQLException {
+        return DriverManager.getConnection(
+                "jdbc:yupiik:statement-overriding-jdbc-driver:driver=" + Driver.class.getName() + ";" +
+                        "url=jdbc:h2:mem:" + name + ";" +
+                        "delegate.shard1.url=jdbc:h2:mem:" + name + "_1;" +
+                        "delegate.shard2.url=jdbc:h2:mem:" + name + "_2;" +
+                        "configuration=ShardingTest.properties", "sa", "");
+    }
+}
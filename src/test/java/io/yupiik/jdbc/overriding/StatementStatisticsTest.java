@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2023 - Yupiik SAS - https://www.yupiik.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.yupiik.jdbc.overriding;
+
+import io.yupiik.jdbc.overriding.metrics.StatementStatistics;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.function.Function.identity;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toMap;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StatementStatisticsTest {
+    @Test
+    void evictionInheritsTheMinimumCount() {
+        final var statistics = new StatementStatistics(2);
+        record(statistics, "a", 3);
+        record(statistics, "b", 1);
+        record(statistics, "c", 1);
+
+        final var snapshot = byFingerprint(statistics);
+        assertEquals(List.of("a", "c"), snapshot.keySet().stream().sorted().collect(toList()));
+        assertEquals(3, snapshot.get("a").getCalls());
+        assertEquals(0, snapshot.get("a").getCallsOverestimation());
+        assertEquals(2, snapshot.get("c").getCalls()); // 1 inherited from b
+        assertEquals(1, snapshot.get("c").getCallsOverestimation());
+    }
+
+    @Test
+    void heavyHittersAreKept() {
+        final var statistics = new StatementStatistics(4);
+        for (int i = 0; i < 1_000; i++) {
+            record(statistics, "hot", 1);
+            record(statistics, "cold " + i, 1);
+        }
+
+        final var snapshot = byFingerprint(statistics);
+        assertEquals(4, snapshot.size());
+        assertEquals(1_000, snapshot.get("hot").getCalls());
+        assertEquals(0, snapshot.get("hot").getCallsOverestimation());
+        snapshot.values().stream()
+                .filter(it -> !"hot".equals(it.getFingerprint()))
+                .forEach(it -> assertTrue(it.getCalls() - it.getCallsOverestimation() <= 1, it::toString));
+    }
+
+    @Test
+    void heavyHittersAreKeptWithSampledEviction() {
+        final var statistics = new StatementStatistics(100); // bigger than the eviction sample
+        for (int i = 0; i < 5; i++) {
+            record(statistics, "hot " + i, 1_000);
+        }
+        for (int i = 0; i < 10_000; i++) {
+            record(statistics, "cold " + i, 1);
+        }
+
+        final var snapshot = byFingerprint(statistics);
+        assertEquals(100, snapshot.size());
+        for (int i = 0; i < 5; i++) {
+            final var hot = snapshot.get("hot " + i);
+            assertEquals(1_000, hot.getCalls());
+            assertEquals(0, hot.getCallsOverestimation());
+        }
+        snapshot.values().stream()
+                .filter(it -> it.getFingerprint().startsWith("cold "))
+                .forEach(it -> assertTrue(it.getCalls() - it.getCallsOverestimation() <= 1, it::toString));
+    }
+
+    @Test
+    void rowsAndErrors() {
+        final var statistics = new StatementStatistics(4);
+        final var tracker = statistics.tracker("select");
+        tracker.record(1_000, -1, true); // result set, rows not known yet
+        tracker.onRows(3);
+        tracker.record(1_000, 2, false);
+        statistics.onRows("evicted", 10); // ignored
+
+        final var snapshot = byFingerprint(statistics);
+        assertEquals(1, snapshot.size());
+        final var select = snapshot.get("select");
+        assertEquals(2, select.getCalls());
+        assertEquals(1, select.getErrors());
+        assertEquals(5, select.getRows());
+    }
+
+    @Test
+    void snapshotIsSortedByTotalTime() {
+        final var statistics = new StatementStatistics(4);
+        statistics.record("fast", MILLISECONDS.toNanos(1), 0, true);
+        statistics.record("fast", MILLISECONDS.toNanos(1), 0, true);
+        statistics.record("slow", MILLISECONDS.toNanos(10), 0, true);
+
+        final var snapshot = statistics.snapshot();
+        assertEquals(List.of("slow", "fast"), snapshot.stream().map(StatementStatistics.Snapshot::getFingerprint).collect(toList()));
+        assertEquals(10_000, snapshot.get(0).getTotalMicros());
+        assertEquals(10_000, snapshot.get(0).getMaxMicros());
+        assertEquals(2_000, snapshot.get(1).getTotalMicros());
+        assertEquals(1_000, snapshot.get(1).getMeanMicros());
+
+        statistics.reset();
+        assertTrue(statistics.snapshot().isEmpty());
+    }
+
+    @Test
+    void dump(@TempDir final Path work) throws IOException {
+        final var statistics = new StatementStatistics(4);
+        statistics.record("select\t1", MILLISECONDS.toNanos(2), 1, true);
+
+        final var target = work.resolve("nested/statistics.tsv");
+        statistics.dump(target);
+        assertEquals(List.of(
+                "calls\terrors\trows\ttotal_us\tmean_us\tp50_us\tp99_us\tmax_us\tcalls_overestimation\tfingerprint",
+                "1\t0\t1\t2000\t2000\t2000\t2000\t2000\t0\tselect 1"), Files.readAllLines(target));
+        try (final var files = Files.list(target.getParent())) { // no leftover temporary file
+            assertEquals(List.of("statistics.tsv"), files.map(it -> it.getFileName().toString()).collect(toList()));
+        }
+    }
+
+    @Test
+    void concurrentRecords() throws InterruptedException {
+        final var statistics = new StatementStatistics(16);
+        final var start = new CountDownLatch(1);
+        final var threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            final var fingerprint = "statement " + (i % 2);
+            threads[i] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                record(statistics, fingerprint, 1_000);
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (final var thread : threads) {
+            thread.join();
+        }
+
+        final var snapshot = byFingerprint(statistics);
+        assertEquals(2, snapshot.size());
+        assertEquals(4_000, snapshot.get("statement 0").getCalls());
+        assertEquals(4_000, snapshot.get("statement 1").getCalls());
+    }
+
+    private void record(final StatementStatistics statistics, final String fingerprint, final int calls) {
+        for (int i = 0; i < calls; i++) {
+            statistics.record(fingerprint, 1_000, 0, true);
+        }
+    }
+
+    private Map<String, StatementStatistics.Snapshot> byFingerprint(final StatementStatistics statistics) {
+        return statistics.snapshot().stream().collect(toMap(StatementStatistics.Snapshot::getFingerprint, identity()));
+    }
+}